@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of tokens in binary format (see {@link ITokenizeLineResult2#getTokens()}): token i is the start
+ * index at offset 2*i and the metadata at offset 2*i + 1 of {@link #getArray()}.
+ * <p>
+ * A buffer is filled by {@link IGrammar#tokenizeLine2(String, StackElement, java.time.Duration, BinaryTokenBuffer)}, which
+ * appends the tokens of a line after the tokens already in the buffer, so that a buffer can be reused for each line
+ * (after {@link #clear()}) or hold the tokens of several lines without allocating once it is large enough.
+ * </p>
+ */
+public final class BinaryTokenBuffer {
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private int[] array;
+	private int size;
+	private boolean stoppedEarly;
+
+	public BinaryTokenBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            the initial number of tokens the buffer can hold.
+	 */
+	public BinaryTokenBuffer(int capacity) {
+		this.array = new int[Math.max(capacity, 1) * 2];
+	}
+
+	/**
+	 * Returns the number of tokens in the buffer.
+	 *
+	 * @return the number of tokens in the buffer.
+	 */
+	public int getTokenCount() {
+		return size / 2;
+	}
+
+	/**
+	 * Returns the start index of the given token.
+	 *
+	 * @return the start index of the given token.
+	 */
+	public int getStartIndex(int token) {
+		checkToken(token);
+		return array[token * 2];
+	}
+
+	/**
+	 * Returns the metadata of the given token.
+	 *
+	 * @return the metadata of the given token.
+	 */
+	public int getMetadata(int token) {
+		checkToken(token);
+		return array[token * 2 + 1];
+	}
+
+	/**
+	 * Returns the array backing the buffer, holding the tokens up to the offset 2 * {@link #getTokenCount()}. The
+	 * array is replaced when the buffer grows.
+	 *
+	 * @return the array backing the buffer.
+	 */
+	public int[] getArray() {
+		return array;
+	}
+
+	/**
+	 * Returns a copy of the tokens in binary format.
+	 *
+	 * @return a copy of the tokens in binary format.
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(array, size);
+	}
+
+	/**
+	 * Returns a copy of the tokens from the token fromToken (inclusive) to the token toToken (exclusive) in binary
+	 * format, e.g. the tokens of one line of a buffer holding several lines.
+	 *
+	 * @return a copy of the given tokens in binary format.
+	 */
+	public int[] toArray(int fromToken, int toToken) {
+		if (fromToken < 0 || fromToken > toToken || toToken * 2 > size) {
+			throw new IndexOutOfBoundsException("tokens " + fromToken + " to " + toToken + " of " + getTokenCount());
+		}
+		return Arrays.copyOfRange(array, fromToken * 2, toToken * 2);
+	}
+
+	/**
+	 * Returns true if the tokenization of the last line appended to the buffer stopped before the end of the line
+	 * (see {@link ITokenizeLineResult2#isStoppedEarly()}).
+	 *
+	 * @return true if the tokenization of the last line stopped before the end of the line.
+	 */
+	public boolean isStoppedEarly() {
+		return stoppedEarly;
+	}
+
+	/**
+	 * Removes all the tokens, keeping the array.
+	 */
+	public void clear() {
+		size = 0;
+		stoppedEarly = false;
+	}
+
+	/**
+	 * Appends a token.
+	 */
+	public void add(int startIndex, int metadata) {
+		if (size + 2 > array.length) {
+			array = Arrays.copyOf(array, array.length * 2);
+		}
+		array[size++] = startIndex;
+		array[size++] = metadata;
+	}
+
+	/**
+	 * Removes the last token.
+	 */
+	public void removeLast() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException("no token");
+		}
+		size -= 2;
+	}
+
+	/**
+	 * Sets the start index of the given token.
+	 */
+	public void setStartIndex(int token, int startIndex) {
+		checkToken(token);
+		array[token * 2] = startIndex;
+	}
+
+	/**
+	 * Sets whether the tokenization of the last line appended to the buffer stopped before the end of the line.
+	 */
+	public void setStoppedEarly(boolean stoppedEarly) {
+		this.stoppedEarly = stoppedEarly;
+	}
+
+	private void checkToken(int token) {
+		if (token < 0 || token * 2 >= size) {
+			throw new IndexOutOfBoundsException("token " + token + " of " + getTokenCount());
+		}
+	}
+
+}
@@ -16,9 +16,12 @@
  */
 package org.eclipse.tm4e.core.grammar;
 
+import java.util.Collection;
 import java.util.Map;
 
 import org.eclipse.tm4e.core.internal.grammar.Grammar;
+import org.eclipse.tm4e.core.internal.grammar.ScopeNames;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScannerOptions;
 import org.eclipse.tm4e.core.internal.oniguruma.OnigString;
 import org.eclipse.tm4e.core.internal.types.IRawGrammar;
 import org.eclipse.tm4e.core.theme.IThemeProvider;
@@ -34,8 +37,86 @@ public static IGrammar createGrammar(IRawGrammar grammar, int initialLanguage,
 		return new Grammar(grammar, initialLanguage, embeddedLanguages, repository, themeProvider);
 	}
 
+	public static IGrammar createGrammar(IRawGrammar grammar, int initialLanguage,
+			Map<String, Integer> embeddedLanguages, IGrammarRepository repository, IThemeProvider themeProvider,
+			OnigScannerOptions scannerOptions) {
+		return new Grammar(grammar, initialLanguage, embeddedLanguages, repository, themeProvider, scannerOptions);
+	}
+
+	/**
+	 * @param scopeNames
+	 *            the scope names table, shared by the grammars of a registry.
+	 */
+	public static IGrammar createGrammar(IRawGrammar grammar, int initialLanguage,
+			Map<String, Integer> embeddedLanguages, IGrammarRepository repository, IThemeProvider themeProvider,
+			OnigScannerOptions scannerOptions, ScopeNames scopeNames) {
+		return new Grammar(grammar, initialLanguage, embeddedLanguages, repository, themeProvider, scannerOptions,
+				scopeNames);
+	}
+
 	public static OnigString createOnigString(String str) {
 		return new OnigString(str);
 	}
 
+	/**
+	 * @param utf16
+	 *            true to match the string in UTF-16, false to match it in UTF-8.
+	 */
+	public static OnigString createOnigString(String str, boolean utf16) {
+		return new OnigString(str, utf16);
+	}
+
+	/**
+	 * Returns the given regexp statistics (see {@link IGrammar#getRegExpProfiles()}) as a JSON array, e.g. to save
+	 * them or to compare them between grammar versions.
+	 */
+	public static String toJson(Collection<? extends IRegExpProfile> profiles) {
+		StringBuilder json = new StringBuilder("[");
+		for (IRegExpProfile profile : profiles) {
+			if (json.length() > 1) {
+				json.append(',');
+			}
+			json.append("\n  {\"ruleId\": ").append(profile.getRuleId());
+			json.append(", \"regExp\": ");
+			appendJsonString(json, profile.getRegExp());
+			json.append(", \"searchCount\": ").append(profile.getSearchCount());
+			json.append(", \"matchCount\": ").append(profile.getMatchCount());
+			json.append(", \"memoHitCount\": ").append(profile.getMemoHitCount());
+			json.append(", \"totalNanos\": ").append(profile.getTotalNanos());
+			json.append(", \"maxNanos\": ").append(profile.getMaxNanos()).append('}');
+		}
+		return json.append(profiles.isEmpty() ? "]" : "\n]").toString();
+	}
+
+	private static void appendJsonString(StringBuilder json, String value) {
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			switch (ch) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if (ch < 0x20) {
+					json.append(String.format("\\u%04x", (int) ch));
+				} else {
+					json.append(ch);
+				}
+			}
+		}
+		json.append('"');
+	}
+
 }
@@ -16,7 +16,12 @@
  */
 package org.eclipse.tm4e.core.grammar;
 
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * TextMate grammar API.
@@ -67,6 +72,24 @@ public interface IGrammar {
 	 */
 	ITokenizeLineResult tokenizeLine(String lineText, StackElement prevState);
 
+	/**
+	 * Tokenize `lineText` using previous line state `prevState`, stopping before the end of the line if it takes more
+	 * than `timeLimit`, e.g. for a huge minified line or a regexp backtracking for a very long time (see
+	 * {@link ITokenizeLineResult#isStoppedEarly()}). The default implementation ignores the time limit and
+	 * tokenizes the whole line with {@link #tokenizeLine(String, StackElement)}.
+	 * 
+	 * @param lineText
+	 *            the line text to tokenize.
+	 * @param prevState
+	 *            previous line state.
+	 * @param timeLimit
+	 *            the maximum duration of the tokenization, or null for no limit.
+	 * @return the result of the tokenization.
+	 */
+	default ITokenizeLineResult tokenizeLine(String lineText, StackElement prevState, Duration timeLimit) {
+		return tokenizeLine(lineText, prevState);
+	}
+
 	/**
 	 * Tokenize `lineText` using previous line state `prevState`.
 	 * The result contains the tokens in binary format, resolved with the following information:
@@ -90,5 +113,272 @@ public interface IGrammar {
 	 * e.g. for getting the languageId: `(metadata & MetadataConsts.LANGUAGEID_MASK) >>> MetadataConsts.LANGUAGEID_OFFSET`
 	 */
 	ITokenizeLineResult2 tokenizeLine2(String lineText, StackElement prevState);
-	
+
+	/**
+	 * Same as {@link #tokenizeLine2(String, StackElement)}, stopping before the end of the line if it takes more than
+	 * `timeLimit` (see {@link ITokenizeLineResult2#isStoppedEarly()}), or no limit if it is null. The default
+	 * implementation ignores the time limit and tokenizes the whole line with
+	 * {@link #tokenizeLine2(String, StackElement)}.
+	 */
+	default ITokenizeLineResult2 tokenizeLine2(String lineText, StackElement prevState, Duration timeLimit) {
+		return tokenizeLine2(lineText, prevState);
+	}
+
+	/**
+	 * Same as {@link #tokenizeLine2(String, StackElement, Duration)}, appending the tokens in binary format to the
+	 * given buffer instead of returning a new array, so that a caller reusing its buffer does not allocate for the
+	 * tokens. The tokens of the line start at the token count of the buffer before the call. The default
+	 * implementation appends the tokens of {@link #tokenizeLine2(String, StackElement, Duration)}.
+	 * 
+	 * @param lineText
+	 *            the line text to tokenize.
+	 * @param prevState
+	 *            previous line state.
+	 * @param timeLimit
+	 *            the maximum duration of the tokenization, or null for no limit.
+	 * @param tokens
+	 *            the buffer to append the tokens to, see {@link BinaryTokenBuffer#isStoppedEarly()}.
+	 * @return the `prevState` to be passed on to the next line tokenization.
+	 */
+	default StackElement tokenizeLine2(String lineText, StackElement prevState, Duration timeLimit,
+			BinaryTokenBuffer tokens) {
+		ITokenizeLineResult2 result = tokenizeLine2(lineText, prevState, timeLimit);
+		int[] lineTokens = result.getTokens();
+		for (int i = 0; i < lineTokens.length; i += 2) {
+			tokens.add(lineTokens[i], lineTokens[i + 1]);
+		}
+		tokens.setStoppedEarly(result.isStoppedEarly());
+		return result.getRuleStack();
+	}
+
+	/**
+	 * Tokenizes the given lines one after the other, starting with the state `prevState`, with the tokens of all the
+	 * lines in binary format in one array, see {@link ITokenizeLinesResult}. Only the state at the end of the last
+	 * line is kept. The buffers used to tokenize are shared by the lines, so this is cheaper than tokenizing each line
+	 * with {@link #tokenizeLine2(String, StackElement)}.
+	 * 
+	 * @param lines
+	 *            the lines to tokenize, without their line terminator.
+	 * @param prevState
+	 *            the state before the first line.
+	 * @return the result of the tokenization of the lines.
+	 */
+	default ITokenizeLinesResult tokenizeLines(Iterable<? extends CharSequence> lines, StackElement prevState) {
+		return tokenizeLines(lines, prevState, 0);
+	}
+
+	/**
+	 * Same as {@link #tokenizeLines(Iterable, StackElement)}, also keeping the state at the end of every
+	 * `stateInterval`-th line (see {@link ITokenizeLinesResult#getLineEndState(int)}), e.g. to resume the
+	 * tokenization from these lines later. The default implementation appends the tokens of each line with
+	 * {@link #tokenizeLine2(String, StackElement, Duration, BinaryTokenBuffer)}.
+	 * 
+	 * @param stateInterval
+	 *            1 to keep the state at the end of every line, n to keep the state of every n-th line, 0 to only keep
+	 *            the state at the end of the last line.
+	 */
+	default ITokenizeLinesResult tokenizeLines(Iterable<? extends CharSequence> lines, StackElement prevState,
+			int stateInterval) {
+		if (stateInterval < 0) {
+			throw new IllegalArgumentException("stateInterval: " + stateInterval);
+		}
+		BinaryTokenBuffer tokens = new BinaryTokenBuffer(256);
+		int[] lineStartTokens = new int[64];
+		StackElement[] lineEndStates = stateInterval > 0 ? new StackElement[lineStartTokens.length] : null;
+		int lineCount = 0;
+		StackElement state = prevState;
+		for (CharSequence line : lines) {
+			if (lineCount + 1 >= lineStartTokens.length) {
+				lineStartTokens = Arrays.copyOf(lineStartTokens, lineStartTokens.length * 2);
+				if (lineEndStates != null) {
+					lineEndStates = Arrays.copyOf(lineEndStates, lineStartTokens.length);
+				}
+			}
+			lineStartTokens[lineCount] = tokens.getTokenCount();
+			state = tokenizeLine2(line.toString(), state, null, tokens);
+			if (lineEndStates != null && (lineCount + 1) % stateInterval == 0) {
+				lineEndStates[lineCount] = state;
+			}
+			lineCount++;
+		}
+		lineStartTokens[lineCount] = tokens.getTokenCount();
+
+		int[] resultTokens = tokens.getArray();
+		int[] resultLineStartTokens = lineStartTokens;
+		StackElement[] resultLineEndStates = lineEndStates;
+		int resultLineCount = lineCount;
+		StackElement ruleStack = state;
+		return new ITokenizeLinesResult() {
+
+			@Override
+			public int getLineCount() {
+				return resultLineCount;
+			}
+
+			@Override
+			public int getTokenCount() {
+				return resultLineStartTokens[resultLineCount];
+			}
+
+			@Override
+			public int[] getTokens() {
+				return resultTokens;
+			}
+
+			@Override
+			public int getLineStartToken(int line) {
+				if (line < 0 || line > resultLineCount) {
+					throw new IndexOutOfBoundsException("line " + line + " of " + resultLineCount);
+				}
+				return resultLineStartTokens[line];
+			}
+
+			@Override
+			public StackElement getLineEndState(int line) {
+				if (line < 0 || line >= resultLineCount) {
+					throw new IndexOutOfBoundsException("line " + line + " of " + resultLineCount);
+				}
+				if (line == resultLineCount - 1) {
+					return ruleStack;
+				}
+				return resultLineEndStates != null ? resultLineEndStates[line] : null;
+			}
+
+			@Override
+			public StackElement getRuleStack() {
+				return ruleStack;
+			}
+		};
+	}
+
+	/**
+	 * Same as {@link #tokenizeLines(Iterable, StackElement, int)}, tokenizing chunks of the lines in parallel on the
+	 * given pool. Each chunk but the first starts from a state guessed by tokenizing a few lines before it. A chunk
+	 * whose guessed state differs from the end state of the previous chunk is tokenized again from this state, up to
+	 * the first line where both tokenizations end with the same state, so the result is the same as tokenizing the
+	 * lines one after the other. It is faster for large files whose constructs (e.g. block comments) span few lines.
+	 * The default implementation tokenizes the lines one after the other in the calling thread.
+	 * 
+	 * @param pool
+	 *            the pool tokenizing the chunks, e.g. {@link ForkJoinPool#commonPool()}.
+	 */
+	default ITokenizeLinesResult tokenizeLines(List<? extends CharSequence> lines, StackElement prevState,
+			int stateInterval, ForkJoinPool pool) {
+		return tokenizeLines(lines, prevState, stateInterval);
+	}
+
+	/**
+	 * Tokenizes the given line up to its end or until it pauses, once the given offset is reached or once the given
+	 * time budget is spent, so that a very long line can be tokenized in several parts, e.g. its visible prefix
+	 * first. At least one token is scanned by each part. The tokenization is resumed with
+	 * {@link #resumeLinePart(ITokenizeLinePartResult, int, Duration, Duration)}.
+	 * The default implementation does not pause: it tokenizes the whole line with
+	 * {@link #tokenizeLine(String, StackElement, Duration)}.
+	 *
+	 * @param lineText
+	 *            the line to tokenize.
+	 * @param prevState
+	 *            the state at the end of the previous line, or null for the first line.
+	 * @param stopAtOffset
+	 *            the offset in the line from which the tokenization pauses, or {@link Integer#MAX_VALUE}.
+	 * @param timeBudget
+	 *            the time after which the tokenization pauses, or null to not pause on time.
+	 * @param timeLimit
+	 *            the time after which the tokenization of this part stops, like in
+	 *            {@link #tokenizeLine(String, StackElement, Duration)}, or null.
+	 * @return the tokens of the first part of the line.
+	 */
+	default ITokenizeLinePartResult tokenizeLinePart(String lineText, StackElement prevState, int stopAtOffset,
+			Duration timeBudget, Duration timeLimit) {
+		ITokenizeLineResult result = tokenizeLine(lineText, prevState, timeLimit);
+		return new ITokenizeLinePartResult() {
+
+			@Override
+			public IToken[] getTokens() {
+				return result.getTokens();
+			}
+
+			@Override
+			public StackElement getRuleStack() {
+				return result.getRuleStack();
+			}
+
+			@Override
+			public boolean isStoppedEarly() {
+				return result.isStoppedEarly();
+			}
+
+			@Override
+			public boolean isPaused() {
+				return false;
+			}
+
+			@Override
+			public int getStopOffset() {
+				return lineText.length();
+			}
+		};
+	}
+
+	/**
+	 * Resumes the tokenization of a line paused by
+	 * {@link #tokenizeLinePart(String, StackElement, int, Duration, Duration)}. A paused part must be resumed once
+	 * at most.
+	 *
+	 * @param pausedPart
+	 *            the previous part of the line, paused and tokenized by this grammar.
+	 * @param stopAtOffset
+	 *            the offset in the line from which the tokenization pauses again, or {@link Integer#MAX_VALUE}.
+	 * @param timeBudget
+	 *            the time after which the tokenization pauses again, or null to not pause on time.
+	 * @param timeLimit
+	 *            the time after which the tokenization of this part stops, or null.
+	 * @return the tokens of the next part of the line.
+	 * @throws IllegalArgumentException
+	 *             if the part is not paused or was not tokenized by this grammar, always by default since the
+	 *             default implementation does not pause.
+	 */
+	default ITokenizeLinePartResult resumeLinePart(ITokenizeLinePartResult pausedPart, int stopAtOffset,
+			Duration timeBudget, Duration timeLimit) {
+		throw new IllegalArgumentException("The line part is not paused or was not tokenized by this grammar");
+	}
+
+	/**
+	 * Returns the search statistics of the regexps of the grammar (and of the grammars it includes) searched so far,
+	 * by decreasing total search time. The list is empty unless the regexp profiling is enabled, see
+	 * {@link org.eclipse.tm4e.core.registry.IRegistryOptions#isRegExpProfiling()}, and by default.
+	 *
+	 * @return the search statistics of the regexps searched so far.
+	 */
+	default List<IRegExpProfile> getRegExpProfiles() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Resets the search statistics of the regexps, see {@link #getRegExpProfiles()}.
+	 */
+	default void resetRegExpProfiles() {
+		// no statistics by default
+	}
+
+	/**
+	 * Compiles now the rules of the grammar (and of the grammars it includes and of its injections) and the scanners
+	 * of their patterns, with all their anchor variants, which are otherwise compiled when the first lines using them
+	 * are tokenized. Startup code can call it in the background so that the first lines are tokenized quickly. The
+	 * default implementation compiles nothing.
+	 */
+	default void precompile() {
+		// compiled on first use by default
+	}
+
+	/**
+	 * Same as {@link #precompile()}, compiling the scanners of the rules in parallel on the given pool.
+	 * 
+	 * @param pool
+	 *            the pool compiling the scanners, e.g. {@link ForkJoinPool#commonPool()}.
+	 */
+	default void precompile(ForkJoinPool pool) {
+		precompile();
+	}
+
 }
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+/**
+ * Search statistics of a regexp of a grammar, collected when the regexp profiling is enabled (see
+ * {@link org.eclipse.tm4e.core.registry.IRegistryOptions#isRegExpProfiling()}).
+ *
+ */
+public interface IRegExpProfile {
+
+	/**
+	 * Returns the id of the rule of the regexp, -1 for the `end` or `while` regexp of the current begin rule.
+	 *
+	 * @return the id of the rule of the regexp.
+	 */
+	int getRuleId();
+
+	/**
+	 * Returns the regexp, as searched (with its anchors resolved).
+	 *
+	 * @return the regexp.
+	 */
+	String getRegExp();
+
+	/**
+	 * Returns the number of searches of the regexp.
+	 *
+	 * @return the number of searches of the regexp.
+	 */
+	long getSearchCount();
+
+	/**
+	 * Returns the number of scans won by the regexp, i.e. where it was the match used by the tokenizer.
+	 *
+	 * @return the number of scans won by the regexp.
+	 */
+	long getMatchCount();
+
+	/**
+	 * Returns the number of searches of the regexp answered by the match of the same regexp searched on the same line
+	 * by another scanner, without searching the line again.
+	 *
+	 * @return the number of searches of the regexp answered by an earlier search.
+	 */
+	long getMemoHitCount();
+
+	/**
+	 * Returns the total duration of the searches of the regexp, in nanoseconds.
+	 *
+	 * @return the total duration of the searches of the regexp, in nanoseconds.
+	 */
+	long getTotalNanos();
+
+	/**
+	 * Returns the duration of the longest search of the regexp, in nanoseconds.
+	 *
+	 * @return the duration of the longest search of the regexp, in nanoseconds.
+	 */
+	long getMaxNanos();
+
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+/**
+ * Result of the tokenization of a part of a line, see
+ * {@link IGrammar#tokenizeLinePart(String, StackElement, int, java.time.Duration, java.time.Duration)}. The tokens
+ * of the part start where the previous part of the line stopped.
+ *
+ */
+public interface ITokenizeLinePartResult extends ITokenizeLineResult {
+
+	/**
+	 * Returns the state to be passed on to the next line tokenization if the line is tokenized up to its end,
+	 * otherwise the state of the tokenization at its pause.
+	 *
+	 * @return the state at the end of the line or at the pause.
+	 */
+	@Override
+	StackElement getRuleStack();
+
+	/**
+	 * Returns true if the tokenization paused before the end of the line, it can then be resumed with
+	 * {@link IGrammar#resumeLinePart(ITokenizeLinePartResult, int, java.time.Duration, java.time.Duration)}.
+	 *
+	 * @return true if the tokenization paused before the end of the line.
+	 */
+	boolean isPaused();
+
+	/**
+	 * Returns the offset in the line up to which it is tokenized: the tokens of the next part start there.
+	 *
+	 * @return the offset in the line up to which it is tokenized.
+	 */
+	int getStopOffset();
+
+}
@@ -37,4 +37,13 @@ public interface ITokenizeLineResult2 {
 	 */
 	StackElement getRuleStack();
 
+	/**
+	 * Returns true if the tokenization stopped before the end of the line because its time limit was exceeded or its
+	 * thread was interrupted. The rest of the line is then one token with the scopes of the state at the stop, which
+	 * is the returned rule stack.
+	 *
+	 * @return true if the tokenization stopped before the end of the line.
+	 */
+	boolean isStoppedEarly();
+
 }
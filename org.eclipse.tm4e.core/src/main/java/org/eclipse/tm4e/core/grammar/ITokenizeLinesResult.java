@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+/**
+ * Result of the tokenization of several lines at once, see
+ * {@link IGrammar#tokenizeLines(Iterable, StackElement, int)}. The tokens of all the lines are in one array, in
+ * binary format (see {@link ITokenizeLineResult2#getTokens()}), with the start index of each token relative to its
+ * line.
+ *
+ */
+public interface ITokenizeLinesResult {
+
+	/**
+	 * Returns the number of tokenized lines.
+	 *
+	 * @return the number of tokenized lines.
+	 */
+	int getLineCount();
+
+	/**
+	 * Returns the number of tokens of all the lines.
+	 *
+	 * @return the number of tokens of all the lines.
+	 */
+	int getTokenCount();
+
+	/**
+	 * Returns the tokens of all the lines in binary format, up to the offset 2 * {@link #getTokenCount()}: for token
+	 * i, the start index in its line at offset 2*i and the metadata at offset 2*i + 1. The array must not be
+	 * modified.
+	 *
+	 * @return the tokens of all the lines in binary format.
+	 */
+	int[] getTokens();
+
+	/**
+	 * Returns the index of the first token of the given line: the tokens of line i are the tokens from
+	 * getLineStartToken(i) (inclusive) to getLineStartToken(i + 1) (exclusive), the last line ending at
+	 * getLineStartToken({@link #getLineCount()}) which is the token count.
+	 *
+	 * @return the index of the first token of the given line.
+	 */
+	int getLineStartToken(int line);
+
+	/**
+	 * Returns the state at the end of the given line if it was kept (see
+	 * {@link IGrammar#tokenizeLines(Iterable, StackElement, int)}), and null otherwise. The state at the end of the
+	 * last line is always kept.
+	 *
+	 * @return the state at the end of the given line, or null if it was not kept.
+	 */
+	StackElement getLineEndState(int line);
+
+	/**
+	 * Returns the `prevState` to be passed on to the tokenization of the line after the last line.
+	 *
+	 * @return the state at the end of the last line.
+	 */
+	StackElement getRuleStack();
+
+}
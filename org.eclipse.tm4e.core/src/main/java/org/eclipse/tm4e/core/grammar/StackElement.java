@@ -17,10 +17,12 @@
 package org.eclipse.tm4e.core.grammar;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
 import org.eclipse.tm4e.core.internal.grammar.ScopeListElement;
+import org.eclipse.tm4e.core.internal.rule.BeginWhileRule;
 import org.eclipse.tm4e.core.internal.rule.IRuleRegistry;
 import org.eclipse.tm4e.core.internal.rule.Rule;
 
@@ -34,6 +36,8 @@ public class StackElement {
 
 	public static final StackElement NULL = new StackElement(null, 0, 0, null, null, null);
 
+	private static final StackElement[] NO_ELEMENTS = new StackElement[0];
+
 	/**
 	 * The position on the current line where this state was pushed.
 	 * This is relevant only while tokenizing a line, to detect endless loops.
@@ -68,6 +72,23 @@ public class StackElement {
 	 */
 	public final ScopeListElement contentNameScopesList;
 
+	/**
+	 * The hash code, computed from the cached hash codes of the parent and of the scopes.
+	 */
+	private final int hashCode;
+
+	/**
+	 * The interner whose canonical instance this element is, or null (see {@link StackElementInterner}).
+	 */
+	StackElementInterner interner;
+
+	/**
+	 * The elements of the stack whose rule is a {@link BeginWhileRule}, from the bottom of the stack, computed on
+	 * demand (see {@link #getWhileElements(IRuleRegistry)}). The states are shared by the threads tokenizing with the
+	 * same grammar, so the computed array is published safely.
+	 */
+	private volatile StackElement[] whileElements;
+
 	public StackElement(StackElement parent, int ruleId, int enterPos, String endRule, ScopeListElement nameScopesList, ScopeListElement contentNameScopesList) {
 		this.parent = parent;
 		this.depth = (this.parent != null ? this.parent.depth + 1 : 1);
@@ -76,19 +97,33 @@ public StackElement(StackElement parent, int ruleId, int enterPos, String endRul
 		this.endRule = endRule;
 		this.nameScopesList = nameScopesList;
 		this.contentNameScopesList = contentNameScopesList;
+		// same as Objects.hash(depth, ruleId, endRule, parent, contentNameScopesList)
+		this.hashCode = 31 * (31 * (31 * (31 * (31 + depth) + ruleId) + Objects.hashCode(endRule))
+				+ Objects.hashCode(parent)) + Objects.hashCode(contentNameScopesList);
 	}
 
 	/**
-	 * A structural equals check. Does not take into account `scopes`.
+	 * A structural equals check, with the scopes of each element.
 	 */
 	private static boolean structuralEquals(StackElement a, StackElement b) {
-		if (a == b) {
-			return true;
-		}
-		if (a == null || b == null) {
-			return false;
+		while (a != b) {
+			if (a == null || b == null) {
+				return false;
+			}
+			if (a.interner != null && a.interner == b.interner) {
+				// two canonical instances of the same interner are different
+				return false;
+			}
+			if (a.hashCode != b.hashCode || a.depth != b.depth || a.ruleId != b.ruleId
+					|| !Objects.equals(a.endRule, b.endRule)
+					|| !Objects.equals(a.contentNameScopesList, b.contentNameScopesList)
+					|| !Objects.equals(a.nameScopesList, b.nameScopesList)) {
+				return false;
+			}
+			a = a.parent;
+			b = b.parent;
 		}
-		return a.depth == b.depth && a.ruleId == b.ruleId && Objects.equals(a.endRule, b.endRule) && structuralEquals(a.parent, b.parent);
+		return true;
 	}
 
 	@Override
@@ -102,18 +137,18 @@ public boolean equals(Object other) {
 		if (!(other instanceof StackElement)) {
 			return false;
 		}
-		StackElement stackElement = (StackElement)other;
-		return structuralEquals(this, stackElement) && this.contentNameScopesList.equals(stackElement.contentNameScopesList);
+		return structuralEquals(this, (StackElement) other);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(depth, ruleId, endRule, parent, contentNameScopesList);
+		return hashCode;
 	}
 
 	public void reset() {
 		StackElement el = this;
-		while (el != null) {
+		// the enter position of the canonical instances, which may be shared by several threads, is always -1
+		while (el != null && el.interner == null) {
 			el.enterPosition = -1;
 			el = el.parent;
 		}
@@ -142,6 +177,55 @@ public Rule getRule(IRuleRegistry grammar) {
 		return grammar.getRule(this.ruleId);
 	}
 
+	/**
+	 * Returns the elements of this stack whose rule is a {@link BeginWhileRule}, from the bottom of the stack, whose
+	 * while conditions are checked at the start of each line. The returned array must not be modified.
+	 */
+	public StackElement[] getWhileElements(IRuleRegistry grammar) {
+		StackElement[] result = whileElements;
+		if (result != null) {
+			return result;
+		}
+		StackElement[] parentElements = parent == null ? NO_ELEMENTS : parent.whileElements;
+		if (parentElements != null) {
+			result = withWhileElement(parentElements, this, grammar);
+			whileElements = result;
+			return result;
+		}
+		// reuse the elements of the closest ancestor which has computed them, the stack may be deep
+		int depth = 0;
+		result = NO_ELEMENTS;
+		for (StackElement element = this; element != null; element = element.parent) {
+			StackElement[] elements = element.whileElements;
+			if (elements != null) {
+				result = elements;
+				break;
+			}
+			depth++;
+		}
+		StackElement[] path = new StackElement[depth];
+		StackElement element = this;
+		for (int i = depth - 1; i >= 0; i--) {
+			path[i] = element;
+			element = element.parent;
+		}
+		for (StackElement pathElement : path) {
+			result = withWhileElement(result, pathElement, grammar);
+			pathElement.whileElements = result;
+		}
+		return result;
+	}
+
+	private static StackElement[] withWhileElement(StackElement[] elements, StackElement element,
+			IRuleRegistry grammar) {
+		if (!(element.getRule(grammar) instanceof BeginWhileRule)) {
+			return elements;
+		}
+		StackElement[] result = Arrays.copyOf(elements, elements.length + 1);
+		result[elements.length] = element;
+		return result;
+	}
+
 	private void appendString(List<String> res) {
 		if (this.parent != null) {
 			this.parent.appendString(res);
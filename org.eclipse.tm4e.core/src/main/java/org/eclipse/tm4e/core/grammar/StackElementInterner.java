@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.tm4e.core.internal.grammar.ScopeListElement;
+
+/**
+ * Canonicalizes the states returned by the tokenization of a line, so that equal states are the same instance: the
+ * states of the lines are compared to decide when to stop retokenizing after an edit (see
+ * {@link org.eclipse.tm4e.core.model.TMModel}), and two canonical states of the same interner are equal only if they
+ * are the same instance. The canonical states share their equal parents and scope lists, so the states of the lines
+ * of a document share their common tails.
+ * <p>
+ * The interner only holds the canonical instances weakly. It is thread-safe.
+ * </p>
+ */
+public final class StackElementInterner {
+
+	private final Map<StackElement, WeakReference<StackElement>> states = new WeakHashMap<>();
+	private final Map<ScopeListElement, WeakReference<ScopeListElement>> scopeLists = new WeakHashMap<>();
+
+	/**
+	 * Returns the canonical instance of the given state, which is the given state itself if there was none.
+	 */
+	public synchronized StackElement intern(StackElement state) {
+		// the elements which are not canonical yet, from the top of the stack
+		List<StackElement> elements = new ArrayList<>();
+		StackElement parent = state;
+		while (parent != null && parent.interner != this) {
+			elements.add(parent);
+			parent = parent.parent;
+		}
+		for (int i = elements.size() - 1; i >= 0; i--) {
+			StackElement element = elements.get(i);
+			ScopeListElement nameScopesList = intern(element.nameScopesList);
+			ScopeListElement contentNameScopesList = intern(element.contentNameScopesList);
+			if (element.parent != parent || element.nameScopesList != nameScopesList
+					|| element.contentNameScopesList != contentNameScopesList) {
+				element = new StackElement(parent, element.ruleId, -1, element.endRule, nameScopesList,
+						contentNameScopesList);
+			}
+			StackElement canonical = get(states, element);
+			if (canonical == null) {
+				// the enter position is only relevant while tokenizing a line
+				element.reset();
+				element.interner = this;
+				states.put(element, new WeakReference<>(element));
+				canonical = element;
+			}
+			parent = canonical;
+		}
+		return parent;
+	}
+
+	private ScopeListElement intern(ScopeListElement scopeList) {
+		if (scopeList == null) {
+			return null;
+		}
+		// the elements which are not canonical yet, from the last scope
+		List<ScopeListElement> elements = new ArrayList<>();
+		ScopeListElement parent = scopeList;
+		while (parent != null && get(scopeLists, parent) != parent) {
+			elements.add(parent);
+			parent = parent.parent;
+		}
+		for (int i = elements.size() - 1; i >= 0; i--) {
+			ScopeListElement element = elements.get(i);
+			ScopeListElement canonical = get(scopeLists, element);
+			if (canonical == null) {
+				if (element.parent != parent) {
+					element = new ScopeListElement(parent, element.scope, element.scopeId, element.metadata);
+				}
+				scopeLists.put(element, new WeakReference<>(element));
+				canonical = element;
+			}
+			parent = canonical;
+		}
+		return parent;
+	}
+
+	private static <T> T get(Map<T, WeakReference<T>> map, T key) {
+		WeakReference<T> reference = map.get(key);
+		return reference != null ? reference.get() : null;
+	}
+
+	/**
+	 * Returns the number of canonical states.
+	 */
+	public synchronized int size() {
+		return states.size();
+	}
+}
@@ -17,27 +17,50 @@
  */
 package org.eclipse.tm4e.core.internal.grammar;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntFunction;
 
-import org.eclipse.tm4e.core.grammar.GrammarHelper;
+import org.eclipse.tm4e.core.grammar.BinaryTokenBuffer;
 import org.eclipse.tm4e.core.grammar.IGrammar;
 import org.eclipse.tm4e.core.grammar.IGrammarRepository;
+import org.eclipse.tm4e.core.grammar.IRegExpProfile;
+import org.eclipse.tm4e.core.grammar.IToken;
+import org.eclipse.tm4e.core.grammar.ITokenizeLinePartResult;
 import org.eclipse.tm4e.core.grammar.ITokenizeLineResult;
 import org.eclipse.tm4e.core.grammar.ITokenizeLineResult2;
+import org.eclipse.tm4e.core.grammar.ITokenizeLinesResult;
 import org.eclipse.tm4e.core.grammar.Injection;
 import org.eclipse.tm4e.core.grammar.StackElement;
+import org.eclipse.tm4e.core.grammar.StackElementInterner;
 import org.eclipse.tm4e.core.internal.grammar.parser.Raw;
 import org.eclipse.tm4e.core.internal.matcher.Matcher;
 import org.eclipse.tm4e.core.internal.matcher.MatcherWithPriority;
+import org.eclipse.tm4e.core.internal.oniguruma.IOnigCaptureIndex;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigRegExpProfile;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScanner;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScannerOptions;
 import org.eclipse.tm4e.core.internal.oniguruma.OnigString;
+import org.eclipse.tm4e.core.internal.rule.BeginEndRule;
+import org.eclipse.tm4e.core.internal.rule.BeginWhileRule;
+import org.eclipse.tm4e.core.internal.rule.CaptureRule;
 import org.eclipse.tm4e.core.internal.rule.IRuleFactoryHelper;
+import org.eclipse.tm4e.core.internal.rule.MatchRule;
 import org.eclipse.tm4e.core.internal.rule.Rule;
 import org.eclipse.tm4e.core.internal.rule.RuleFactory;
 import org.eclipse.tm4e.core.internal.types.IRawGrammar;
@@ -54,29 +77,100 @@
  */
 public class Grammar implements IGrammar, IRuleFactoryHelper {
 
-	private int rootId;
+	/**
+	 * The per-thread buffer of the binary tokens of {@link #tokenizeLine2(String, StackElement)}, reused for each line
+	 * unless a huge line made it grow too much.
+	 */
+	private static final ThreadLocal<BinaryTokenBuffer> BINARY_TOKENS = ThreadLocal.withInitial(BinaryTokenBuffer::new);
+	private static final int MAX_POOLED_BINARY_TOKENS = 1 << 16;
+
+	private static final IOnigCaptureIndex[] NO_CAPTURES = new IOnigCaptureIndex[0];
+
+	/**
+	 * The id of the root rule, -1 until the grammar is compiled. The rules are only created while compiling the
+	 * grammar (see {@link #ensureCompiled()}) and are not modified afterwards, so the threads reading a compiled root
+	 * id can tokenize concurrently with the same grammar.
+	 */
+	private volatile int rootId;
 	private int lastRuleId;
-	private final Map<Integer, Rule> ruleId2desc;
+
+	/**
+	 * The rules by id: the ids are given in sequence by {@link #registerRule(IntFunction)}, starting at 1.
+	 */
+	private Rule[] ruleId2desc;
 	private final Map<String, IRawGrammar> includedGrammars;
 	private final IGrammarRepository grammarRepository;
 	private final IRawGrammar grammar;
-	private List<Injection> injections;
+	private volatile List<Injection> injections;
 	private final ScopeMetadataProvider scopeMetadataProvider;
+	private final OnigScannerOptions scannerOptions;
+	private final ScopeNames scopeNames;
+
+	/**
+	 * The canonical states returned by the tokenization of the lines.
+	 */
+	private final StackElementInterner stateInterner = new StackElementInterner();
+
+	/**
+	 * The injection sets by applicable injections, see {@link #getInjectionSet(ScopeListElement)}.
+	 */
+	private final Map<BitSet, InjectionSet> injectionSets = new ConcurrentHashMap<>();
+
+	/**
+	 * The statistics of the searched regexps, by rule id and regexp, when profiling.
+	 */
+	private final Map<String, OnigRegExpProfile> regExpProfiles = new ConcurrentHashMap<>();
+
+	/**
+	 * Incremented on each theme change, see {@link #getThemeGeneration()}.
+	 */
+	private final AtomicInteger themeGeneration = new AtomicInteger();
 
 	public Grammar(IRawGrammar grammar, int initialLanguage, Map<String, Integer> embeddedLanguages,
 			IGrammarRepository grammarRepository, IThemeProvider themeProvider) {
+		this(grammar, initialLanguage, embeddedLanguages, grammarRepository, themeProvider,
+				OnigScannerOptions.DEFAULT);
+	}
+
+	public Grammar(IRawGrammar grammar, int initialLanguage, Map<String, Integer> embeddedLanguages,
+			IGrammarRepository grammarRepository, IThemeProvider themeProvider, OnigScannerOptions scannerOptions) {
+		this(grammar, initialLanguage, embeddedLanguages, grammarRepository, themeProvider, scannerOptions,
+				new ScopeNames());
+	}
+
+	/**
+	 * @param scopeNames
+	 *            the scope names table, shared by the grammars of a registry.
+	 */
+	public Grammar(IRawGrammar grammar, int initialLanguage, Map<String, Integer> embeddedLanguages,
+			IGrammarRepository grammarRepository, IThemeProvider themeProvider, OnigScannerOptions scannerOptions,
+			ScopeNames scopeNames) {
+		this.scannerOptions = scannerOptions;
+		this.scopeNames = scopeNames;
 		this.scopeMetadataProvider = new ScopeMetadataProvider(initialLanguage, themeProvider, embeddedLanguages);
 		this.rootId = -1;
 		this.lastRuleId = 0;
 		this.includedGrammars = new HashMap<>();
 		this.grammarRepository = grammarRepository;
 		this.grammar = initGrammar(grammar, null);
-		this.ruleId2desc = new HashMap<>();
+		this.ruleId2desc = new Rule[64];
 		this.injections = null;
 	}
 
 	public void onDidChangeTheme() {
 		this.scopeMetadataProvider.onDidChangeTheme();
+		this.themeGeneration.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of theme changes, which makes the metadata computed with a previous theme stale.
+	 */
+	public int getThemeGeneration() {
+		return this.themeGeneration.get();
+	}
+
+	public ScopeNames getScopeNames() {
+		return scopeNames;
 	}
 
 	public ScopeMetadata getMetadataForScope(String scope) {
@@ -84,41 +178,78 @@ public ScopeMetadata getMetadataForScope(String scope) {
 	}
 
 	public List<Injection> getInjections() {
-		if (this.injections == null) {
-			this.injections = new ArrayList<>();
-			// add injections from the current grammar
-			Map<String, IRawRule> rawInjections = this.grammar.getInjections();
-			if (rawInjections != null) {
-				for (Entry<String, IRawRule> injection : rawInjections.entrySet()) {
-					String expression = injection.getKey();
-					IRawRule rule = injection.getValue();
-					collectInjections(this.injections, expression, rule, this, this.grammar);
+		List<Injection> result = this.injections;
+		if (result == null) {
+			synchronized (this) {
+				result = this.injections;
+				if (result == null) {
+					result = collectInjections();
+					this.injections = result;
 				}
 			}
+		}
+		return result;
+	}
+
+	private List<Injection> collectInjections() {
+		List<Injection> injections = new ArrayList<>();
+		// add injections from the current grammar
+		Map<String, IRawRule> rawInjections = this.grammar.getInjections();
+		if (rawInjections != null) {
+			for (Entry<String, IRawRule> injection : rawInjections.entrySet()) {
+				String expression = injection.getKey();
+				IRawRule rule = injection.getValue();
+				collectInjections(injections, expression, rule, this, this.grammar);
+			}
+		}
 
-			// add injection grammars contributed for the current scope
-			if (this.grammarRepository != null) {
-				Collection<String> injectionScopeNames = this.grammarRepository
-						.injections(this.grammar.getScopeName());
-				if (injectionScopeNames != null) {
-					injectionScopeNames.forEach(injectionScopeName -> {
-						IRawGrammar injectionGrammar = this.getExternalGrammar(injectionScopeName);
-						if (injectionGrammar != null) {
-							String selector = injectionGrammar.getInjectionSelector();
-							if (selector != null) {
-								collectInjections(this.injections, selector, (IRawRule) injectionGrammar, this,
-										injectionGrammar);
-							}
+		// add injection grammars contributed for the current scope
+		if (this.grammarRepository != null) {
+			Collection<String> injectionScopeNames = this.grammarRepository
+					.injections(this.grammar.getScopeName());
+			if (injectionScopeNames != null) {
+				injectionScopeNames.forEach(injectionScopeName -> {
+					IRawGrammar injectionGrammar = this.getExternalGrammar(injectionScopeName);
+					if (injectionGrammar != null) {
+						String selector = injectionGrammar.getInjectionSelector();
+						if (selector != null) {
+							collectInjections(injections, selector, (IRawRule) injectionGrammar, this,
+									injectionGrammar);
 						}
-					});
-				}
+					}
+				});
 			}
-			Collections.sort(this.injections, (i1, i2) -> i1.priority - i2.priority); // sort by priority
 		}
-		if (this.injections.isEmpty()) {
-			return this.injections;
+		Collections.sort(injections, (i1, i2) -> i1.priority - i2.priority); // sort by priority
+		return injections;
+	}
+
+	/**
+	 * Returns the injections applicable to the given scope list, cached by the scope list. The scope lists with the
+	 * same applicable injections share them, with their merged scanners.
+	 */
+	InjectionSet getInjectionSet(ScopeListElement scopesList) {
+		InjectionSet result = scopesList.injectionSet;
+		if (result != null && result.grammar == this) {
+			return result;
 		}
-		return this.injections;
+		List<Injection> injections = getInjections();
+		List<String> scopes = scopesList.generateScopes();
+		BitSet applicable = new BitSet(injections.size());
+		for (int i = 0; i < injections.size(); i++) {
+			if (injections.get(i).match(scopes)) {
+				applicable.set(i);
+			}
+		}
+		result = injectionSets.computeIfAbsent(applicable, key -> {
+			Injection[] applicableInjections = new Injection[key.cardinality()];
+			for (int i = key.nextSetBit(0), j = 0; i >= 0; i = key.nextSetBit(i + 1)) {
+				applicableInjections[j++] = injections.get(i);
+			}
+			return new InjectionSet(this, applicableInjections);
+		});
+		scopesList.injectionSet = result;
+		return result;
 	}
 
 	private void collectInjections(List<Injection> result, String selector, IRawRule rule,
@@ -132,16 +263,124 @@ private void collectInjections(List<Injection> result, String selector, IRawRule
 	}
 
 	@Override
-	public Rule registerRule(IntFunction<Rule> factory) {
+	public OnigScanner createOnigScanner(String[] regexps) {
+		return new OnigScanner(regexps, scannerOptions);
+	}
+
+	@Override
+	public OnigScanner createOnigScanner(String[] regexps, int[] ruleIds) {
+		if (!scannerOptions.profiling) {
+			return createOnigScanner(regexps);
+		}
+		// the same regexp of a rule may be in several scanners, they share its statistics
+		OnigRegExpProfile[] profiles = new OnigRegExpProfile[regexps.length];
+		for (int i = 0; i < regexps.length; i++) {
+			int ruleId = ruleIds[i];
+			String regexp = regexps[i];
+			profiles[i] = regExpProfiles.computeIfAbsent(ruleId + " " + regexp,
+					key -> new OnigRegExpProfile(ruleId, regexp));
+		}
+		return new OnigScanner(regexps, scannerOptions, profiles);
+	}
+
+	@Override
+	public List<IRegExpProfile> getRegExpProfiles() {
+		List<IRegExpProfile> profiles = new ArrayList<>(regExpProfiles.values());
+		profiles.sort(Comparator.comparingLong(IRegExpProfile::getTotalNanos).reversed());
+		return profiles;
+	}
+
+	@Override
+	public void resetRegExpProfiles() {
+		regExpProfiles.values().forEach(OnigRegExpProfile::reset);
+	}
+
+	@Override
+	public void precompile() {
+		for (Rule rule : getPrecompiledRules()) {
+			precompile(rule);
+		}
+	}
+
+	@Override
+	public void precompile(ForkJoinPool pool) {
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (Rule rule : getPrecompiledRules()) {
+			tasks.add(ForkJoinTask.adapt(() -> precompile(rule)));
+		}
+		pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+	}
+
+	/**
+	 * Returns the rules whose scanners are searched when tokenizing: the rules which can be on the stack and the
+	 * injection rules. The other match rules and the capture rules are only searched through their parent rules.
+	 */
+	private List<Rule> getPrecompiledRules() {
+		ensureCompiled();
+		Set<Integer> injectionRuleIds = new HashSet<>();
+		for (Injection injection : getInjections()) {
+			injectionRuleIds.add(injection.ruleId);
+		}
+		List<Rule> rules = new ArrayList<>();
+		for (int id = 1; id <= this.lastRuleId; id++) {
+			Rule rule = this.ruleId2desc[id];
+			if (injectionRuleIds.contains(rule.id) || !(rule instanceof MatchRule || rule instanceof CaptureRule)) {
+				rules.add(rule);
+			}
+		}
+		return rules;
+	}
+
+	/**
+	 * Compiles the scanners of all the anchor variants of the given rule, and their regexps if they are compiled
+	 * lazily. The end and while patterns with back references are compiled with empty back references: their
+	 * scanners are compiled again for each match of the begin pattern, with the other regexps from the cache.
+	 */
+	private void precompile(Rule rule) {
+		try {
+			String endRegexSource = null;
+			if (rule instanceof BeginEndRule && ((BeginEndRule) rule).endHasBackReferences) {
+				endRegexSource = ((BeginEndRule) rule).getEndWithResolvedBackReferences("", NO_CAPTURES);
+			}
+			for (int i = 0; i < 4; i++) {
+				rule.compile(this, endRegexSource, (i & 2) != 0, (i & 1) != 0).scanner.precompile();
+			}
+			if (rule instanceof BeginWhileRule) {
+				BeginWhileRule whileRule = (BeginWhileRule) rule;
+				String whileRegexSource = whileRule.whileHasBackReferences
+						? whileRule.getWhileWithResolvedBackReferences("", NO_CAPTURES)
+						: null;
+				for (int i = 0; i < 4; i++) {
+					whileRule.compileWhile(this, whileRegexSource, (i & 2) != 0, (i & 1) != 0).scanner.precompile();
+				}
+			}
+		} catch (RuntimeException e) {
+			// an invalid regexp is reported when the lines are tokenized
+		}
+	}
+
+	@Override
+	public synchronized Rule registerRule(IntFunction<Rule> factory) {
 		int id = (++this.lastRuleId);
+		if (id == this.ruleId2desc.length) {
+			this.ruleId2desc = Arrays.copyOf(this.ruleId2desc, id * 2);
+		}
 		Rule result = factory.apply(id);
-		this.ruleId2desc.put(id, result);
+		this.ruleId2desc[id] = result;
+		// the names resolved from captures are not interned, see ScopeNames
+		if (result.getStaticName() != null) {
+			scopeNames.split(result.getStaticName());
+		}
+		if (result.getStaticContentName() != null) {
+			scopeNames.split(result.getStaticContentName());
+		}
 		return result;
 	}
 
 	@Override
 	public Rule getRule(int patternId) {
-		return this.ruleId2desc.get(patternId);
+		Rule[] rules = this.ruleId2desc;
+		return patternId >= 0 && patternId < rules.length ? rules[patternId] : null;
 	}
 
 	public IRawGrammar getExternalGrammar(String scopeName) {
@@ -149,7 +388,7 @@ public IRawGrammar getExternalGrammar(String scopeName) {
 	}
 
 	@Override
-	public IRawGrammar getExternalGrammar(String scopeName, IRawRepository repository) {
+	public synchronized IRawGrammar getExternalGrammar(String scopeName, IRawRepository repository) {
 		if (this.includedGrammars.containsKey(scopeName)) {
 			return this.includedGrammars.get(scopeName);
 		} else if (this.grammarRepository != null) {
@@ -191,7 +430,12 @@ public ITokenizeLineResult tokenizeLine(String lineText) {
 
 	@Override
 	public ITokenizeLineResult tokenizeLine(String lineText, StackElement prevState) {
-		return tokenize(lineText, prevState, false);
+		return tokenize(lineText, prevState, false, null);
+	}
+
+	@Override
+	public ITokenizeLineResult tokenizeLine(String lineText, StackElement prevState, Duration timeLimit) {
+		return tokenize(lineText, prevState, false, timeLimit);
 	}
 
 	@Override
@@ -201,51 +445,220 @@ public ITokenizeLineResult2 tokenizeLine2(String lineText) {
 
 	@Override
 	public ITokenizeLineResult2 tokenizeLine2(String lineText, StackElement prevState) {
-		return tokenize(lineText, prevState, true);
+		return tokenize(lineText, prevState, true, null);
+	}
+
+	@Override
+	public ITokenizeLineResult2 tokenizeLine2(String lineText, StackElement prevState, Duration timeLimit) {
+		return tokenize(lineText, prevState, true, timeLimit);
+	}
+
+	@Override
+	public StackElement tokenizeLine2(String lineText, StackElement prevState, Duration timeLimit,
+			BinaryTokenBuffer tokens) {
+		LineTokens lineTokens = new LineTokens(tokens, lineText);
+		StackElement nextState = tokenize(lineText, prevState, lineTokens, timeLimit);
+		lineTokens.fillBinaryResult(nextState, getLineLength(lineText));
+		return nextState;
+	}
+
+	@Override
+	public ITokenizeLinesResult tokenizeLines(Iterable<? extends CharSequence> lines, StackElement prevState) {
+		return tokenizeLines(lines, prevState, 0);
+	}
+
+	@Override
+	public ITokenizeLinesResult tokenizeLines(Iterable<? extends CharSequence> lines, StackElement prevState,
+			int stateInterval) {
+		if (stateInterval < 0) {
+			throw new IllegalArgumentException("stateInterval: " + stateInterval);
+		}
+		BinaryTokenBuffer tokens = new BinaryTokenBuffer(256);
+		int[] lineStartTokens = new int[64];
+		StackElement[] lineEndStates = stateInterval > 0 ? new StackElement[lineStartTokens.length] : null;
+		int lineCount = 0;
+		StackElement state = prevState;
+		for (CharSequence line : lines) {
+			if (lineCount + 1 >= lineStartTokens.length) {
+				lineStartTokens = Arrays.copyOf(lineStartTokens, lineStartTokens.length * 2);
+				if (lineEndStates != null) {
+					lineEndStates = Arrays.copyOf(lineEndStates, lineStartTokens.length);
+				}
+			}
+			lineStartTokens[lineCount] = tokens.getTokenCount();
+			state = tokenizeLine2(line.toString(), state, null, tokens);
+			if (lineEndStates != null && (lineCount + 1) % stateInterval == 0) {
+				lineEndStates[lineCount] = state;
+			}
+			lineCount++;
+		}
+		lineStartTokens[lineCount] = tokens.getTokenCount();
+		return new TokenizeLinesResult(tokens.getArray(), lineStartTokens, lineCount, lineEndStates, state);
+	}
+
+	@Override
+	public ITokenizeLinesResult tokenizeLines(List<? extends CharSequence> lines, StackElement prevState,
+			int stateInterval, ForkJoinPool pool) {
+		return ParallelLinesTokenizer.tokenize(this, lines, prevState, stateInterval, pool);
+	}
+
+	@Override
+	public ITokenizeLinePartResult tokenizeLinePart(String lineText, StackElement prevState, int stopAtOffset,
+			Duration timeBudget, Duration timeLimit) {
+		ensureCompiled();
+		boolean isFirstLine = prevState == null || prevState.equals(StackElement.NULL);
+		prevState = getStartState(prevState);
+		// the string is not pooled: it is searched by the next parts of the line too
+		OnigString onigLineText = new OnigString(withLineFeed(lineText), scannerOptions.utf16);
+		LineTokens lineTokens = new LineTokens(false, lineText);
+		LineTimeLimit lineTimeLimit = timeLimit != null ? new LineTimeLimit(timeLimit) : null;
+		return tokenizePart(new LineTokenizer(this, onigLineText, isFirstLine, 0, prevState, lineTokens,
+				lineTimeLimit), lineTokens, lineTimeLimit, onigLineText, stopAtOffset, timeBudget);
+	}
+
+	@Override
+	public ITokenizeLinePartResult resumeLinePart(ITokenizeLinePartResult pausedPart, int stopAtOffset,
+			Duration timeBudget, Duration timeLimit) {
+		if (!(pausedPart instanceof TokenizeLinePartResult)
+				|| ((TokenizeLinePartResult) pausedPart).getGrammar() != this || !pausedPart.isPaused()) {
+			throw new IllegalArgumentException("The line part is not paused or was not tokenized by this grammar");
+		}
+		LineContinuation continuation = ((TokenizeLinePartResult) pausedPart).getContinuation();
+		LineTokens lineTokens = new LineTokens(continuation.lineText.string, continuation);
+		LineTimeLimit lineTimeLimit = timeLimit != null ? new LineTimeLimit(timeLimit) : null;
+		return tokenizePart(new LineTokenizer(this, continuation, lineTokens, lineTimeLimit), lineTokens,
+				lineTimeLimit, continuation.lineText, stopAtOffset, timeBudget);
+	}
+
+	private ITokenizeLinePartResult tokenizePart(LineTokenizer tokenizer, LineTokens lineTokens,
+			LineTimeLimit lineTimeLimit, OnigString onigLineText, int stopAtOffset, Duration timeBudget) {
+		tokenizer.setPause(stopAtOffset, timeBudget != null ? System.nanoTime() + timeBudget.toNanos() : 0,
+				timeBudget != null);
+		StackElement nextState;
+		try {
+			nextState = tokenizer.scanLine();
+		} finally {
+			if (lineTimeLimit != null) {
+				lineTimeLimit.close();
+			}
+		}
+		LineContinuation continuation = tokenizer.getContinuation();
+		if (continuation != null) {
+			return new TokenizeLinePartResult(this, lineTokens.getPausedResult(), nextState, false, continuation,
+					continuation.lastTokenEndIndex);
+		}
+		int lineLength = onigLineText.length();
+		IToken[] tokens = lineTokens.getResult(nextState, lineLength);
+		// equal states are the same instance, see TMModel
+		return new TokenizeLinePartResult(this, tokens, stateInterner.intern(nextState), lineTokens.isStoppedEarly(),
+				null, lineLength);
 	}
 
 	@SuppressWarnings("unchecked")
-	private <T> T tokenize(String lineText, StackElement prevState, boolean emitBinaryTokens) {
-		if (this.rootId == -1) {
-			this.rootId = RuleFactory.getCompiledRuleId(this.grammar.getRepository().getSelf(), this,
-					this.grammar.getRepository());
+	private <T> T tokenize(String lineText, StackElement prevState, boolean emitBinaryTokens, Duration timeLimit) {
+		int lineLength = getLineLength(lineText);
+		if (emitBinaryTokens) {
+			BinaryTokenBuffer tokens = BINARY_TOKENS.get();
+			tokens.clear();
+			LineTokens lineTokens = new LineTokens(tokens, lineText);
+			StackElement nextState = tokenize(lineText, prevState, lineTokens, timeLimit);
+			int[] result = lineTokens.getBinaryResult(nextState, lineLength);
+			if (tokens.getArray().length > MAX_POOLED_BINARY_TOKENS) {
+				BINARY_TOKENS.remove();
+			}
+			return (T) new TokenizeLineResult2(result, nextState, lineTokens.isStoppedEarly());
+		}
+		LineTokens lineTokens = new LineTokens(false, lineText);
+		StackElement nextState = tokenize(lineText, prevState, lineTokens, timeLimit);
+		return (T) new TokenizeLineResult(lineTokens.getResult(nextState, lineLength), nextState,
+				lineTokens.isStoppedEarly());
+	}
+
+	/**
+	 * Compiles the rules of the grammar and of its injections if they are not compiled yet.
+	 *
+	 * @return the id of the root rule.
+	 */
+	private int ensureCompiled() {
+		int result = this.rootId;
+		if (result == -1) {
+			synchronized (this) {
+				result = this.rootId;
+				if (result == -1) {
+					result = RuleFactory.getCompiledRuleId(this.grammar.getRepository().getSelf(), this,
+							this.grammar.getRepository());
+					// the injection rules are created now too, the rules are then frozen
+					getInjections();
+					this.rootId = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the length of the line as tokenized, with its trailing '\n'.
+	 */
+	private static int getLineLength(String lineText) {
+		return lineText.isEmpty() || lineText.charAt(lineText.length() - 1) != '\n' ? lineText.length() + 1
+				: lineText.length();
+	}
+
+	private StackElement tokenize(String lineText, StackElement prevState, LineTokens lineTokens,
+			Duration timeLimit) {
+		ensureCompiled();
+		boolean isFirstLine = prevState == null || prevState.equals(StackElement.NULL);
+		prevState = getStartState(prevState);
+
+		OnigString onigLineText = OnigString.acquire(withLineFeed(lineText), scannerOptions.utf16);
+		LineTimeLimit lineTimeLimit = timeLimit != null ? new LineTimeLimit(timeLimit) : null;
+		StackElement nextState;
+		try {
+			nextState = LineTokenizer.tokenizeLine(this, onigLineText, isFirstLine, prevState, lineTokens,
+					lineTimeLimit);
+		} finally {
+			if (lineTimeLimit != null) {
+				lineTimeLimit.close();
+			}
+			onigLineText.release();
 		}
 
-		boolean isFirstLine;
+		// equal states are the same instance, see TMModel
+		return stateInterner.intern(nextState);
+	}
+
+	/**
+	 * Returns the state from which a line is tokenized: the root state for the first line, otherwise the given state
+	 * reset.
+	 */
+	private StackElement getStartState(StackElement prevState) {
 		if (prevState == null || prevState.equals(StackElement.NULL)) {
-			isFirstLine = true;
+			int rootId = this.rootId;
 			ScopeMetadata rawDefaultMetadata = this.scopeMetadataProvider.getDefaultMetadata();
 			ThemeTrieElementRule defaultTheme = rawDefaultMetadata.themeData.get(0);
 			int defaultMetadata = StackElementMetadata.set(0, rawDefaultMetadata.languageId,
 					rawDefaultMetadata.tokenType, defaultTheme.fontStyle, defaultTheme.foreground,
 					defaultTheme.background);
 
-			String rootScopeName = this.getRule(this.rootId).getName(null, null);
+			String rootScopeName = this.getRule(rootId).getName(null, null);
 			ScopeMetadata rawRootMetadata = this.scopeMetadataProvider.getMetadataForScope(rootScopeName);
 			int rootMetadata = ScopeListElement.mergeMetadata(defaultMetadata, null, rawRootMetadata);
 
-			ScopeListElement scopeList = new ScopeListElement(null, rootScopeName, rootMetadata);
+			ScopeListElement scopeList = new ScopeListElement(null, rootScopeName,
+					rootScopeName != null ? scopeNames.getId(rootScopeName) : -1, rootMetadata);
 
-			prevState = new StackElement(null, this.rootId, -1, null, scopeList, scopeList);
-		} else {
-			isFirstLine = false;
-			prevState.reset();
+			return new StackElement(null, rootId, -1, null, scopeList, scopeList);
 		}
+		prevState.reset();
+		return prevState;
+	}
 
+	private static String withLineFeed(String lineText) {
 		if (lineText.isEmpty() || lineText.charAt(lineText.length() - 1) != '\n') {
 			// Only add \n if the passed lineText didn't have it.
-			lineText += '\n';
-		}
-		OnigString onigLineText = GrammarHelper.createOnigString(lineText);
-		int lineLength = lineText.length();
-		LineTokens lineTokens = new LineTokens(emitBinaryTokens, lineText);
-		StackElement nextState = LineTokenizer.tokenizeString(this, onigLineText, isFirstLine, 0, prevState,
-				lineTokens);
-
-		if (emitBinaryTokens) {
-			return (T) new TokenizeLineResult2(lineTokens.getBinaryResult(nextState, lineLength), nextState);
+			return lineText + '\n';
 		}
-		return (T) new TokenizeLineResult(lineTokens.getResult(nextState, lineLength), nextState);
+		return lineText;
 	}
 
 	@Override
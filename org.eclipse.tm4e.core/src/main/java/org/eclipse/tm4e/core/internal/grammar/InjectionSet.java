@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.tm4e.core.grammar.Injection;
+import org.eclipse.tm4e.core.internal.rule.ICompiledRule;
+
+/**
+ * The injections of a grammar applicable to a scope list (see {@link Grammar#getInjectionSet(ScopeListElement)}),
+ * shared by the scope lists having the same applicable injections.
+ * <p>
+ * When several injections apply, their patterns are searched at once by a merged scanner, created for each anchor
+ * variant when it is first needed. The injections are sorted by priority, and the merged scanner gives the same match
+ * as searching them one after the other: the best match is the first one, and at the same location the last
+ * injection wins unless the match is at the search start, where the first injection wins. So the patterns of the
+ * injections are merged in reverse order, and a match at the search start is searched again by the patterns in order
+ * (the regexps without \G already searched at this position are answered by the match memo of the line).
+ * </p>
+ */
+final class InjectionSet {
+
+	/**
+	 * The merged scanner and the injection of each of its patterns.
+	 */
+	static final class MergedScanner {
+
+		final ICompiledRule rule;
+		final Injection[] injections;
+
+		private MergedScanner(ICompiledRule rule, Injection[] injections) {
+			this.rule = rule;
+			this.injections = injections;
+		}
+	}
+
+	final Grammar grammar;
+	final Injection[] injections;
+
+	/**
+	 * The merged scanners by anchor variant and order, see {@link #getMergedScanner(boolean, boolean, boolean)}. A
+	 * merged scanner is immutable: threads racing to create the same one may each create it and use their own.
+	 */
+	private final MergedScanner[] mergedScanners = new MergedScanner[8];
+
+	InjectionSet(Grammar grammar, Injection[] injections) {
+		this.grammar = grammar;
+		this.injections = injections;
+	}
+
+	/**
+	 * Returns the merged scanner of the patterns of the injections, which must be at least 2.
+	 *
+	 * @param reverse
+	 *            true to merge the patterns of the last injection first, false to merge them in order.
+	 */
+	MergedScanner getMergedScanner(boolean allowA, boolean allowG, boolean reverse) {
+		int index = (allowA ? 4 : 0) + (allowG ? 2 : 0) + (reverse ? 1 : 0);
+		MergedScanner result = mergedScanners[index];
+		if (result == null) {
+			result = createMergedScanner(allowA, allowG, reverse);
+			mergedScanners[index] = result;
+		}
+		return result;
+	}
+
+	private MergedScanner createMergedScanner(boolean allowA, boolean allowG, boolean reverse) {
+		List<String> regexps = new ArrayList<>();
+		int[] ruleIds = new int[0];
+		List<Injection> patternInjections = new ArrayList<>();
+		for (int i = 0; i < injections.length; i++) {
+			Injection injection = injections[reverse ? injections.length - 1 - i : i];
+			ICompiledRule compiled = grammar.getRule(injection.ruleId).compile(grammar, null, allowA, allowG);
+			regexps.addAll(Arrays.asList(compiled.regexps));
+			int ruleCount = ruleIds.length;
+			ruleIds = Arrays.copyOf(ruleIds, ruleCount + compiled.rules.length);
+			System.arraycopy(compiled.rules, 0, ruleIds, ruleCount, compiled.rules.length);
+			for (int j = 0; j < compiled.regexps.length; j++) {
+				patternInjections.add(injection);
+			}
+		}
+		String[] sources = regexps.toArray(new String[0]);
+		return new MergedScanner(new ICompiledRule(grammar.createOnigScanner(sources, ruleIds), ruleIds, sources),
+				patternInjections.toArray(new Injection[0]));
+	}
+}
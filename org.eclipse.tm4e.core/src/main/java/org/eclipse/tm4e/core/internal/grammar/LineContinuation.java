@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import org.eclipse.tm4e.core.grammar.StackElement;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigString;
+
+/**
+ * The state of the tokenization of a line paused between two scans, to resume it later, see
+ * {@link LineTokenizer#getContinuation()}.
+ */
+final class LineContinuation {
+
+	/**
+	 * The line, with its '\n'. The same string is searched by the next part so that the regexps find the same
+	 * results as when the line is tokenized at once.
+	 */
+	final OnigString lineText;
+	final boolean isFirstLine;
+	final int linePos;
+	final int anchorPosition;
+
+	/**
+	 * The stack at the pause, not interned: its elements keep the positions where they were pushed in the line.
+	 */
+	final StackElement stack;
+
+	/**
+	 * The end of the last token produced and whether a token was produced, see {@link LineTokens}.
+	 */
+	final int lastTokenEndIndex;
+	final boolean hasTokens;
+
+	LineContinuation(OnigString lineText, boolean isFirstLine, int linePos, int anchorPosition, StackElement stack,
+			int lastTokenEndIndex, boolean hasTokens) {
+		this.lineText = lineText;
+		this.isFirstLine = isFirstLine;
+		this.linePos = linePos;
+		this.anchorPosition = anchorPosition;
+		this.stack = stack;
+		this.lastTokenEndIndex = lastTokenEndIndex;
+		this.hasTokens = hasTokens;
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time limit of the tokenization of a line. The limit is checked between the scans of the line and, as a single
+ * regexp search can backtrack for a very long time, the tokenizing thread is interrupted when it is reached so that
+ * joni aborts the search in progress.
+ */
+final class LineTimeLimit {
+
+	private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, runnable -> {
+		Thread thread = new Thread(runnable, "TextMate tokenization watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		WATCHDOG.setRemoveOnCancelPolicy(true);
+	}
+
+	private final Thread thread;
+	private final long deadline;
+	private final ScheduledFuture<?> interruption;
+
+	/**
+	 * Guarded by this: true once the tokenization is over, so that the thread is not interrupted anymore.
+	 */
+	private boolean closed;
+
+	/**
+	 * Guarded by this: true if the thread has been interrupted, and the interruption not yet consumed by a search.
+	 */
+	private boolean interrupted;
+
+	/**
+	 * Starts the time limit of the tokenization of a line by the current thread.
+	 */
+	LineTimeLimit(Duration timeLimit) {
+		this.thread = Thread.currentThread();
+		long nanos = timeLimit.toNanos();
+		this.deadline = System.nanoTime() + nanos;
+		this.interruption = WATCHDOG.schedule(this::interrupt, nanos, TimeUnit.NANOSECONDS);
+	}
+
+	boolean isExceeded() {
+		return System.nanoTime() - deadline >= 0;
+	}
+
+	private synchronized void interrupt() {
+		if (!closed) {
+			interrupted = true;
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Returns true if the interruption of a search was caused by this time limit, false if the thread has been
+	 * interrupted by someone else.
+	 */
+	synchronized boolean consumeInterruption() {
+		boolean result = interrupted;
+		interrupted = false;
+		return result;
+	}
+
+	/**
+	 * Ends the time limit: the thread is not interrupted anymore, and an interruption which has not been consumed by
+	 * a search is cleared.
+	 */
+	synchronized void close() {
+		closed = true;
+		interruption.cancel(false);
+		if (interrupted) {
+			interrupted = false;
+			Thread.interrupted();
+		}
+	}
+}
@@ -19,16 +19,14 @@
 import static java.lang.System.Logger.Level.*;
 
 import java.lang.System.Logger;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-import org.eclipse.tm4e.core.grammar.GrammarHelper;
 import org.eclipse.tm4e.core.grammar.Injection;
 import org.eclipse.tm4e.core.grammar.StackElement;
-import org.eclipse.tm4e.core.internal.matcher.IMatchInjectionsResult;
-import org.eclipse.tm4e.core.internal.matcher.IMatchResult;
 import org.eclipse.tm4e.core.internal.oniguruma.IOnigCaptureIndex;
-import org.eclipse.tm4e.core.internal.oniguruma.IOnigNextMatchResult;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigNextMatchResult;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigSearchInterruptedException;
 import org.eclipse.tm4e.core.internal.oniguruma.OnigString;
 import org.eclipse.tm4e.core.internal.rule.BeginEndRule;
 import org.eclipse.tm4e.core.internal.rule.BeginWhileRule;
@@ -37,80 +35,220 @@
 import org.eclipse.tm4e.core.internal.rule.MatchRule;
 import org.eclipse.tm4e.core.internal.rule.Rule;
 
+/**
+ * Tokenizes a line. The tokenizers of {@link #tokenizeString} and {@link #tokenizeLine} are reused by the thread, with
+ * their match results and their scratch stacks, so that the scan of a line does not allocate once the states and the
+ * scope lists of its tokens exist.
+ */
 class LineTokenizer {
 
 	private static final Logger LOGGER = System.getLogger(LineTokenizer.class.getName());
 
-	static class WhileStack {
+	/**
+	 * The number of frames pushed for a {@link MatchRule} which are kept for reuse, see {@link #pushMatchFrame}.
+	 */
+	private static final int MATCH_FRAMES = 8;
 
-		public final StackElement stack;
-		public final BeginWhileRule rule;
+	/**
+	 * The tokenizers of the current thread, by depth: the text of a capture is tokenized by the tokenizer of the next
+	 * depth while the line is still tokenized (see {@link #handleCaptures}).
+	 */
+	private static final ThreadLocal<Pool> POOL = ThreadLocal.withInitial(Pool::new);
 
-		public WhileStack(StackElement stack, BeginWhileRule rule) {
-			this.stack = stack;
-			this.rule = rule;
-		}
-	}
+	private static final class Pool {
 
-	static class WhileCheckResult {
+		private LineTokenizer[] tokenizers = new LineTokenizer[4];
+		private int depth;
 
-		public final StackElement stack;
-		public final int linePos;
-		public final int anchorPosition;
-		public final boolean isFirstLine;
+		LineTokenizer acquire() {
+			if (depth == tokenizers.length) {
+				tokenizers = Arrays.copyOf(tokenizers, depth * 2);
+			}
+			LineTokenizer tokenizer = tokenizers[depth];
+			if (tokenizer == null) {
+				tokenizer = new LineTokenizer();
+				tokenizers[depth] = tokenizer;
+			}
+			depth++;
+			return tokenizer;
+		}
 
-		public WhileCheckResult(StackElement stack, int linePos, int anchorPosition, boolean isFirstLine) {
-			this.stack = stack;
-			this.linePos = linePos;
-			this.anchorPosition = anchorPosition;
-			this.isFirstLine = isFirstLine;
+		void release(LineTokenizer tokenizer) {
+			tokenizer.clear();
+			depth--;
 		}
 	}
 
-	private final Grammar grammar;
-	private final OnigString lineText;
+	private Grammar grammar;
+	private OnigString lineText;
 	private boolean isFirstLine;
 	private int linePos;
 	private StackElement stack;
-	private final LineTokens lineTokens;
+	private LineTokens lineTokens;
 	private int anchorPosition = -1;
 	private boolean stop;
-	private final int lineLength;
+	private int lineLength;
+	private LineTimeLimit timeLimit;
+
+	/**
+	 * true if the tokenization of the line resumes from a continuation: the while conditions were checked by the
+	 * first part of the line.
+	 */
+	private boolean resumed;
+
+	/**
+	 * The line position and the time ({@link System#nanoTime()}) from which the scan pauses, see
+	 * {@link #setPause(int, long, boolean)}.
+	 */
+	private int pauseOffset = Integer.MAX_VALUE;
+	private long pauseDeadline;
+	private boolean hasPauseDeadline;
+	private boolean paused;
+
+	/**
+	 * The results filled by the searches of the rules, of the injections and of the while conditions.
+	 */
+	private final OnigNextMatchResult ruleResult = new OnigNextMatchResult();
+	private final OnigNextMatchResult injectionResult = new OnigNextMatchResult();
+	private final OnigNextMatchResult whileResult = new OnigNextMatchResult();
+
+	/**
+	 * The match found by {@link #matchRuleOrInjections()}: the matched rule id and the capture indices of its result.
+	 */
+	private int matchedRuleId;
+	private IOnigCaptureIndex[] matchedCaptureIndices;
+
+	/**
+	 * The match found by {@link #matchInjections()}, and whether the matched injection has the priority.
+	 */
+	private int injectionRuleId;
+	private IOnigCaptureIndex[] injectionCaptureIndices;
+	private boolean injectionPriorityMatch;
+
+	/**
+	 * The stack of the captures pushed by {@link #handleCaptures}: the scopes of each capture and its end.
+	 */
+	private ScopeListElement[] captureScopes = new ScopeListElement[8];
+	private int[] captureEnds = new int[8];
+
+	/**
+	 * The last frames pushed for a {@link MatchRule}, replaced in turn, see {@link #pushMatchFrame}.
+	 */
+	private final StackElement[] matchFrames = new StackElement[MATCH_FRAMES];
+	private int nextMatchFrame;
+
+	private LineTokenizer() {
+	}
 
 	public LineTokenizer(Grammar grammar, OnigString lineText, boolean isFirstLine, int linePos, StackElement stack,
 			LineTokens lineTokens) {
+		this(grammar, lineText, isFirstLine, linePos, stack, lineTokens, null);
+	}
+
+	LineTokenizer(Grammar grammar, OnigString lineText, boolean isFirstLine, int linePos, StackElement stack,
+			LineTokens lineTokens, LineTimeLimit timeLimit) {
+		reset(grammar, lineText, isFirstLine, linePos, stack, lineTokens, timeLimit);
+	}
+
+	/**
+	 * Creates the tokenizer of the rest of a paused line.
+	 */
+	LineTokenizer(Grammar grammar, LineContinuation continuation, LineTokens lineTokens, LineTimeLimit timeLimit) {
+		reset(grammar, continuation.lineText, continuation.isFirstLine, continuation.linePos, continuation.stack,
+				lineTokens, timeLimit);
+		this.anchorPosition = continuation.anchorPosition;
+		this.resumed = true;
+	}
+
+	private void reset(Grammar grammar, OnigString lineText, boolean isFirstLine, int linePos, StackElement stack,
+			LineTokens lineTokens, LineTimeLimit timeLimit) {
 		this.grammar = grammar;
+		this.timeLimit = timeLimit;
 		this.lineText = lineText;
-		this.lineLength = lineText.utf8_value.length;
+		this.lineLength = lineText.length();
 		this.isFirstLine = isFirstLine;
 		this.linePos = linePos;
 		this.stack = stack;
 		this.lineTokens = lineTokens;
+		this.anchorPosition = -1;
+		this.resumed = false;
+		this.pauseOffset = Integer.MAX_VALUE;
+		this.pauseDeadline = 0;
+		this.hasPauseDeadline = false;
+		this.paused = false;
+	}
+
+	/**
+	 * Drops the references of the tokenizer to the line, so that a pooled tokenizer does not retain it. The match
+	 * frames are kept for the next lines, they only retain the states of a few tokens.
+	 */
+	private void clear() {
+		grammar = null;
+		lineText = null;
+		stack = null;
+		lineTokens = null;
+		timeLimit = null;
+		matchedCaptureIndices = null;
+		injectionCaptureIndices = null;
+		Arrays.fill(captureScopes, null);
+	}
+
+	/**
+	 * Pauses the scan before the end of the line, once the line position reaches the given offset or once the given
+	 * deadline is passed. At least one scan is done before pausing so that each part of the line progresses.
+	 */
+	void setPause(int pauseOffset, long pauseDeadline, boolean hasPauseDeadline) {
+		this.pauseOffset = pauseOffset;
+		this.pauseDeadline = pauseDeadline;
+		this.hasPauseDeadline = hasPauseDeadline;
 	}
 
 	public StackElement scan() {
 		stop = false;
+		paused = false;
 
-		WhileCheckResult whileCheckResult = checkWhileConditions(grammar, lineText, isFirstLine, linePos, stack,
-				lineTokens);
-		stack = whileCheckResult.stack;
-		linePos = whileCheckResult.linePos;
-		isFirstLine = whileCheckResult.isFirstLine;
-		anchorPosition = whileCheckResult.anchorPosition;
+		if (!resumed) {
+			checkWhileConditions();
+		}
 
+		boolean scanned = false;
 		while (!stop) {
+			if (timeLimit != null && timeLimit.isExceeded()) {
+				LOGGER.log(DEBUG, () -> "Time limit reached when tokenizing line: " + lineText.string);
+				lineTokens.stopEarly(stack, lineLength);
+				break;
+			}
+			// the scan does not pause on the '\n', so that the last part produces the token of the end of the line
+			if (scanned && linePos < lineLength - 1 && (linePos >= pauseOffset
+					|| (hasPauseDeadline && System.nanoTime() - pauseDeadline >= 0))) {
+				paused = true;
+				break;
+			}
 			scanNext(); // potentially modifies linePos && anchorPosition
+			scanned = true;
 		}
 
 		return stack;
 	}
 
-	private void scanNext() {
-		LOGGER.log(TRACE, () -> "@@scanNext: |" + lineText.string.replaceAll("\n", "\\n").substring(linePos) + '|');
+	/**
+	 * Returns the continuation of the line if the last scan paused before its end, null otherwise.
+	 */
+	LineContinuation getContinuation() {
+		if (!paused) {
+			return null;
+		}
+		return new LineContinuation(lineText, isFirstLine, linePos, anchorPosition, stack,
+				lineTokens.getLastTokenEndIndex(), lineTokens.hasTokens());
+	}
 
-		IMatchResult r = matchRuleOrInjections(grammar, lineText, isFirstLine, linePos, stack, anchorPosition);
+	private void scanNext() {
+		if (LOGGER.isLoggable(TRACE)) {
+			LOGGER.log(TRACE, "@@scanNext: |" + lineText.string.substring(linePos, lineLength).replaceAll("\n", "\\n")
+					+ '|');
+		}
 
-		if (r == null) {
+		if (!matchRuleOrInjections()) {
 			LOGGER.log(TRACE, " no more matches.");
 			// No match
 			lineTokens.produce(stack, lineLength);
@@ -118,8 +256,8 @@ private void scanNext() {
 			return;
 		}
 
-		IOnigCaptureIndex[] captureIndices = r.getCaptureIndices();
-		int matchedRuleId = r.getMatchedRuleId();
+		IOnigCaptureIndex[] captureIndices = matchedCaptureIndices;
+		int matchedRuleId = this.matchedRuleId;
 
 		boolean hasAdvanced = (captureIndices != null && captureIndices.length > 0)
 				? (captureIndices[0].getEnd() > linePos)
@@ -136,7 +274,7 @@ private void scanNext() {
 
 			lineTokens.produce(stack, captureIndices[0].getStart());
 			stack = stack.setContentNameScopesList(stack.nameScopesList);
-			handleCaptures(grammar, lineText, isFirstLine, stack, lineTokens, poppedRule.endCaptures, captureIndices);
+			handleCaptures(stack, poppedRule.endCaptures, captureIndices);
 			lineTokens.produce(stack, captureIndices[0].getEnd());
 
 			// pop
@@ -166,7 +304,8 @@ private void scanNext() {
 			// push it on the stack rule
 			String scopeName = rule.getName(lineText.string, captureIndices);
 			ScopeListElement nameScopesList = stack.contentNameScopesList.push(grammar, scopeName);
-			stack = stack.push(matchedRuleId, linePos, null, nameScopesList, nameScopesList);
+			stack = rule instanceof MatchRule ? pushMatchFrame(matchedRuleId, nameScopesList)
+					: stack.push(matchedRuleId, linePos, null, nameScopesList, nameScopesList);
 
 			if (rule instanceof BeginEndRule) {
 				BeginEndRule pushedRule = (BeginEndRule) rule;
@@ -176,8 +315,7 @@ private void scanNext() {
 				// pushedRule.debugBeginRegExp);
 				// }
 
-				handleCaptures(grammar, lineText, isFirstLine, stack, lineTokens, pushedRule.beginCaptures,
-						captureIndices);
+				handleCaptures(stack, pushedRule.beginCaptures, captureIndices);
 				lineTokens.produce(stack, captureIndices[0].getEnd());
 				anchorPosition = captureIndices[0].getEnd();
 
@@ -205,8 +343,7 @@ private void scanNext() {
 				// console.log(' pushing ' + pushedRule.debugName);
 				// }
 
-				handleCaptures(grammar, lineText, isFirstLine, stack, lineTokens, pushedRule.beginCaptures,
-						captureIndices);
+				handleCaptures(stack, pushedRule.beginCaptures, captureIndices);
 				lineTokens.produce(stack, captureIndices[0].getEnd());
 				anchorPosition = captureIndices[0].getEnd();
 
@@ -235,8 +372,7 @@ private void scanNext() {
 				// matchingRule.debugMatchRegExp);
 				// }
 
-				handleCaptures(grammar, lineText, isFirstLine, stack, lineTokens, matchingRule.captures,
-						captureIndices);
+				handleCaptures(stack, matchingRule.captures, captureIndices);
 				lineTokens.produce(stack, captureIndices[0].getEnd());
 
 				// pop rule immediately since it is a MatchRule
@@ -261,143 +397,128 @@ private void scanNext() {
 		}
 	}
 
-	private IMatchResult matchRule(Grammar grammar, OnigString lineText, boolean isFirstLine, final int linePos,
-			StackElement stack, int anchorPosition) {
-		Rule rule = stack.getRule(grammar);
-		final ICompiledRule ruleScanner = rule.compile(grammar, stack.endRule, isFirstLine, linePos == anchorPosition);
-		final IOnigNextMatchResult r = ruleScanner.scanner.findNextMatchSync(lineText, linePos);
-
-		if (r != null) {
-			return new IMatchResult() {
-
-				@Override
-				public int getMatchedRuleId() {
-					return ruleScanner.rules[r.getIndex()];
-				}
+	/**
+	 * Returns the frame of a {@link MatchRule} matched on the current stack, reusing a frame pushed before with the
+	 * same rule and scopes: the frame is popped as soon as the captures of the match are handled, it never outlives
+	 * the line and its enter position is never read.
+	 */
+	private StackElement pushMatchFrame(int ruleId, ScopeListElement nameScopesList) {
+		for (StackElement frame : matchFrames) {
+			if (frame != null && frame.parent == stack && frame.ruleId == ruleId
+					&& frame.nameScopesList == nameScopesList) {
+				return frame;
+			}
+		}
+		StackElement frame = stack.push(ruleId, linePos, null, nameScopesList, nameScopesList);
+		matchFrames[nextMatchFrame] = frame;
+		nextMatchFrame = (nextMatchFrame + 1) % MATCH_FRAMES;
+		return frame;
+	}
 
-				@Override
-				public IOnigCaptureIndex[] getCaptureIndices() {
-					return r.getCaptureIndices();
-				}
-			};
+	/**
+	 * Searches the rules of the current stack, setting {@link #matchedRuleId} and {@link #matchedCaptureIndices}.
+	 *
+	 * @return true if a rule matched.
+	 */
+	private boolean matchRule() {
+		Rule rule = stack.getRule(grammar);
+		ICompiledRule ruleScanner = rule.compile(grammar, stack.endRule, isFirstLine, linePos == anchorPosition);
+		OnigNextMatchResult r = ruleScanner.scanner.findNextMatchSync(lineText, linePos, ruleResult);
+		if (r == null) {
+			return false;
 		}
-		return null;
+		matchedRuleId = ruleScanner.rules[r.getIndex()];
+		matchedCaptureIndices = r.getCaptureIndices();
+		return true;
 	}
 
-	private IMatchResult matchRuleOrInjections(Grammar grammar, OnigString lineText, boolean isFirstLine,
-			final int linePos, StackElement stack, int anchorPosition) {
+	/**
+	 * Searches the rules of the current stack and the injections, setting {@link #matchedRuleId} and
+	 * {@link #matchedCaptureIndices} to the winning match.
+	 *
+	 * @return true if a rule or an injection matched.
+	 */
+	private boolean matchRuleOrInjections() {
 		// Look for normal grammar rule
-		IMatchResult matchResult = matchRule(grammar, lineText, isFirstLine, linePos, stack, anchorPosition);
+		boolean matched = matchRule();
 
 		// Look for injected rules
 		List<Injection> injections = grammar.getInjections();
-		if (injections.size() == 0) {
+		if (injections.isEmpty()) {
 			// No injections whatsoever => early return
-			return matchResult;
+			return matched;
 		}
 
-		IMatchInjectionsResult injectionResult = matchInjections(injections, grammar, lineText, isFirstLine, linePos,
-				stack, anchorPosition);
-		if (injectionResult == null) {
+		if (!matchInjections()) {
 			// No injections matched => early return
-			return matchResult;
-		}
-
-		if (matchResult == null) {
-			// Only injections matched => early return
-			return injectionResult;
+			return matched;
 		}
 
-		// Decide if `matchResult` or `injectionResult` should win
-		int matchResultScore = matchResult.getCaptureIndices()[0].getStart();
-		int injectionResultScore = injectionResult.getCaptureIndices()[0].getStart();
-
-		if (injectionResultScore < matchResultScore
-				|| (injectionResult.isPriorityMatch() && injectionResultScore == matchResultScore)) {
-			// injection won!
-			return injectionResult;
+		if (matched) {
+			// Decide if the rule match or the injection match should win
+			int matchResultScore = matchedCaptureIndices[0].getStart();
+			int injectionResultScore = injectionCaptureIndices[0].getStart();
+			if (injectionResultScore > matchResultScore
+					|| (!injectionPriorityMatch && injectionResultScore == matchResultScore)) {
+				return true;
+			}
 		}
 
-		return matchResult;
+		// injection won!
+		matchedRuleId = injectionRuleId;
+		matchedCaptureIndices = injectionCaptureIndices;
+		return true;
 	}
 
-	private IMatchInjectionsResult matchInjections(List<Injection> injections, Grammar grammar, OnigString lineText,
-			boolean isFirstLine, int linePos, StackElement stack, int anchorPosition) {
-		// The lower the better
-		int bestMatchRating = Integer.MAX_VALUE;
-		IOnigCaptureIndex[] bestMatchCaptureIndices = null;
-		int bestMatchRuleId = -1;
-		int bestMatchResultPriority = 0;
-
-		List<String> scopes = stack.contentNameScopesList.generateScopes();
-
-		for (Injection injection : injections) {
-			if (!injection.match(scopes)) {
-				// injection selector doesn't match stack
-				continue;
-			}
-
-			ICompiledRule ruleScanner = grammar.getRule(injection.ruleId).compile(grammar, null, isFirstLine,
-					linePos == anchorPosition);
-			IOnigNextMatchResult matchResult = ruleScanner.scanner.findNextMatchSync(lineText, linePos);
-
-			if (matchResult == null) {
-				continue;
+	/**
+	 * Searches the injections applicable to the current stack, setting {@link #injectionRuleId},
+	 * {@link #injectionCaptureIndices} and {@link #injectionPriorityMatch}.
+	 *
+	 * @return true if an injection matched.
+	 */
+	private boolean matchInjections() {
+		// the applicable injections are cached by the scope list
+		InjectionSet injectionSet = grammar.getInjectionSet(stack.contentNameScopesList);
+		boolean allowG = linePos == anchorPosition;
+		if (injectionSet.injections.length == 1) {
+			Injection injection = injectionSet.injections[0];
+			ICompiledRule ruleScanner = grammar.getRule(injection.ruleId).compile(grammar, null, isFirstLine, allowG);
+			OnigNextMatchResult matchResult = ruleScanner.scanner.findNextMatchSync(lineText, linePos,
+					injectionResult);
+			if (matchResult != null) {
+				injectionCaptureIndices = matchResult.getCaptureIndices();
+				injectionRuleId = ruleScanner.rules[matchResult.getIndex()];
+				injectionPriorityMatch = injection.priority == -1;
+				return true;
 			}
-
-			int matchRating = matchResult.getCaptureIndices()[0].getStart();
-
-			if (matchRating > bestMatchRating) {
-				// Injections are sorted by priority, so the previous injection had a better or
-				// equal priority
-				continue;
+		} else if (injectionSet.injections.length > 1) {
+			// search the patterns of all the applicable injections at once: at the same location, the last injection
+			// wins, unless it is the search start where the first injection wins (see InjectionSet)
+			InjectionSet.MergedScanner mergedScanner = injectionSet.getMergedScanner(isFirstLine, allowG, true);
+			OnigNextMatchResult matchResult = mergedScanner.rule.scanner.findNextMatchSync(lineText, linePos,
+					injectionResult);
+			if (matchResult != null && matchResult.getCaptureIndices()[0].getStart() == linePos) {
+				mergedScanner = injectionSet.getMergedScanner(isFirstLine, allowG, false);
+				matchResult = mergedScanner.rule.scanner.findNextMatchSync(lineText, linePos, injectionResult);
 			}
-
-			bestMatchRating = matchRating;
-			bestMatchCaptureIndices = matchResult.getCaptureIndices();
-			bestMatchRuleId = ruleScanner.rules[matchResult.getIndex()];
-			bestMatchResultPriority = injection.priority;
-
-			if (bestMatchRating == linePos) {
-				// No more need to look at the rest of the injections
-				break;
+			if (matchResult != null) {
+				injectionCaptureIndices = matchResult.getCaptureIndices();
+				injectionRuleId = mergedScanner.rule.rules[matchResult.getIndex()];
+				injectionPriorityMatch = mergedScanner.injections[matchResult.getIndex()].priority == -1;
+				return true;
 			}
 		}
-
-		if (bestMatchCaptureIndices != null) {
-			final int matchedRuleId = bestMatchRuleId;
-			final IOnigCaptureIndex[] matchCaptureIndices = bestMatchCaptureIndices;
-			final boolean matchResultPriority = bestMatchResultPriority == -1;
-			return new IMatchInjectionsResult() {
-
-				@Override
-				public int getMatchedRuleId() {
-					return matchedRuleId;
-				}
-
-				@Override
-				public IOnigCaptureIndex[] getCaptureIndices() {
-					return matchCaptureIndices;
-				}
-
-				@Override
-				public boolean isPriorityMatch() {
-					return matchResultPriority;
-				}
-			};
-		}
-
-		return null;
+		return false;
 	}
 
-	private void handleCaptures(Grammar grammar, OnigString lineText, boolean isFirstLine, StackElement stack,
-			LineTokens lineTokens, List<CaptureRule> captures, IOnigCaptureIndex[] captureIndices) {
+	private void handleCaptures(StackElement stack, List<CaptureRule> captures, IOnigCaptureIndex[] captureIndices) {
 		if (captures.isEmpty()) {
 			return;
 		}
 
 		int len = Math.min(captures.size(), captureIndices.length);
-		List<LocalStackElement> localStack = new ArrayList<>();
+		// the pushed captures are the first captureDepth elements of captureScopes and captureEnds
+		int captureDepth = 0;
 		int maxEnd = captureIndices[0].getEnd();
 		IOnigCaptureIndex captureIndex;
 
@@ -421,16 +542,14 @@ private void handleCaptures(Grammar grammar, OnigString lineText, boolean isFirs
 			}
 
 			// pop captures while needed
-			while (!localStack.isEmpty() && localStack.get(localStack.size() - 1).getEndPos() <= captureIndex.getStart()) {
+			while (captureDepth > 0 && captureEnds[captureDepth - 1] <= captureIndex.getStart()) {
 				// pop!
-				lineTokens.produceFromScopes(localStack.get(localStack.size() - 1).getScopes(),
-						localStack.get(localStack.size() - 1).getEndPos());
-				localStack.remove(localStack.size() - 1);
+				captureDepth--;
+				lineTokens.produceFromScopes(captureScopes[captureDepth], captureEnds[captureDepth]);
 			}
 
-			if (!localStack.isEmpty()) {
-				lineTokens.produceFromScopes(localStack.get(localStack.size() - 1).getScopes(),
-						captureIndex.getStart());
+			if (captureDepth > 0) {
+				lineTokens.produceFromScopes(captureScopes[captureDepth - 1], captureIndex.getStart());
 			} else {
 				lineTokens.produce(stack, captureIndex.getStart());
 			}
@@ -445,9 +564,14 @@ private void handleCaptures(Grammar grammar, OnigString lineText, boolean isFirs
 				// the capture requires additional matching
 				StackElement stackClone = stack.push(captureRule.retokenizeCapturedWithRuleId, captureIndex.getStart(),
 						null, nameScopesList, contentNameScopesList);
-				tokenizeString(grammar,
-						GrammarHelper.createOnigString(lineText.string.substring(0, captureIndex.getEnd())),
-						(isFirstLine && captureIndex.getStart() == 0), captureIndex.getStart(), stackClone, lineTokens);
+				// the captured text is tokenized up to its end, searching the line without copying it
+				OnigString captureText = lineText.acquirePrefix(captureIndex.getEnd());
+				try {
+					tokenizeString(grammar, captureText, (isFirstLine && captureIndex.getStart() == 0),
+							captureIndex.getStart(), stackClone, lineTokens);
+				} finally {
+					captureText.release();
+				}
 				continue;
 			}
 
@@ -455,18 +579,22 @@ private void handleCaptures(Grammar grammar, OnigString lineText, boolean isFirs
 			String captureRuleScopeName = captureRule.getName(lineText.string, captureIndices);
 			if (captureRuleScopeName != null) {
 				// push
-				ScopeListElement base = localStack.isEmpty() ? stack.contentNameScopesList :
-					localStack.get(localStack.size() - 1).getScopes();
-				ScopeListElement captureRuleScopesList = base.push(grammar, captureRuleScopeName);
-				localStack.add(new LocalStackElement(captureRuleScopesList, captureIndex.getEnd()));
+				ScopeListElement base = captureDepth == 0 ? stack.contentNameScopesList
+						: captureScopes[captureDepth - 1];
+				if (captureDepth == captureScopes.length) {
+					captureScopes = Arrays.copyOf(captureScopes, captureDepth * 2);
+					captureEnds = Arrays.copyOf(captureEnds, captureDepth * 2);
+				}
+				captureScopes[captureDepth] = base.push(grammar, captureRuleScopeName);
+				captureEnds[captureDepth] = captureIndex.getEnd();
+				captureDepth++;
 			}
 		}
 
-		while (!localStack.isEmpty()) {
+		while (captureDepth > 0) {
 			// pop!
-			lineTokens.produceFromScopes(localStack.get(localStack.size() - 1).getScopes(),
-					localStack.get(localStack.size() - 1).getEndPos());
-			localStack.remove(localStack.size() - 1);
+			captureDepth--;
+			lineTokens.produceFromScopes(captureScopes[captureDepth], captureEnds[captureDepth]);
 		}
 	}
 
@@ -475,55 +603,88 @@ private void handleCaptures(Grammar grammar, OnigString lineText, boolean isFirs
 	 * order. If any fails, cut off the entire stack above the failed while
 	 * condition. While conditions may also advance the linePosition.
 	 */
-	private WhileCheckResult checkWhileConditions(Grammar grammar, OnigString lineText, boolean isFirstLine,
-			int linePos, StackElement stack, LineTokens lineTokens) {
+	private void checkWhileConditions() {
 		int currentanchorPosition = -1;
-		List<WhileStack> whileRules = new ArrayList<>();
-		for (StackElement node = stack; node != null; node = node.pop()) {
-			Rule nodeRule = node.getRule(grammar);
-			if (nodeRule instanceof BeginWhileRule) {
-				whileRules.add(new WhileStack(node, (BeginWhileRule) nodeRule));
-			}
-		}
-		for (int i = whileRules.size() - 1; i >= 0; i--) {
-			WhileStack whileRule = whileRules.get(i);
-			ICompiledRule ruleScanner = whileRule.rule.compileWhile(grammar, whileRule.stack.endRule, isFirstLine,
+		for (StackElement whileElement : stack.getWhileElements(grammar)) {
+			BeginWhileRule whileRule = (BeginWhileRule) whileElement.getRule(grammar);
+			ICompiledRule ruleScanner = whileRule.compileWhile(grammar, whileElement.endRule, isFirstLine,
 					currentanchorPosition == linePos);
-			IOnigNextMatchResult r = ruleScanner.scanner.findNextMatchSync(lineText, linePos);
+			OnigNextMatchResult r = ruleScanner.scanner.findNextMatchSync(lineText, linePos, whileResult);
 			// if (IN_DEBUG_MODE) {
 			// console.log(' scanning for while rule');
 			// console.log(debugCompiledRuleToString(ruleScanner));
 			// }
 
 			if (r != null) {
-				Integer matchedRuleId = ruleScanner.rules[r.getIndex()];
+				int matchedRuleId = ruleScanner.rules[r.getIndex()];
 				if (matchedRuleId != -2) {
 					// we shouldn't end up here
-					stack = whileRule.stack.pop();
+					stack = whileElement.pop();
 					break;
 				}
-				if (r.getCaptureIndices() != null && r.getCaptureIndices().length > 0) {
-					lineTokens.produce(whileRule.stack, r.getCaptureIndices()[0].getStart());
-					handleCaptures(grammar, lineText, isFirstLine, whileRule.stack, lineTokens,
-							whileRule.rule.whileCaptures, r.getCaptureIndices());
-					lineTokens.produce(whileRule.stack, r.getCaptureIndices()[0].getEnd());
-					currentanchorPosition = r.getCaptureIndices()[0].getEnd();
-					if (r.getCaptureIndices()[0].getEnd() > linePos) {
-						linePos = r.getCaptureIndices()[0].getEnd();
+				IOnigCaptureIndex[] captureIndices = r.getCaptureIndices();
+				if (captureIndices.length > 0) {
+					lineTokens.produce(whileElement, captureIndices[0].getStart());
+					handleCaptures(whileElement, whileRule.whileCaptures, captureIndices);
+					lineTokens.produce(whileElement, captureIndices[0].getEnd());
+					currentanchorPosition = captureIndices[0].getEnd();
+					if (captureIndices[0].getEnd() > linePos) {
+						linePos = captureIndices[0].getEnd();
 						isFirstLine = false;
 					}
 				}
 			} else {
-				stack = whileRule.stack.pop();
+				stack = whileElement.pop();
 				break;
 			}
 		}
-
-		return new WhileCheckResult(stack, linePos, currentanchorPosition, isFirstLine);
+		anchorPosition = currentanchorPosition;
 	}
 
 	public static StackElement tokenizeString(Grammar grammar, OnigString lineText, boolean isFirstLine, int linePos,
 			StackElement stack, LineTokens lineTokens) {
-		return new LineTokenizer(grammar, lineText, isFirstLine, linePos, stack, lineTokens).scan();
+		Pool pool = POOL.get();
+		LineTokenizer tokenizer = pool.acquire();
+		try {
+			tokenizer.reset(grammar, lineText, isFirstLine, linePos, stack, lineTokens, null);
+			return tokenizer.scan();
+		} finally {
+			pool.release(tokenizer);
+		}
+	}
+
+	/**
+	 * Tokenizes a whole line, stopping early if the given time limit (may be null) is exceeded or if the thread is
+	 * interrupted during a regexp search. In both cases the rest of the line is produced as one token with the scopes
+	 * of the state at the stop, see {@link LineTokens#isStoppedEarly()}, and that state is returned.
+	 */
+	static StackElement tokenizeLine(Grammar grammar, OnigString lineText, boolean isFirstLine, StackElement stack,
+			LineTokens lineTokens, LineTimeLimit timeLimit) {
+		Pool pool = POOL.get();
+		LineTokenizer tokenizer = pool.acquire();
+		try {
+			tokenizer.reset(grammar, lineText, isFirstLine, 0, stack, lineTokens, timeLimit);
+			return tokenizer.scanLine();
+		} finally {
+			pool.release(tokenizer);
+		}
+	}
+
+	/**
+	 * Scans the line like {@link #tokenizeLine(Grammar, OnigString, boolean, StackElement, LineTokens, LineTimeLimit)}.
+	 */
+	StackElement scanLine() {
+		try {
+			return scan();
+		} catch (OnigSearchInterruptedException e) {
+			if (timeLimit == null || !timeLimit.consumeInterruption()) {
+				// interrupted by someone else, who must still see it
+				Thread.currentThread().interrupt();
+			}
+			LOGGER.log(DEBUG, () -> "Tokenization interrupted: " + e.getMessage());
+			paused = false;
+			lineTokens.stopEarly(stack, lineLength);
+			return stack;
+		}
 	}
 }
@@ -22,6 +22,7 @@
 import java.util.ArrayList;
 import java.util.List;
 
+import org.eclipse.tm4e.core.grammar.BinaryTokenBuffer;
 import org.eclipse.tm4e.core.grammar.IToken;
 import org.eclipse.tm4e.core.grammar.StackElement;
 
@@ -39,23 +40,56 @@ class LineTokens {
 	private final boolean emitBinaryTokens;
 
 	/**
-	 * used only if `_emitBinaryTokens` is true.
+	 * used only if `_emitBinaryTokens` is true. The tokens of the line are appended after the first token index, the
+	 * tokens before it belong to other lines.
 	 */
-	private final List<Integer> binaryTokens;
+	private final BinaryTokenBuffer binaryTokens;
+	private final int firstBinaryToken;
 
 	private int lastTokenEndIndex;
 
+	/**
+	 * true if the tokens of a previous part of the line were produced, see {@link LineContinuation}.
+	 */
+	private final boolean hasPreviousTokens;
+
+	private boolean stoppedEarly;
+
 	LineTokens(boolean emitBinaryTokens, String lineText) {
-		this.emitBinaryTokens = emitBinaryTokens;
+		this(emitBinaryTokens ? new BinaryTokenBuffer() : null, lineText);
+	}
+
+	/**
+	 * @param binaryTokens
+	 *            the buffer to append the tokens in binary format to, or null to emit {@link IToken}s.
+	 */
+	LineTokens(BinaryTokenBuffer binaryTokens, String lineText) {
+		this.emitBinaryTokens = binaryTokens != null;
 		this.lineText = LOGGER.isLoggable(TRACE) ? lineText : null; // store line only if it's logged
 		if (this.emitBinaryTokens) {
 			this.tokens = null;
-			this.binaryTokens = new ArrayList<>();
+			this.binaryTokens = binaryTokens;
+			this.firstBinaryToken = binaryTokens.getTokenCount();
 		} else {
 			this.tokens = new ArrayList<>();
 			this.binaryTokens = null;
+			this.firstBinaryToken = 0;
 		}
 		this.lastTokenEndIndex = 0;
+		this.hasPreviousTokens = false;
+	}
+
+	/**
+	 * Creates the tokens of the part of a line resumed from the given continuation.
+	 */
+	LineTokens(String lineText, LineContinuation continuation) {
+		this.emitBinaryTokens = false;
+		this.lineText = LOGGER.isLoggable(TRACE) ? lineText : null; // store line only if it's logged
+		this.tokens = new ArrayList<>();
+		this.binaryTokens = null;
+		this.firstBinaryToken = 0;
+		this.lastTokenEndIndex = continuation.lastTokenEndIndex;
+		this.hasPreviousTokens = continuation.hasTokens;
 	}
 
 	public void produce(StackElement stack, int endIndex) {
@@ -69,14 +103,14 @@ public void produceFromScopes(ScopeListElement scopesList, int endIndex) {
 
 		if (this.emitBinaryTokens) {
 			int metadata = scopesList.metadata;
-			if (!this.binaryTokens.isEmpty() && this.binaryTokens.get(this.binaryTokens.size() - 1) == metadata) {
+			int tokenCount = this.binaryTokens.getTokenCount();
+			if (tokenCount > this.firstBinaryToken && this.binaryTokens.getMetadata(tokenCount - 1) == metadata) {
 				// no need to push a token with the same metadata
 				this.lastTokenEndIndex = endIndex;
 				return;
 			}
 
-			this.binaryTokens.add(this.lastTokenEndIndex);
-			this.binaryTokens.add(metadata);
+			this.binaryTokens.add(this.lastTokenEndIndex, metadata);
 
 			this.lastTokenEndIndex = endIndex;
 			return;
@@ -98,13 +132,44 @@ public void produceFromScopes(ScopeListElement scopesList, int endIndex) {
 		this.lastTokenEndIndex = endIndex;
 	}
 
+	/**
+	 * Produces the rest of the line as one token with the scopes of the given state, when the tokenization of the line
+	 * is stopped before its end.
+	 */
+	void stopEarly(StackElement stack, int lineLength) {
+		this.stoppedEarly = true;
+		this.produce(stack, lineLength);
+	}
+
+	boolean isStoppedEarly() {
+		return stoppedEarly;
+	}
+
+	int getLastTokenEndIndex() {
+		return lastTokenEndIndex;
+	}
+
+	/**
+	 * Returns true if a token of the line was produced, by this part of the line or by a previous one.
+	 */
+	boolean hasTokens() {
+		return hasPreviousTokens || !this.tokens.isEmpty();
+	}
+
+	/**
+	 * Returns the tokens produced so far, when the tokenization of the line is paused.
+	 */
+	IToken[] getPausedResult() {
+		return this.tokens.toArray(new IToken[0]);
+	}
+
 	public IToken[] getResult(StackElement stack, int lineLength) {
 		if (!this.tokens.isEmpty() && this.tokens.get(this.tokens.size() - 1).getStartIndex() == lineLength - 1) {
 			// pop produced token for newline
 			this.tokens.remove(this.tokens.size() - 1);
 		}
 
-		if (this.tokens.isEmpty()) {
+		if (this.tokens.isEmpty() && !this.hasPreviousTokens) {
 			this.lastTokenEndIndex = -1;
 			this.produce(stack, lineLength);
 			this.tokens.get(this.tokens.size() - 1).setStartIndex(0);
@@ -114,23 +179,27 @@ public IToken[] getResult(StackElement stack, int lineLength) {
 	}
 
 	public int[] getBinaryResult(StackElement stack, int lineLength) {
-		if (!this.binaryTokens.isEmpty() && this.binaryTokens.get(this.binaryTokens.size() - 2) == lineLength - 1) {
+		fillBinaryResult(stack, lineLength);
+		return this.binaryTokens.toArray(this.firstBinaryToken, this.binaryTokens.getTokenCount());
+	}
+
+	/**
+	 * Completes the tokens of the line in the buffer, like {@link #getBinaryResult(StackElement, int)} without copying
+	 * them.
+	 */
+	void fillBinaryResult(StackElement stack, int lineLength) {
+		int tokenCount = this.binaryTokens.getTokenCount();
+		if (tokenCount > this.firstBinaryToken
+				&& this.binaryTokens.getStartIndex(tokenCount - 1) == lineLength - 1) {
 			// pop produced token for newline
-			this.binaryTokens.remove(this.binaryTokens.size() - 1);
-			this.binaryTokens.remove(this.binaryTokens.size() - 1);
+			this.binaryTokens.removeLast();
 		}
 
-		if (this.binaryTokens.isEmpty()) {
+		if (this.binaryTokens.getTokenCount() == this.firstBinaryToken) {
 			this.lastTokenEndIndex = -1;
 			this.produce(stack, lineLength);
-			this.binaryTokens.set(this.binaryTokens.size() - 2, 0);
-		}
-
-		int[] result = new int[this.binaryTokens.size()];
-		for (int i = 0, len = this.binaryTokens.size(); i < len; i++) {
-			result[i] = this.binaryTokens.get(i);
+			this.binaryTokens.setStartIndex(this.binaryTokens.getTokenCount() - 1, 0);
 		}
-
-		return result;
+		this.binaryTokens.setStoppedEarly(this.stoppedEarly);
 	}
 }
@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.eclipse.tm4e.core.grammar.BinaryTokenBuffer;
+import org.eclipse.tm4e.core.grammar.IGrammar;
+import org.eclipse.tm4e.core.grammar.ITokenizeLinesResult;
+import org.eclipse.tm4e.core.grammar.StackElement;
+
+/**
+ * Speculative parallel tokenization of lines, see
+ * {@link IGrammar#tokenizeLines(List, StackElement, int, ForkJoinPool)}.
+ * <p>
+ * The lines are split in chunks tokenized in parallel. Each chunk but the first starts from a guessed state: the
+ * state after tokenizing a few lines before the chunk from the initial state, which is right unless a construct
+ * spanning more lines (e.g. a long block comment) is open at the start of the chunk. The chunk boundaries are then
+ * checked in order: a chunk whose guessed start state differs from the end state of the previous chunk is tokenized
+ * again from this state, up to the first line ending with the same state as the speculative tokenization, after
+ * which the speculative tokens are right.
+ * </p>
+ */
+final class ParallelLinesTokenizer {
+
+	/**
+	 * The minimum number of lines of a chunk: the warm-up lines of smaller chunks would cost too much.
+	 */
+	private static final int MIN_CHUNK_SIZE = 512;
+
+	/**
+	 * The number of chunks by thread, more than one so that the threads finishing early take the remaining chunks.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/**
+	 * The number of lines before a chunk tokenized to guess the state at its start.
+	 */
+	private static final int WARM_UP_LINES = 32;
+
+	private final class Chunk {
+
+		private final int start;
+		private final int end;
+		private StackElement startState;
+		private BinaryTokenBuffer tokens;
+		private int[] lineStartTokens;
+		private final StackElement[] lineEndStates;
+
+		Chunk(int start, int end) {
+			this.start = start;
+			this.end = end;
+			this.lineEndStates = new StackElement[end - start];
+		}
+
+		void tokenize() {
+			int from = start - WARM_UP_LINES;
+			StackElement state;
+			if (from <= 0) {
+				from = 0;
+				state = prevState;
+			} else {
+				state = null;
+			}
+			BinaryTokenBuffer warmUpTokens = new BinaryTokenBuffer();
+			for (int i = from; i < start; i++) {
+				warmUpTokens.clear();
+				state = grammar.tokenizeLine2(getLine(i), state, null, warmUpTokens);
+			}
+			startState = state;
+
+			tokens = new BinaryTokenBuffer((end - start) * 8);
+			lineStartTokens = new int[end - start + 1];
+			for (int i = start; i < end; i++) {
+				lineStartTokens[i - start] = tokens.getTokenCount();
+				state = grammar.tokenizeLine2(getLine(i), state, null, tokens);
+				lineEndStates[i - start] = state;
+			}
+			lineStartTokens[end - start] = tokens.getTokenCount();
+		}
+
+		/**
+		 * Tokenizes again the first lines of the chunk from the given state, up to the first line ending with the
+		 * same state as the speculative tokenization, and keeps the speculative tokens of the next lines.
+		 */
+		void repair(StackElement state) {
+			int lineCount = end - start;
+			BinaryTokenBuffer repairedTokens = new BinaryTokenBuffer(tokens.getTokenCount());
+			int[] repairedLineStartTokens = new int[lineCount + 1];
+			int line = 0;
+			while (line < lineCount) {
+				repairedLineStartTokens[line] = repairedTokens.getTokenCount();
+				state = grammar.tokenizeLine2(getLine(start + line), state, null, repairedTokens);
+				boolean converged = Objects.equals(state, lineEndStates[line]);
+				lineEndStates[line] = state;
+				line++;
+				if (converged) {
+					break;
+				}
+			}
+			for (; line < lineCount; line++) {
+				repairedLineStartTokens[line] = repairedTokens.getTokenCount();
+				for (int token = lineStartTokens[line]; token < lineStartTokens[line + 1]; token++) {
+					repairedTokens.add(tokens.getStartIndex(token), tokens.getMetadata(token));
+				}
+			}
+			repairedLineStartTokens[lineCount] = repairedTokens.getTokenCount();
+			tokens = repairedTokens;
+			lineStartTokens = repairedLineStartTokens;
+		}
+
+		StackElement getEndState() {
+			return lineEndStates[end - start - 1];
+		}
+	}
+
+	private final Grammar grammar;
+	private final List<? extends CharSequence> lines;
+	private final StackElement prevState;
+
+	private ParallelLinesTokenizer(Grammar grammar, List<? extends CharSequence> lines, StackElement prevState) {
+		this.grammar = grammar;
+		this.lines = lines;
+		this.prevState = prevState;
+	}
+
+	static ITokenizeLinesResult tokenize(Grammar grammar, List<? extends CharSequence> lines,
+			StackElement prevState, int stateInterval, ForkJoinPool pool) {
+		int chunkSize = Math.max(MIN_CHUNK_SIZE,
+				(lines.size() + pool.getParallelism() * CHUNKS_PER_THREAD - 1)
+						/ (pool.getParallelism() * CHUNKS_PER_THREAD));
+		return tokenize(grammar, lines, prevState, stateInterval, pool, chunkSize);
+	}
+
+	static ITokenizeLinesResult tokenize(Grammar grammar, List<? extends CharSequence> lines,
+			StackElement prevState, int stateInterval, ForkJoinPool pool, int chunkSize) {
+		if (stateInterval < 0) {
+			throw new IllegalArgumentException("stateInterval: " + stateInterval);
+		}
+		return new ParallelLinesTokenizer(grammar, lines, prevState).tokenize(stateInterval, pool, chunkSize);
+	}
+
+	private ITokenizeLinesResult tokenize(int stateInterval, ForkJoinPool pool, int chunkSize) {
+		List<Chunk> chunks = new ArrayList<>();
+		for (int start = 0; start < lines.size(); start += chunkSize) {
+			chunks.add(new Chunk(start, Math.min(start + chunkSize, lines.size())));
+		}
+		if (chunks.size() == 1) {
+			chunks.get(0).tokenize();
+		} else if (chunks.size() > 1) {
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (Chunk chunk : chunks) {
+				tasks.add(ForkJoinTask.adapt(chunk::tokenize));
+			}
+			pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+		}
+
+		// check the chunk boundaries
+		StackElement state = prevState;
+		for (Chunk chunk : chunks) {
+			if (!Objects.equals(state, chunk.startState)) {
+				chunk.repair(state);
+			}
+			state = chunk.getEndState();
+		}
+
+		int tokenCount = 0;
+		for (Chunk chunk : chunks) {
+			tokenCount += chunk.tokens.getTokenCount();
+		}
+		int[] tokens = new int[tokenCount * 2];
+		int[] lineStartTokens = new int[lines.size() + 1];
+		StackElement[] lineEndStates = stateInterval > 0 ? new StackElement[lines.size()] : null;
+		int offset = 0;
+		for (Chunk chunk : chunks) {
+			System.arraycopy(chunk.tokens.getArray(), 0, tokens, offset * 2, chunk.tokens.getTokenCount() * 2);
+			for (int line = chunk.start; line < chunk.end; line++) {
+				lineStartTokens[line] = offset + chunk.lineStartTokens[line - chunk.start];
+				if (lineEndStates != null && (line + 1) % stateInterval == 0) {
+					lineEndStates[line] = chunk.lineEndStates[line - chunk.start];
+				}
+			}
+			offset += chunk.tokens.getTokenCount();
+		}
+		lineStartTokens[lines.size()] = tokenCount;
+		return new TokenizeLinesResult(tokens, lineStartTokens, lines.size(), lineEndStates, state);
+	}
+
+	private String getLine(int line) {
+		return lines.get(line).toString();
+	}
+}
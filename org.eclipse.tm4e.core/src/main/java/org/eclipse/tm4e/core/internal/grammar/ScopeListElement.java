@@ -11,7 +11,6 @@
  */
 package org.eclipse.tm4e.core.internal.grammar;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -22,24 +21,120 @@
 
 public class ScopeListElement {
 
+	private static final int[] NO_SCOPE_IDS = new int[0];
+	private static final String[] NO_SCOPES = new String[0];
+
+	/**
+	 * The maximum number of elements pushed on an element which are kept by its {@link #pushed} cache.
+	 */
+	private static final int MAX_PUSHED = 16;
+
 	public final ScopeListElement parent;
 	public final String scope;
+
+	/**
+	 * The id of the scope in the {@link ScopeNames} of the grammar, -1 for a scope which is not in it.
+	 */
+	public final int scopeId;
 	public final int metadata;
 
+	/**
+	 * The hash code, computed from the cached hash code of the parent.
+	 */
+	private final int hashCode;
+
+	/**
+	 * The scope path from the root, computed on demand: an element is immutable, so its path is computed once for all
+	 * the tokens and injection matches having its scopes. The scope lists are shared by the threads tokenizing with
+	 * the same grammar, so the computed paths are published safely.
+	 */
+	private volatile int[] scopeIds;
+	private volatile List<String> scopes;
+
+	/**
+	 * The injections applicable to this scope list, computed on demand by the grammar tokenizing it, see
+	 * {@link Grammar#getInjectionSet(ScopeListElement)}.
+	 */
+	volatile InjectionSet injectionSet;
+
+	/**
+	 * The last elements pushed on this element, see {@link #push(Grammar, String)}: each token of a line pushes the
+	 * same scopes on the same elements, and reusing the elements also reuses their computed paths and injections. The
+	 * elements are replaced on each addition so that the threads tokenizing with the grammar read complete arrays.
+	 */
+	private volatile PushedElements pushed;
+
+	/**
+	 * The elements pushed on an element by scope, whose metadata were computed with the given theme generation of
+	 * the grammar (see {@link Grammar#getThemeGeneration()}).
+	 */
+	private static final class PushedElements {
+
+		private final int themeGeneration;
+		private final String[] scopes;
+		private final ScopeListElement[] elements;
+
+		/**
+		 * The index of the element replaced by the next addition once {@link #MAX_PUSHED} elements are kept.
+		 */
+		private final int next;
+
+		private PushedElements(int themeGeneration, String[] scopes, ScopeListElement[] elements, int next) {
+			this.themeGeneration = themeGeneration;
+			this.scopes = scopes;
+			this.elements = elements;
+			this.next = next;
+		}
+
+		private ScopeListElement get(String scope) {
+			for (int i = 0; i < scopes.length; i++) {
+				if (scopes[i] == scope || scope.equals(scopes[i])) {
+					return elements[i];
+				}
+			}
+			return null;
+		}
+
+		private PushedElements add(String scope, ScopeListElement element) {
+			int length = scopes.length;
+			if (length < MAX_PUSHED) {
+				String[] newScopes = Arrays.copyOf(scopes, length + 1);
+				ScopeListElement[] newElements = Arrays.copyOf(elements, length + 1);
+				newScopes[length] = scope;
+				newElements[length] = element;
+				return new PushedElements(themeGeneration, newScopes, newElements, 0);
+			}
+			String[] newScopes = scopes.clone();
+			ScopeListElement[] newElements = elements.clone();
+			newScopes[next] = scope;
+			newElements[next] = element;
+			return new PushedElements(themeGeneration, newScopes, newElements, (next + 1) % MAX_PUSHED);
+		}
+	}
+
 	public ScopeListElement(ScopeListElement parent, String scope, int metadata) {
+		this(parent, scope, -1, metadata);
+	}
+
+	public ScopeListElement(ScopeListElement parent, String scope, int scopeId, int metadata) {
 		this.parent = parent;
 		this.scope = scope;
+		this.scopeId = scopeId;
 		this.metadata = metadata;
+		// same as Objects.hash(scope, metadata, parent)
+		this.hashCode = 31 * (31 * (31 + Objects.hashCode(scope)) + metadata) + Objects.hashCode(parent);
 	}
 
 	private static boolean equals(ScopeListElement a, ScopeListElement b) {
-		if (a == b) {
-			return true;
-		}
-		if (a == null || b == null) {
-			return false;
+		while (a != b) {
+			if (a == null || b == null || a.hashCode != b.hashCode || a.metadata != b.metadata
+					|| !Objects.equals(a.scope, b.scope)) {
+				return false;
+			}
+			a = a.parent;
+			b = b.parent;
 		}
-		return Objects.equals(a.scope, b.scope) && a.metadata == b.metadata && equals(a.parent, b.parent);
+		return true;
 	}
 
 	@Override
@@ -57,7 +152,7 @@ public boolean equals(Object other) {
 	}
 
 	@Override public int hashCode() {
-		return Objects.hash(scope, metadata, parent);
+		return hashCode;
 	}
 
 
@@ -115,39 +210,102 @@ public static int mergeMetadata(int metadata, ScopeListElement scopesList, Scope
 				background);
 	}
 
-	private static ScopeListElement push(ScopeListElement target, Grammar grammar, List<String> scopes) {
-		for (String scope : scopes) {
-			ScopeMetadata rawMetadata = grammar.getMetadataForScope(scope);
-			int metadata = ScopeListElement.mergeMetadata(target.metadata, target, rawMetadata);
-			target = new ScopeListElement(target, scope, metadata);
-		}
-		return target;
-	}
-
 	public ScopeListElement push(Grammar grammar, String scope) {
 		if (scope == null) {
 			return this;
 		}
-		if (scope.indexOf(' ') >= 0) {
-			// there are multiple scopes to push
-			return ScopeListElement.push(this, grammar, Arrays.asList(scope.split(" ")));// scope.split(/
-																							// /g));
+		// the elements pushed with a previous theme have stale metadata
+		int themeGeneration = grammar.getThemeGeneration();
+		PushedElements pushedElements = pushed;
+		if (pushedElements != null && pushedElements.themeGeneration == themeGeneration) {
+			ScopeListElement element = pushedElements.get(scope);
+			if (element != null) {
+				return element;
+			}
+		} else {
+			pushedElements = null;
+		}
+		// there may be multiple space-separated scopes to push
+		ScopeNames scopeNames = grammar.getScopeNames();
+		ScopeListElement target = this;
+		int[] scopeIds = scopeNames.getSplit(scope);
+		if (scopeIds != null) {
+			for (int scopeId : scopeIds) {
+				target = target.pushScope(grammar, scopeNames.getName(scopeId), scopeId);
+			}
+		} else {
+			// a name resolved from captures is not interned, see ScopeNames
+			for (String name : ScopeNames.splitNames(scope)) {
+				target = target.pushScope(grammar, name, scopeNames.findId(name));
+			}
 		}
-		// there is a single scope to push
-		return ScopeListElement.push(this, grammar, Arrays.asList(scope));
+		pushed = pushedElements == null
+				? new PushedElements(themeGeneration, new String[] { scope }, new ScopeListElement[] { target }, 0)
+				: pushedElements.add(scope, target);
+		return target;
 	}
 
-	private static List<String> generateScopes(ScopeListElement scopesList) {
-		List<String> result = new ArrayList<>();
-		while (scopesList != null) {
-			result.add(scopesList.scope);
-			scopesList = scopesList.parent;
+	private ScopeListElement pushScope(Grammar grammar, String name, int scopeId) {
+		ScopeMetadata rawMetadata = grammar.getMetadataForScope(name);
+		int metadata = ScopeListElement.mergeMetadata(this.metadata, this, rawMetadata);
+		return new ScopeListElement(this, name, scopeId, metadata);
+	}
+
+	/**
+	 * Returns the ids of the scopes from the root to this element. The returned array must not be modified.
+	 */
+	public int[] getScopeIds() {
+		int[] result = scopeIds;
+		if (result == null) {
+			// reuse the path of the closest ancestor which has computed it
+			int depth = 0;
+			int[] base = NO_SCOPE_IDS;
+			for (ScopeListElement element = this; element != null; element = element.parent) {
+				int[] elementIds = element.scopeIds;
+				if (elementIds != null) {
+					base = elementIds;
+					break;
+				}
+				depth++;
+			}
+			result = Arrays.copyOf(base, base.length + depth);
+			ScopeListElement element = this;
+			for (int i = result.length - 1; i >= base.length; i--) {
+				result[i] = element.scopeId;
+				element = element.parent;
+			}
+			scopeIds = result;
 		}
-		Collections.reverse(result);
 		return result;
 	}
 
+	/**
+	 * Returns the scopes from the root to this element, as an unmodifiable list.
+	 */
 	public List<String> generateScopes() {
-		return ScopeListElement.generateScopes(this);
+		List<String> result = scopes;
+		if (result == null) {
+			int depth = 0;
+			List<String> base = null;
+			for (ScopeListElement element = this; element != null; element = element.parent) {
+				List<String> elementScopes = element.scopes;
+				if (elementScopes != null) {
+					base = elementScopes;
+					break;
+				}
+				depth++;
+			}
+			String[] path = base == null ? NO_SCOPES : base.toArray(NO_SCOPES);
+			int baseLength = path.length;
+			path = Arrays.copyOf(path, baseLength + depth);
+			ScopeListElement element = this;
+			for (int i = path.length - 1; i >= baseLength; i--) {
+				path[i] = element.scope;
+				element = element.parent;
+			}
+			result = Collections.unmodifiableList(Arrays.asList(path));
+			scopes = result;
+		}
+		return result;
 	}
 }
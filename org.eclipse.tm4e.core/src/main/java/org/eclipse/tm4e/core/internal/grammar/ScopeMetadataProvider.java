@@ -17,6 +17,7 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -37,7 +38,7 @@ public class ScopeMetadataProvider {
 	private final int initialLanguage;
 	private final IThemeProvider themeProvider;
 	private final Map<String, ScopeMetadata> cache;
-	private ScopeMetadata defaultMetaData;
+	private volatile ScopeMetadata defaultMetaData;
 	private final Map<String, Integer> embeddedLanguages;
 	private Pattern embeddedLanguagesRegex;
 
@@ -45,7 +46,7 @@ public ScopeMetadataProvider(int initialLanguage, IThemeProvider themeProvider,
 			Map<String, Integer> embeddedLanguages) {
 		this.initialLanguage = initialLanguage;
 		this.themeProvider = themeProvider;
-		this.cache = new HashMap<>();
+		this.cache = new ConcurrentHashMap<>();
 		this.onDidChangeTheme();
 
 		// embeddedLanguages handling
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of the scope names of the grammars of a registry, interned to int ids, so that the scopes of a
+ * {@link ScopeListElement} can be compared and cached as ids. The space-separated names of a rule (e.g.
+ * "meta.tag string.quoted") are split once and cached as the ids of their scopes.
+ * <p>
+ * Only the names of the rules are interned, when the rules are registered (see {@link Grammar#registerRule}): a name
+ * resolved from the captures of a match (e.g. "entity.name.tag.$1") is not, so that the table does not grow with the
+ * tokenized text. Its scopes which are in the table keep their id.
+ * </p>
+ * <p>
+ * The table is shared by the threads tokenizing with the grammars of the registry: the ids are read without lock and
+ * only the creation of a new id is synchronized.
+ * </p>
+ */
+public final class ScopeNames {
+
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	private final Map<String, int[]> splits = new ConcurrentHashMap<>();
+
+	/**
+	 * The scope name of each id, replaced when it grows: the name of an id is set before the id is published in
+	 * {@link #ids}.
+	 */
+	private volatile String[] names = new String[256];
+	private int size;
+
+	/**
+	 * Returns the id of the given scope name, creating it if needed.
+	 */
+	public int getId(String scope) {
+		Integer id = ids.get(scope);
+		if (id != null) {
+			return id;
+		}
+		synchronized (this) {
+			id = ids.get(scope);
+			if (id != null) {
+				return id;
+			}
+			String[] currentNames = names;
+			if (size == currentNames.length) {
+				currentNames = Arrays.copyOf(currentNames, size * 2);
+			}
+			currentNames[size] = scope;
+			names = currentNames;
+			ids.put(scope, size);
+			return size++;
+		}
+	}
+
+	/**
+	 * Returns the id of the given scope name, -1 if it is not in the table.
+	 */
+	public int findId(String scope) {
+		Integer id = ids.get(scope);
+		return id != null ? id : -1;
+	}
+
+	/**
+	 * Returns the scope name of the given id, the same instance for each id.
+	 */
+	public String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Returns the ids of the scopes of the given space-separated scope names, in order, interning them.
+	 */
+	public int[] split(String scopes) {
+		int[] result = splits.get(scopes);
+		if (result == null) {
+			String[] parts = splitNames(scopes);
+			result = new int[parts.length];
+			for (int i = 0; i < parts.length; i++) {
+				result[i] = getId(parts[i]);
+			}
+			splits.put(scopes, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the ids of the scopes of the given space-separated scope names if they were split by
+	 * {@link #split(String)}, null otherwise.
+	 */
+	public int[] getSplit(String scopes) {
+		return splits.get(scopes);
+	}
+
+	/**
+	 * Returns the scope names of the given space-separated scope names, in order.
+	 */
+	public static String[] splitNames(String scopes) {
+		return scopes.indexOf(' ') < 0 ? new String[] { scopes } : scopes.split(" ");
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+}
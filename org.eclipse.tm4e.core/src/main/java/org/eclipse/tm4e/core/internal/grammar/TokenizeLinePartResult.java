@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import org.eclipse.tm4e.core.grammar.IToken;
+import org.eclipse.tm4e.core.grammar.ITokenizeLinePartResult;
+import org.eclipse.tm4e.core.grammar.StackElement;
+
+/**
+ * 
+ * Result of the tokenization of a part of a line, with the continuation to resume it if it paused.
+ *
+ */
+final class TokenizeLinePartResult extends TokenizeLineResult implements ITokenizeLinePartResult {
+
+	private final Grammar grammar;
+	private final LineContinuation continuation;
+	private final int stopOffset;
+
+	TokenizeLinePartResult(Grammar grammar, IToken[] tokens, StackElement ruleStack, boolean stoppedEarly,
+			LineContinuation continuation, int stopOffset) {
+		super(tokens, ruleStack, stoppedEarly);
+		this.grammar = grammar;
+		this.continuation = continuation;
+		this.stopOffset = stopOffset;
+	}
+
+	@Override
+	public boolean isPaused() {
+		return continuation != null;
+	}
+
+	@Override
+	public int getStopOffset() {
+		return stopOffset;
+	}
+
+	Grammar getGrammar() {
+		return grammar;
+	}
+
+	/**
+	 * Returns the continuation of the line, null if it is tokenized up to its end.
+	 */
+	LineContinuation getContinuation() {
+		return continuation;
+	}
+
+}
@@ -29,10 +29,16 @@ public class TokenizeLineResult implements ITokenizeLineResult {
 
 	private final IToken[] tokens;
 	private final StackElement ruleStack;
+	private final boolean stoppedEarly;
 
 	public TokenizeLineResult(IToken[] tokens, StackElement ruleStack) {
+		this(tokens, ruleStack, false);
+	}
+
+	public TokenizeLineResult(IToken[] tokens, StackElement ruleStack, boolean stoppedEarly) {
 		this.tokens = tokens;
 		this.ruleStack = ruleStack;
+		this.stoppedEarly = stoppedEarly;
 	}
 
 	@Override
@@ -45,4 +51,9 @@ public StackElement getRuleStack() {
 		return ruleStack;
 	}
 
+	@Override
+	public boolean isStoppedEarly() {
+		return stoppedEarly;
+	}
+
 }
@@ -28,10 +28,16 @@ public class TokenizeLineResult2 implements ITokenizeLineResult2 {
 
 	private final int[] tokens;
 	private final StackElement ruleStack;
+	private final boolean stoppedEarly;
 
 	public TokenizeLineResult2(int[] tokens, StackElement ruleStack) {
+		this(tokens, ruleStack, false);
+	}
+
+	public TokenizeLineResult2(int[] tokens, StackElement ruleStack, boolean stoppedEarly) {
 		this.tokens = tokens;
 		this.ruleStack = ruleStack;
+		this.stoppedEarly = stoppedEarly;
 	}
 
 	@Override
@@ -44,4 +50,9 @@ public StackElement getRuleStack() {
 		return ruleStack;
 	}
 
+	@Override
+	public boolean isStoppedEarly() {
+		return stoppedEarly;
+	}
+
 }
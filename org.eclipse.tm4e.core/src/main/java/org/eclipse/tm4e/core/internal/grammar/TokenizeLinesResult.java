@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import org.eclipse.tm4e.core.grammar.ITokenizeLinesResult;
+import org.eclipse.tm4e.core.grammar.StackElement;
+
+/**
+ * Result of the tokenization of several lines implementation.
+ *
+ */
+public class TokenizeLinesResult implements ITokenizeLinesResult {
+
+	private final int[] tokens;
+	private final int[] lineStartTokens;
+	private final int lineCount;
+	private final StackElement[] lineEndStates;
+	private final StackElement ruleStack;
+
+	/**
+	 * @param tokens
+	 *            the tokens, up to the offset 2 * lineStartTokens[lineCount].
+	 * @param lineStartTokens
+	 *            the first token of each line, followed by the token count.
+	 * @param lineEndStates
+	 *            the kept end states by line, or null if no state is kept.
+	 */
+	public TokenizeLinesResult(int[] tokens, int[] lineStartTokens, int lineCount, StackElement[] lineEndStates,
+			StackElement ruleStack) {
+		this.tokens = tokens;
+		this.lineStartTokens = lineStartTokens;
+		this.lineCount = lineCount;
+		this.lineEndStates = lineEndStates;
+		this.ruleStack = ruleStack;
+	}
+
+	@Override
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	@Override
+	public int getTokenCount() {
+		return lineStartTokens[lineCount];
+	}
+
+	@Override
+	public int[] getTokens() {
+		return tokens;
+	}
+
+	@Override
+	public int getLineStartToken(int line) {
+		if (line < 0 || line > lineCount) {
+			throw new IndexOutOfBoundsException("line " + line + " of " + lineCount);
+		}
+		return lineStartTokens[line];
+	}
+
+	@Override
+	public StackElement getLineEndState(int line) {
+		if (line < 0 || line >= lineCount) {
+			throw new IndexOutOfBoundsException("line " + line + " of " + lineCount);
+		}
+		if (line == lineCount - 1) {
+			return ruleStack;
+		}
+		return lineEndStates != null ? lineEndStates[line] : null;
+	}
+
+	@Override
+	public StackElement getRuleStack() {
+		return ruleStack;
+	}
+
+}
@@ -28,7 +28,9 @@
 import org.eclipse.tm4e.core.grammar.IGrammar;
 import org.eclipse.tm4e.core.grammar.IGrammarRepository;
 import org.eclipse.tm4e.core.internal.grammar.Grammar;
+import org.eclipse.tm4e.core.internal.grammar.ScopeNames;
 import org.eclipse.tm4e.core.internal.grammar.parser.Raw;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScannerOptions;
 import org.eclipse.tm4e.core.internal.types.IRawGrammar;
 import org.eclipse.tm4e.core.internal.types.IRawRepository;
 import org.eclipse.tm4e.core.internal.types.IRawRule;
@@ -42,9 +44,16 @@ public class SyncRegistry implements IGrammarRepository, IThemeProvider {
 	private final Map<String, IRawGrammar> rawGrammars;
 	private final Map<String, Collection<String>> injectionGrammars;
 	private Theme theme;
+	private final OnigScannerOptions scannerOptions;
+	private final ScopeNames scopeNames = new ScopeNames();
 
 	public SyncRegistry(Theme theme) {
+		this(theme, OnigScannerOptions.DEFAULT);
+	}
+
+	public SyncRegistry(Theme theme, OnigScannerOptions scannerOptions) {
 		this.theme = theme;
+		this.scannerOptions = scannerOptions;
 		this.grammars = new HashMap<>();
 		this.rawGrammars = new HashMap<>();
 		this.injectionGrammars = new HashMap<>();
@@ -111,7 +120,8 @@ public IGrammar grammarForScopeName(String scopeName, int initialLanguage,
 				return null;
 			}
 			this.grammars.put(scopeName,
-					GrammarHelper.createGrammar(rawGrammar, initialLanguage, embeddedLanguages, this, this));
+					GrammarHelper.createGrammar(rawGrammar, initialLanguage, embeddedLanguages, this, this,
+							scannerOptions, scopeNames));
 		}
 		return this.grammars.get(scopeName);
 	}
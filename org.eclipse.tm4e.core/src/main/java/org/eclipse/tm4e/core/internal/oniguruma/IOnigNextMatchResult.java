@@ -22,4 +22,21 @@ public interface IOnigNextMatchResult {
 	int getIndex();
 
 	IOnigCaptureIndex[] getCaptureIndices();
+
+	/**
+	 * Returns the number of captures of the match, the whole match being the capture 0.
+	 */
+	int getCaptureCount();
+
+	/**
+	 * Returns the (UTF-16) start offsets of the captures. Only the first {@link #getCaptureCount()} entries are
+	 * meaningful.
+	 */
+	int[] getCaptureStarts();
+
+	/**
+	 * Returns the (UTF-16) end offsets of the captures. Only the first {@link #getCaptureCount()} entries are
+	 * meaningful.
+	 */
+	int[] getCaptureEnds();
 }
@@ -0,0 +1,24 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+/**
+ * Searches the best match of the regexps of an {@link OnigScanner}: the match with the lowest location and, for
+ * matches at the same location, the match of the regexp with the lowest index.
+ */
+interface IOnigSearcher {
+
+	/**
+	 * Returns the best match starting at or after the given (UTF-16) offset and null if no regexp matches.
+	 */
+	OnigResult search(OnigString source, int charOffset);
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+import java.util.Arrays;
+
+import org.joni.Matcher;
+import org.joni.Region;
+
+/**
+ * The last search of each compiled regex on a string, shared by all the regexps compiled to the same regex (see
+ * {@link OnigRegExpCache.CompiledRegex}): the same regexp is often in several scanners, e.g. a begin regexp included
+ * by several rules, and each of them searches the line again from the same or a later position.
+ * <p>
+ * A search from a position finds the first match starting at or after it, so it answers the searches from later
+ * positions up to the match location, and a search without match answers the searches from later positions with a
+ * smaller range. The results of the regexps using \G depend on the search start, they are not memoized.
+ * </p>
+ */
+final class OnigMatchMemo {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * Open addressing table of the searches by regex id, 0 for an empty slot.
+	 */
+	private int[] ids = new int[INITIAL_CAPACITY];
+	private int[] positions = new int[INITIAL_CAPACITY];
+	private int[] ranges = new int[INITIAL_CAPACITY];
+
+	/**
+	 * The match bounds, -1 if no match was found.
+	 */
+	private int[] begins = new int[INITIAL_CAPACITY];
+	private int[] ends = new int[INITIAL_CAPACITY];
+
+	/**
+	 * The captures of the match, null for a regex without groups.
+	 */
+	private Region[] regions = new Region[INITIAL_CAPACITY];
+	private boolean[] hasRegions = new boolean[INITIAL_CAPACITY];
+
+	private int size;
+
+	void clear() {
+		if (size > 0) {
+			Arrays.fill(ids, 0);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Returns the slot of the search of the given regex answering a search from the given position with the given
+	 * range, or -1 if there is none.
+	 */
+	int find(int id, int position, int range) {
+		int slot = slot(id);
+		if (ids[slot] != id || positions[slot] > position) {
+			return -1;
+		}
+		int begin = begins[slot];
+		return (begin >= 0 ? begin >= position : range <= ranges[slot]) ? slot : -1;
+	}
+
+	boolean isMatch(int slot) {
+		return begins[slot] >= 0;
+	}
+
+	/**
+	 * Fills the given result with the match of the given slot, copying its captures to the given region since the
+	 * slot is overwritten by the next search of the same regex.
+	 *
+	 * @return the region holding the captures, the given one if it has the right size, or null for a regex without
+	 *         groups.
+	 */
+	Region load(int slot, OnigResult result, Region region) {
+		if (!hasRegions[slot]) {
+			result.reset((Region) null, begins[slot], ends[slot]);
+			return region;
+		}
+		region = copy(regions[slot], region);
+		result.reset(region, begins[slot], ends[slot]);
+		return region;
+	}
+
+	/**
+	 * Stores the search of the given regex from the given position, with the last match of the given matcher or
+	 * without match if it is null.
+	 */
+	void store(int id, int position, int range, Matcher matcher) {
+		if (2 * (size + 1) > ids.length) {
+			grow();
+		}
+		int slot = slot(id);
+		if (ids[slot] != id) {
+			ids[slot] = id;
+			size++;
+		}
+		positions[slot] = position;
+		ranges[slot] = range;
+		if (matcher == null) {
+			begins[slot] = -1;
+			return;
+		}
+		begins[slot] = matcher.getBegin();
+		ends[slot] = matcher.getEnd();
+		Region region = matcher.getRegion();
+		hasRegions[slot] = region != null;
+		if (region != null) {
+			regions[slot] = copy(region, regions[slot]);
+		}
+	}
+
+	private static Region copy(Region region, Region target) {
+		if (target == null || target.numRegs != region.numRegs) {
+			return region.clone();
+		}
+		System.arraycopy(region.beg, 0, target.beg, 0, region.numRegs);
+		System.arraycopy(region.end, 0, target.end, 0, region.numRegs);
+		return target;
+	}
+
+	private int slot(int id) {
+		int mask = ids.length - 1;
+		int slot = (id * 0x9E3779B9) >>> 7 & mask;
+		while (ids[slot] != 0 && ids[slot] != id) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void grow() {
+		int[] oldIds = ids;
+		int[] oldPositions = positions;
+		int[] oldRanges = ranges;
+		int[] oldBegins = begins;
+		int[] oldEnds = ends;
+		Region[] oldRegions = regions;
+		boolean[] oldHasRegions = hasRegions;
+		int capacity = oldIds.length * 2;
+		ids = new int[capacity];
+		positions = new int[capacity];
+		ranges = new int[capacity];
+		begins = new int[capacity];
+		ends = new int[capacity];
+		regions = new Region[capacity];
+		hasRegions = new boolean[capacity];
+		for (int i = 0; i < oldIds.length; i++) {
+			if (oldIds[i] != 0) {
+				int slot = slot(oldIds[i]);
+				ids[slot] = oldIds[i];
+				positions[slot] = oldPositions[i];
+				ranges[slot] = oldRanges[i];
+				begins[slot] = oldBegins[i];
+				ends[slot] = oldEnds[i];
+				regions[slot] = oldRegions[i];
+				hasRegions[slot] = oldHasRegions[i];
+			}
+		}
+	}
+}
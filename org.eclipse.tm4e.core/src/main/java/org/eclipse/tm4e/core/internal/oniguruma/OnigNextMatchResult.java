@@ -16,15 +16,55 @@
  */
 package org.eclipse.tm4e.core.internal.oniguruma;
 
-class OnigNextMatchResult implements IOnigNextMatchResult {
+import java.util.Arrays;
 
-	private final int index;
+/**
+ * Result of {@link OnigScanner#findNextMatchSync}. The capture offsets are stored in primitive arrays which are
+ * reused when the same instance is filled again with
+ * {@link OnigScanner#findNextMatchSync(OnigString, int, OnigNextMatchResult)}, and so are the capture indices: the
+ * array returned by {@link #getCaptureIndices()} is only valid until then.
+ */
+public class OnigNextMatchResult implements IOnigNextMatchResult {
+
+	private static final int[] EMPTY = new int[0];
+
+	private int index;
+	private int captureCount;
+	private int[] captureStarts = EMPTY;
+	private int[] captureEnds = EMPTY;
 
-	private final IOnigCaptureIndex[] captureIndices;
+	/**
+	 * Created on demand from the capture offsets.
+	 */
+	private IOnigCaptureIndex[] captureIndices;
+
+	/**
+	 * The capture indices created so far, by capture count, filled again by {@link #getCaptureIndices()}.
+	 */
+	private OnigCaptureIndex[][] captureIndicesByCount;
+
+	public OnigNextMatchResult() {
+	}
 
 	public OnigNextMatchResult(OnigResult result, OnigString source) {
+		set(result, source);
+	}
+
+	void set(OnigResult result, OnigString source) {
 		this.index = result.getIndex();
-		this.captureIndices = captureIndicesForMatch(result, source);
+		int resultCount = result.count();
+		if (captureStarts.length < resultCount) {
+			captureStarts = new int[resultCount];
+			captureEnds = new int[resultCount];
+		}
+		for (int i = 0; i < resultCount; i++) {
+			int captureStart = source.getCharOffset(result.locationAt(i));
+			int captureEnd = source.getCharOffset(result.locationAt(i) + result.lengthAt(i));
+			captureStarts[i] = captureStart >= 0 ? captureStart : 0;
+			captureEnds[i] = captureEnd >= 0 ? captureEnd : 0;
+		}
+		this.captureCount = resultCount;
+		this.captureIndices = null;
 	}
 
 	@Override
@@ -34,9 +74,42 @@ public int getIndex() {
 
 	@Override
 	public IOnigCaptureIndex[] getCaptureIndices() {
+		if (captureIndices == null) {
+			if (captureIndicesByCount == null || captureIndicesByCount.length <= captureCount) {
+				captureIndicesByCount = captureIndicesByCount == null ? new OnigCaptureIndex[captureCount + 1][]
+						: Arrays.copyOf(captureIndicesByCount, captureCount + 1);
+			}
+			OnigCaptureIndex[] captures = captureIndicesByCount[captureCount];
+			if (captures == null) {
+				captures = new OnigCaptureIndex[captureCount];
+				for (int i = 0; i < captureCount; i++) {
+					captures[i] = new OnigCaptureIndex(i);
+				}
+				captureIndicesByCount[captureCount] = captures;
+			}
+			for (int i = 0; i < captureCount; i++) {
+				captures[i].set(captureStarts[i], captureEnds[i]);
+			}
+			captureIndices = captures;
+		}
 		return captureIndices;
 	}
 
+	@Override
+	public int getCaptureCount() {
+		return captureCount;
+	}
+
+	@Override
+	public int[] getCaptureStarts() {
+		return captureStarts;
+	}
+
+	@Override
+	public int[] getCaptureEnds() {
+		return captureEnds;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder result = new StringBuilder();
@@ -60,25 +133,17 @@ public String toString() {
 		return result.toString();
 	}
 
-	private static IOnigCaptureIndex[] captureIndicesForMatch(OnigResult result, OnigString source) {
-		int resultCount = result.count();
-		IOnigCaptureIndex[] captures = new IOnigCaptureIndex[resultCount];
-		for (int index = 0; index < resultCount; index++) {
-			int captureStart = source.convertUtf8OffsetToUtf16(result.locationAt(index));
-			int captureEnd = source.convertUtf8OffsetToUtf16(result.locationAt(index) + result.lengthAt(index));
-			captures[index] = new OnigCaptureIndex(index, captureStart, captureEnd);
-		}
-		return captures;
-	}
-
 	private static class OnigCaptureIndex implements IOnigCaptureIndex {
 
 		private final int index;
-		private final int start;
-		private final int end;
+		private int start;
+		private int end;
 
-		public OnigCaptureIndex(int index, int start, int end) {
+		public OnigCaptureIndex(int index) {
 			this.index = index;
+		}
+
+		void set(int start, int end) {
 			this.start = start >= 0 ? start : 0;
 			this.end = end >= 0 ? end : 0;
 		}
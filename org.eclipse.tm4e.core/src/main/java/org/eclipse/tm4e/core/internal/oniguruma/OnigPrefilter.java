@@ -0,0 +1,491 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Prefilter of a regexp which must consume a character to match: the set of the possible first UTF-8 bytes of its
+ * matches. A search can then start at the first candidate byte of the line, or be skipped when the rest of the line
+ * contains no candidate byte.
+ * <p>
+ * The analysis only looks at the leading atoms (literal, escape, character class or group) of each alternative, up to
+ * the first one which can't be skipped, and gives up as soon as it can't prove anything: regexps which can match an
+ * empty string, start with '.', use
+ * inline options (e.g. case insensitive), comments or \G (which depends on the search start).
+ * </p>
+ */
+final class OnigPrefilter {
+
+	private final boolean[] firstBytes;
+
+	/**
+	 * True if a match can start with a non-ASCII char.
+	 */
+	private final boolean nonAscii;
+
+	private OnigPrefilter(boolean[] firstBytes) {
+		this.firstBytes = firstBytes;
+		boolean hasNonAscii = false;
+		for (int b = 0x80; b < 256; b++) {
+			hasNonAscii |= firstBytes[b];
+		}
+		this.nonAscii = hasNonAscii;
+	}
+
+	/**
+	 * Returns the prefilter of the given regexp, or null if its first bytes can't be computed.
+	 */
+	static OnigPrefilter create(String regexp) {
+		if (hasUnsupportedConstructs(regexp)) {
+			return null;
+		}
+		boolean[] firstBytes = new boolean[256];
+		Parser parser = new Parser(regexp);
+		if (!parser.alternation(firstBytes) || parser.pos != regexp.length()) {
+			return null;
+		}
+		return new OnigPrefilter(firstBytes);
+	}
+
+	/**
+	 * Returns the position of the first candidate byte at or after the given position, or -1 if there is none.
+	 */
+	int find(byte[] data, int position, int end) {
+		for (int i = position; i < end; i++) {
+			if (firstBytes[data[i] & 0xFF]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Same as {@link #find(byte[], int, int)} for UTF-16LE bytes: ASCII chars are checked as UTF-8 bytes, and all the
+	 * non-ASCII chars are candidates if a match can start with a non-ASCII char.
+	 */
+	int findUtf16(byte[] data, int position, int end) {
+		for (int i = position; i + 1 < end; i += 2) {
+			if (data[i + 1] != 0 || data[i] < 0 ? nonAscii : firstBytes[data[i]]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Inline options apply until the end of the enclosing group, other alternatives included, \G depends on the search
+	 * start and comments may contain unbalanced parenthesis, so they make the whole regexp unsupported.
+	 */
+	private static boolean hasUnsupportedConstructs(String regexp) {
+		int len = regexp.length();
+		for (int pos = 0; pos < len - 1; pos++) {
+			char ch = regexp.charAt(pos);
+			if (ch == '\\') {
+				if (regexp.charAt(pos + 1) == 'G') {
+					return true;
+				}
+				pos++;
+			} else if (ch == '(' && regexp.charAt(pos + 1) == '?' && pos + 2 < len) {
+				char kind = regexp.charAt(pos + 2);
+				if (Character.isLetter(kind) || kind == '-' || kind == '#') {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static final class Parser {
+
+		private final String regexp;
+		private int pos;
+
+		Parser(String regexp) {
+			this.regexp = regexp;
+		}
+
+		/**
+		 * Adds the first bytes of the alternatives starting at the current position, up to the closing parenthesis of
+		 * the group or the end of the regexp, and returns false if one of the alternatives is unknown.
+		 */
+		boolean alternation(boolean[] firstBytes) {
+			while (true) {
+				if (!sequence(firstBytes)) {
+					return false;
+				}
+				skipToAlternativeEnd();
+				if (pos < regexp.length() && regexp.charAt(pos) == '|') {
+					pos++;
+				} else {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Adds the first bytes of the first mandatory atom of the alternative, skipping zero-width assertions.
+		 */
+		private boolean sequence(boolean[] firstBytes) {
+			while (pos < regexp.length()) {
+				char ch = regexp.charAt(pos);
+				switch (ch) {
+				case '|':
+				case ')':
+					// the alternative can match an empty string
+					return false;
+				case '^':
+				case '$':
+					pos++;
+					continue;
+				case '\\':
+					if (pos + 1 < regexp.length() && "bBAzZ".indexOf(regexp.charAt(pos + 1)) != -1) {
+						pos += 2;
+						continue;
+					}
+					break;
+				case '(':
+					if (regexp.startsWith("(?=", pos) || regexp.startsWith("(?!", pos)
+							|| regexp.startsWith("(?<=", pos) || regexp.startsWith("(?<!", pos)) {
+						if (!skipGroup()) {
+							return false;
+						}
+						continue;
+					}
+					break;
+				default:
+					break;
+				}
+				boolean[] atomBytes = new boolean[256];
+				if (!atom(atomBytes)) {
+					return false;
+				}
+				for (int i = 0; i < 256; i++) {
+					firstBytes[i] |= atomBytes[i];
+				}
+				if (!skipOptionalQuantifier()) {
+					return true;
+				}
+				// the atom can be skipped, so the match can start with the next atom as well
+			}
+			return false;
+		}
+
+		private boolean atom(boolean[] firstBytes) {
+			int codePoint = regexp.codePointAt(pos);
+			switch (codePoint) {
+			case '(':
+				if (regexp.startsWith("(?:", pos) || regexp.startsWith("(?>", pos)) {
+					pos += 3;
+				} else if (regexp.startsWith("(?<", pos)) {
+					// named group
+					int end = regexp.indexOf('>', pos);
+					if (end == -1) {
+						return false;
+					}
+					pos = end + 1;
+				} else if (regexp.startsWith("(?", pos)) {
+					return false;
+				} else {
+					pos++;
+				}
+				if (!alternation(firstBytes) || pos >= regexp.length()) {
+					return false;
+				}
+				pos++;
+				return true;
+			case '[':
+				return characterClass(firstBytes);
+			case '\\':
+				if (pos + 1 >= regexp.length()) {
+					return false;
+				}
+				pos++;
+				return escape(regexp.codePointAt(pos), firstBytes);
+			case '.':
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+				return false;
+			default:
+				addCodePoint(codePoint, firstBytes);
+				pos += Character.charCount(codePoint);
+				return true;
+			}
+		}
+
+		/**
+		 * Adds the first bytes of the escape whose code point is at the current position, and returns false if the
+		 * escape is unknown (back-reference, hexadecimal code, Unicode property...).
+		 */
+		private boolean escape(int codePoint, boolean[] firstBytes) {
+			pos += Character.charCount(codePoint);
+			switch (codePoint) {
+			case 'd':
+				// digits are Unicode aware, like words and spaces
+				addRange('0', '9', firstBytes);
+				addNonAscii(firstBytes);
+				return true;
+			case 'w':
+				addRange('a', 'z', firstBytes);
+				addRange('A', 'Z', firstBytes);
+				addRange('0', '9', firstBytes);
+				firstBytes['_'] = true;
+				addNonAscii(firstBytes);
+				return true;
+			case 's':
+				addRange('\t', '\r', firstBytes);
+				firstBytes[' '] = true;
+				addNonAscii(firstBytes);
+				return true;
+			case 't':
+				firstBytes['\t'] = true;
+				return true;
+			case 'n':
+				firstBytes['\n'] = true;
+				return true;
+			case 'r':
+				firstBytes['\r'] = true;
+				return true;
+			case 'f':
+				firstBytes['\f'] = true;
+				return true;
+			case 'v':
+				firstBytes[0x0B] = true;
+				return true;
+			case 'e':
+				firstBytes[0x1B] = true;
+				return true;
+			case 'a':
+				firstBytes[0x07] = true;
+				return true;
+			default:
+				if (Character.isLetterOrDigit(codePoint)) {
+					return false;
+				}
+				addCodePoint(codePoint, firstBytes);
+				return true;
+			}
+		}
+
+		private boolean characterClass(boolean[] firstBytes) {
+			pos++;
+			if (pos < regexp.length() && regexp.charAt(pos) == '^') {
+				return false;
+			}
+			boolean first = true;
+			while (pos < regexp.length()) {
+				int codePoint = regexp.codePointAt(pos);
+				if (codePoint == ']' && !first) {
+					pos++;
+					return true;
+				}
+				first = false;
+				if (codePoint == '[') {
+					if (!posixBracket(firstBytes)) {
+						return false;
+					}
+					continue;
+				}
+				if (regexp.startsWith("&&", pos)) {
+					// intersection
+					return false;
+				}
+				int low;
+				if (codePoint == '\\') {
+					if (pos + 1 >= regexp.length()) {
+						return false;
+					}
+					pos++;
+					int escaped = regexp.codePointAt(pos);
+					if (Character.isLetterOrDigit(escaped)) {
+						if (!escape(escaped, firstBytes)) {
+							return false;
+						}
+						continue;
+					}
+					low = escaped;
+				} else {
+					low = codePoint;
+				}
+				pos += Character.charCount(low);
+				if (pos + 1 < regexp.length() && regexp.charAt(pos) == '-' && regexp.charAt(pos + 1) != ']') {
+					pos++;
+					int high = regexp.codePointAt(pos);
+					if (high == '\\' || high == '[') {
+						return false;
+					}
+					pos += Character.charCount(high);
+					addRange(low, high, firstBytes);
+				} else {
+					addCodePoint(low, firstBytes);
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Adds the first bytes of the POSIX bracket (e.g. [:alpha:]) at the current position, and returns false if it
+		 * is not a known POSIX bracket (nested class, negated bracket...).
+		 */
+		private boolean posixBracket(boolean[] firstBytes) {
+			int end = regexp.indexOf(":]", pos);
+			if (!regexp.startsWith("[:", pos) || end == -1) {
+				return false;
+			}
+			String name = regexp.substring(pos + 2, end);
+			switch (name) {
+			case "alpha":
+				addRange('a', 'z', firstBytes);
+				addRange('A', 'Z', firstBytes);
+				break;
+			case "alnum":
+				addRange('a', 'z', firstBytes);
+				addRange('A', 'Z', firstBytes);
+				addRange('0', '9', firstBytes);
+				break;
+			case "digit":
+				addRange('0', '9', firstBytes);
+				break;
+			case "upper":
+				addRange('A', 'Z', firstBytes);
+				break;
+			case "lower":
+				addRange('a', 'z', firstBytes);
+				break;
+			case "space":
+				addRange('\t', '\r', firstBytes);
+				firstBytes[' '] = true;
+				break;
+			case "word":
+				addRange('a', 'z', firstBytes);
+				addRange('A', 'Z', firstBytes);
+				addRange('0', '9', firstBytes);
+				firstBytes['_'] = true;
+				break;
+			default:
+				return false;
+			}
+			// POSIX brackets are Unicode aware
+			addNonAscii(firstBytes);
+			pos = end + 2;
+			return true;
+		}
+
+		/**
+		 * Skips the quantifier following the atom which has just been parsed and returns true if it allows zero
+		 * repetition, otherwise leaves the position unchanged and returns false.
+		 */
+		private boolean skipOptionalQuantifier() {
+			if (pos >= regexp.length()) {
+				return false;
+			}
+			char ch = regexp.charAt(pos);
+			if (ch == '?' || ch == '*') {
+				pos++;
+			} else if (ch == '{' && pos + 1 < regexp.length()
+					&& (regexp.charAt(pos + 1) == ',' || regexp.charAt(pos + 1) == '0')) {
+				int end = regexp.indexOf('}', pos);
+				if (end == -1) {
+					return false;
+				}
+				pos = end + 1;
+			} else {
+				return false;
+			}
+			// lazy or possessive quantifier
+			if (pos < regexp.length() && (regexp.charAt(pos) == '?' || regexp.charAt(pos) == '+')) {
+				pos++;
+			}
+			return true;
+		}
+
+		/**
+		 * Skips the group starting at the current position, and returns false if it is not closed.
+		 */
+		private boolean skipGroup() {
+			pos++;
+			skipToAlternativeEnd();
+			while (pos < regexp.length() && regexp.charAt(pos) == '|') {
+				pos++;
+				skipToAlternativeEnd();
+			}
+			if (pos >= regexp.length()) {
+				return false;
+			}
+			pos++;
+			return true;
+		}
+
+		/**
+		 * Moves to the next '|' or ')' of the current group, or to the end of the regexp.
+		 */
+		private void skipToAlternativeEnd() {
+			int depth = 0;
+			int classDepth = 0;
+			while (pos < regexp.length()) {
+				char ch = regexp.charAt(pos);
+				if (ch == '\\') {
+					pos += 2;
+					continue;
+				}
+				if (classDepth > 0) {
+					if (ch == '[') {
+						classDepth++;
+					} else if (ch == ']') {
+						classDepth--;
+					}
+				} else if (ch == '[') {
+					classDepth = 1;
+					// ']' is a literal when it is the first character of the class
+					if (regexp.startsWith("[^]", pos)) {
+						pos += 2;
+					} else if (regexp.startsWith("[]", pos)) {
+						pos++;
+					}
+				} else if (ch == '(') {
+					depth++;
+				} else if (ch == ')' || ch == '|') {
+					if (depth == 0) {
+						return;
+					}
+					if (ch == ')') {
+						depth--;
+					}
+				}
+				pos++;
+			}
+			pos = regexp.length();
+		}
+
+		private static void addRange(int low, int high, boolean[] firstBytes) {
+			for (int codePoint = low; codePoint <= Math.min(high, 0x7F); codePoint++) {
+				firstBytes[codePoint] = true;
+			}
+			if (high > 0x7F) {
+				addNonAscii(firstBytes);
+			}
+		}
+
+		private static void addNonAscii(boolean[] firstBytes) {
+			for (int b = 0xC2; b <= 0xF4; b++) {
+				firstBytes[b] = true;
+			}
+		}
+
+		private static void addCodePoint(int codePoint, boolean[] firstBytes) {
+			byte[] bytes = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+			firstBytes[bytes[0] & 0xFF] = true;
+		}
+	}
+}
@@ -19,15 +19,9 @@
 
 package org.eclipse.tm4e.core.internal.oniguruma;
 
-import java.nio.charset.StandardCharsets;
-
-import org.jcodings.specific.UTF8Encoding;
 import org.joni.Matcher;
 import org.joni.Option;
-import org.joni.Regex;
 import org.joni.Region;
-import org.joni.Syntax;
-import org.joni.WarnCallback;
 
 /**
  *
@@ -38,36 +32,199 @@ public class OnigRegExp {
 
 	private OnigString lastSearchString;
 	private int lastSearchPosition;
+	private int lastSearchRange;
 	private OnigResult lastSearchResult;
-	private final Regex regex;
+
+	private final String source;
+	private final boolean utf16;
+
+	/**
+	 * The compiled regex, shared by the regexps with the same source (see {@link OnigRegExpCache}), null until the
+	 * first search with lazy compilation. It may be set by a background thread, see {@link #precompile()}.
+	 */
+	private volatile OnigRegExpCache.CompiledRegex compiled;
+
+	/**
+	 * The possible first bytes of a match, null if they are unknown.
+	 */
+	private final OnigPrefilter prefilter;
+
+	/**
+	 * \G matches at the start of the search, so the results of a regexp using it depend on the search positions and
+	 * on its cache.
+	 */
+	private final boolean hasGAnchor;
+
+	/**
+	 * The matcher (and with it the joni region) is bound to the bytes of a string, it is reused as long as the same
+	 * string is searched, e.g. for each scan of a line. Another string may be encoded in the same per-thread array, so
+	 * the matcher is bound to the string rather than to the array. The result wrapping it is reused as well, so a
+	 * search does not allocate once the matcher has been created.
+	 */
+	private Matcher matcher;
+	private OnigString matcherString;
+	private final OnigResult result = new OnigResult();
+
+	/**
+	 * The copy of the captures of the last search answered by the match memo of the string (see
+	 * {@link OnigMatchMemo}), and whether the last search was answered by it.
+	 */
+	private Region memoRegion;
+	private boolean lastSearchMemoHit;
 
 	public OnigRegExp(String source) {
+		this(source, false, false);
+	}
+
+	/**
+	 * @param lazyCompilation
+	 *            true to compile the regexp when it is first searched, false to compile it now.
+	 * @param utf16
+	 *            true to match the regexp against strings in UTF-16, false in UTF-8.
+	 */
+	public OnigRegExp(String source, boolean lazyCompilation, boolean utf16) {
 		lastSearchString = null;
 		lastSearchPosition = -1;
 		lastSearchResult = null;
-		byte[] pattern = source.getBytes(StandardCharsets.UTF_8);
-		this.regex = new Regex(pattern, 0, pattern.length, Option.CAPTURE_GROUP, UTF8Encoding.INSTANCE, Syntax.DEFAULT,
-				WarnCallback.DEFAULT);
+		this.source = source;
+		this.utf16 = utf16;
+		if (!lazyCompilation) {
+			this.compiled = compile(source, utf16);
+		}
+		this.prefilter = OnigPrefilter.create(source);
+		this.hasGAnchor = hasGAnchor(source);
+	}
+
+	private static boolean hasGAnchor(String source) {
+		for (int pos = 0; pos < source.length() - 1; pos++) {
+			if (source.charAt(pos) == '\\') {
+				if (source.charAt(pos + 1) == 'G') {
+					return true;
+				}
+				pos++;
+			}
+		}
+		return false;
+	}
+
+	private static OnigRegExpCache.CompiledRegex compile(String source, boolean utf16) {
+		return OnigRegExpCache.getInstance().getCompiled(source, Option.CAPTURE_GROUP, utf16);
+	}
+
+	private OnigRegExpCache.CompiledRegex getCompiled() {
+		OnigRegExpCache.CompiledRegex result = compiled;
+		if (result == null) {
+			result = compile(source, utf16);
+			compiled = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Compiles the regexp if it is not compiled yet. An invalid regexp is ignored here: the error is reported when it
+	 * is searched.
+	 */
+	void precompile() {
+		if (compiled == null) {
+			try {
+				compiled = compile(source, utf16);
+			} catch (RuntimeException e) {
+				// reported by the search
+			}
+		}
+	}
+
+	int numberOfCaptures() {
+		return getCompiled().regex.numberOfCaptures();
+	}
+
+	boolean hasGAnchor() {
+		return hasGAnchor;
 	}
 
 	public OnigResult search(OnigString str, int position) {
-		if (lastSearchString == str && lastSearchPosition <= position &&
-			(lastSearchResult == null || lastSearchResult.locationAt(0) >= position)) {
-			return lastSearchResult;
+		return search(str, position, str.bytesLength);
+	}
+
+	/**
+	 * Returns the first match starting at or after the given position in the bytes of the string, or null if no match
+	 * starts before the given range. The range is exclusive, except when it is the end of the string (a match can
+	 * start at the end of the string, e.g. for '$'). A match starting after the range may be returned.
+	 * <p>
+	 * Regexps using \G ignore the range: they are always searched up to the end of the string, so that their cached
+	 * results stay the same as without range.
+	 * </p>
+	 */
+	OnigResult search(OnigString str, int position, int range) {
+		if (hasGAnchor) {
+			range = str.bytesLength;
+		}
+		lastSearchMemoHit = false;
+		if (lastSearchString == str && lastSearchPosition <= position) {
+			if (lastSearchResult != null ? lastSearchResult.locationAt(0) >= position : range <= lastSearchRange) {
+				return lastSearchResult;
+			}
 		}
 
 		lastSearchString = str;
 		lastSearchPosition = position;
-		lastSearchResult = search(str.utf8_value, position, str.utf8_value.length);
+		lastSearchRange = range;
+		// the same regex may have been searched on this string by another scanner, a regexp which is not compiled yet
+		// (see lazy compilation) is not compiled for the lookup since the prefilter may avoid its compilation
+		OnigRegExpCache.CompiledRegex current = hasGAnchor ? null : compiled;
+		if (current != null) {
+			OnigMatchMemo memo = str.getMatchMemo();
+			int slot = memo.find(current.id, position, range);
+			if (slot != -1) {
+				lastSearchMemoHit = true;
+				if (memo.isMatch(slot)) {
+					memoRegion = memo.load(slot, result, memoRegion);
+					lastSearchResult = result;
+				} else {
+					lastSearchResult = null;
+				}
+				return lastSearchResult;
+			}
+		}
+		int start = position;
+		if (prefilter != null) {
+			// no match can start before the first candidate byte
+			start = utf16 ? prefilter.findUtf16(str.bytes, position, range)
+					: prefilter.find(str.bytes, position, range);
+		}
+		lastSearchResult = start == -1 ? null : searchBytes(str, start, range);
+		if (!hasGAnchor) {
+			current = compiled;
+			if (current != null) {
+				str.getMatchMemo().store(current.id, position, range, lastSearchResult != null ? matcher : null);
+			}
+		}
 		return lastSearchResult;
 	}
 
-	private OnigResult search(byte[] data, int position, int end) {
-		Matcher matcher = regex.matcher(data);
-		int status = matcher.search(position, end, Option.DEFAULT);
+	/**
+	 * Returns true if the last search was answered by the match memo of the string, without searching it.
+	 */
+	boolean isLastSearchMemoHit() {
+		return lastSearchMemoHit;
+	}
+
+	private OnigResult searchBytes(OnigString str, int position, int range) {
+		if (matcherString != str) {
+			matcher = getCompiled().regex.matcher(str.bytes, 0, str.bytesLength);
+			matcherString = str;
+		}
+		int status;
+		try {
+			status = matcher.searchInterruptible(position, range, Option.DEFAULT);
+		} catch (InterruptedException e) {
+			// nothing to cache
+			lastSearchString = null;
+			throw new OnigSearchInterruptedException(source);
+		}
 		if (status != Matcher.FAILED) {
-			Region region = matcher.getEagerRegion();
-			return new OnigResult(region, -1);
+			result.reset(matcher);
+			return result;
 		}
 		return null;
 	}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+import static java.lang.System.Logger.Level.*;
+
+import java.lang.System.Logger;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jcodings.specific.UTF16LEEncoding;
+import org.jcodings.specific.UTF8Encoding;
+import org.joni.Option;
+import org.joni.Regex;
+import org.joni.Syntax;
+import org.joni.WarnCallback;
+
+/**
+ * Process-wide cache of the compiled joni regexes, keyed by pattern, options and encoding (UTF-8 or UTF-16LE).
+ * <p>
+ * The same patterns are compiled many times: for each anchor variant of a rule, and by each grammar including the
+ * same grammar (e.g. source.js and source.css in HTML, Markdown, PHP...). A compiled {@link Regex} is immutable and
+ * can be shared, only its matchers are bound to a search, so identical patterns share one compiled program. The
+ * cache is bounded and evicts the least recently used regexes.
+ * </p>
+ */
+public final class OnigRegExpCache {
+
+	public static final int DEFAULT_MAX_SIZE = 10_000;
+
+	private static final Logger LOGGER = System.getLogger(OnigRegExpCache.class.getName());
+
+	private static final OnigRegExpCache INSTANCE = new OnigRegExpCache(DEFAULT_MAX_SIZE);
+
+	/**
+	 * The last id of a compiled regex, shared by all the caches so that the ids are unique.
+	 */
+	private static final AtomicInteger LAST_ID = new AtomicInteger();
+
+	private static final class Key {
+
+		private final String pattern;
+		private final int options;
+		private final boolean utf16;
+		private final int hashCode;
+
+		Key(String pattern, int options, boolean utf16) {
+			this.pattern = pattern;
+			this.options = options;
+			this.utf16 = utf16;
+			this.hashCode = 31 * (31 * pattern.hashCode() + options) + (utf16 ? 1 : 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return options == other.options && utf16 == other.utf16 && pattern.equals(other.pattern);
+		}
+	}
+
+	/**
+	 * A compiled regex and its id: two regexps with the same id find the same matches, see {@link OnigMatchMemo}. A
+	 * pattern compiled again after its eviction gets a new id.
+	 */
+	static final class CompiledRegex {
+
+		final Regex regex;
+		final int id;
+
+		CompiledRegex(Regex regex, int id) {
+			this.regex = regex;
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Holder of the check of the UTF-16 matching of joni, done when it is first needed.
+	 */
+	private static final class Utf16Support {
+
+		static final boolean SUPPORTED = checkUtf16Support();
+
+		private static boolean checkUtf16Support() {
+			// old joni versions (e.g. 2.1.11) don't match a char class mixing \w and other chars in UTF-16LE
+			byte[] pattern = "[\\w$]".getBytes(StandardCharsets.UTF_16LE);
+			Regex regex = new Regex(pattern, 0, pattern.length, Option.NONE, UTF16LEEncoding.INSTANCE, Syntax.DEFAULT,
+					WarnCallback.DEFAULT);
+			byte[] str = "a".getBytes(StandardCharsets.UTF_16LE);
+			if (regex.matcher(str).search(0, str.length, Option.NONE) == 0) {
+				return true;
+			}
+			LOGGER.log(WARNING, "UTF-16 regexp matching is not supported by this version of joni, UTF-8 is used");
+			return false;
+		}
+	}
+
+	private final Map<Key, CompiledRegex> regexes = new LinkedHashMap<>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, CompiledRegex> eldest) {
+			if (size() > maxSize) {
+				evictionCount++;
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private int maxSize;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	OnigRegExpCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public static OnigRegExpCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns true if joni matches the regexps in UTF-16 like in UTF-8, false for the old versions which find wrong
+	 * matches in UTF-16.
+	 */
+	public static boolean isUtf16Supported() {
+		return Utf16Support.SUPPORTED;
+	}
+
+	/**
+	 * Returns the compiled regex of the given pattern for strings in UTF-16 (see
+	 * {@link OnigString#OnigString(String, boolean)}) or UTF-8 and its id, compiling it if it is not in the cache.
+	 *
+	 * @throws org.joni.exception.JOniException
+	 *             if the pattern is invalid.
+	 */
+	CompiledRegex getCompiled(String pattern, int options, boolean utf16) {
+		Key key = new Key(pattern, options, utf16);
+		synchronized (this) {
+			CompiledRegex compiled = regexes.get(key);
+			if (compiled != null) {
+				hitCount++;
+				return compiled;
+			}
+			missCount++;
+		}
+		// compile outside of the lock, another thread may compile the same pattern meanwhile
+		byte[] bytes = pattern.getBytes(utf16 ? StandardCharsets.UTF_16LE : StandardCharsets.UTF_8);
+		Regex regex = new Regex(bytes, 0, bytes.length, options,
+				utf16 ? UTF16LEEncoding.INSTANCE : UTF8Encoding.INSTANCE, Syntax.DEFAULT, WarnCallback.DEFAULT);
+		synchronized (this) {
+			CompiledRegex cached = regexes.get(key);
+			if (cached != null) {
+				return cached;
+			}
+			CompiledRegex compiled = new CompiledRegex(regex, LAST_ID.incrementAndGet());
+			regexes.put(key, compiled);
+			return compiled;
+		}
+	}
+
+	public synchronized int getSize() {
+		return regexes.size();
+	}
+
+	public synchronized int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Sets the maximum number of cached regexes, evicting the least recently used ones if needed.
+	 */
+	public synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		Iterator<Map.Entry<Key, CompiledRegex>> iterator = regexes.entrySet().iterator();
+		while (regexes.size() > maxSize && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+			evictionCount++;
+		}
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Removes all the cached regexes and resets the statistics.
+	 */
+	public synchronized void clear() {
+		regexes.clear();
+		hitCount = 0;
+		missCount = 0;
+		evictionCount = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "OnigRegExpCache [size=" + regexes.size() + ", maxSize=" + maxSize + ", hits=" + hitCount + ", misses="
+				+ missCount + ", evictions=" + evictionCount + "]";
+	}
+}
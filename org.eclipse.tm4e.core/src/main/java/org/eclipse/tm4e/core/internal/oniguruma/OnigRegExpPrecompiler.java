@@ -0,0 +1,37 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Low priority background thread precompiling the regexps of the scanners created with lazy compilation, so that
+ * they are usually compiled before they are first searched.
+ */
+final class OnigRegExpPrecompiler {
+
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "TextMate regexp precompiler");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+
+	private OnigRegExpPrecompiler() {
+		// methods should be accessed statically
+	}
+
+	static void precompile(OnigSearcher searcher) {
+		EXECUTOR.execute(searcher::precompile);
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.tm4e.core.grammar.IRegExpProfile;
+
+/**
+ * Search statistics of a regexp, updated by the searchers of all the threads tokenizing with the grammar.
+ */
+public final class OnigRegExpProfile implements IRegExpProfile {
+
+	private final int ruleId;
+	private final String regExp;
+	private final LongAdder searchCount = new LongAdder();
+	private final LongAdder matchCount = new LongAdder();
+	private final LongAdder memoHitCount = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public OnigRegExpProfile(int ruleId, String regExp) {
+		this.ruleId = ruleId;
+		this.regExp = regExp;
+	}
+
+	void searched(long nanos) {
+		searchCount.increment();
+		totalNanos.add(nanos);
+		long max;
+		while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+			// retry with the maximum set by another thread
+		}
+	}
+
+	void memoHit() {
+		memoHitCount.increment();
+	}
+
+	void matched() {
+		matchCount.increment();
+	}
+
+	public void reset() {
+		searchCount.reset();
+		matchCount.reset();
+		memoHitCount.reset();
+		totalNanos.reset();
+		maxNanos.set(0);
+	}
+
+	@Override
+	public int getRuleId() {
+		return ruleId;
+	}
+
+	@Override
+	public String getRegExp() {
+		return regExp;
+	}
+
+	@Override
+	public long getSearchCount() {
+		return searchCount.sum();
+	}
+
+	@Override
+	public long getMatchCount() {
+		return matchCount.sum();
+	}
+
+	@Override
+	public long getMemoHitCount() {
+		return memoHitCount.sum();
+	}
+
+	@Override
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	@Override
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		return "OnigRegExpProfile [ruleId=" + ruleId + ", regExp=" + regExp + ", searchCount=" + getSearchCount()
+				+ ", matchCount=" + getMatchCount() + ", memoHitCount=" + getMemoHitCount() + ", totalNanos="
+				+ getTotalNanos() + ", maxNanos=" + getMaxNanos() + "]";
+	}
+}
@@ -17,18 +17,77 @@
 
 package org.eclipse.tm4e.core.internal.oniguruma;
 
+import org.joni.Matcher;
 import org.joni.Region;
 
 public class OnigResult {
 
 	private int indexInScanner;
-	private final Region region;
+	private Region region;
+
+	/**
+	 * Bounds of the match when the regex has no capture group (joni provides no region in that case).
+	 */
+	private int begin;
+	private int end;
+
+	/**
+	 * When this result is the match of one alternative of a union regex (see {@link OnigUnionSearcher}), its
+	 * captures are the groups {@code groupOffset} to {@code groupOffset + groupCount - 1} of the region.
+	 */
+	private int groupOffset;
+	private int groupCount = -1;
 
 	public OnigResult(Region region, int indexInScanner) {
 		this.region = region;
 		this.indexInScanner = indexInScanner;
 	}
 
+	OnigResult() {
+		this(null, -1);
+	}
+
+	/**
+	 * Refills this result with the last successful search of the given matcher without allocating.
+	 */
+	void reset(Matcher matcher) {
+		this.region = matcher.getRegion();
+		this.begin = matcher.getBegin();
+		this.end = matcher.getEnd();
+		this.groupOffset = 0;
+		this.groupCount = -1;
+	}
+
+	/**
+	 * Refills this result with the given captures, or with the given bounds if the regex has no capture group.
+	 */
+	void reset(Region region, int begin, int end) {
+		this.region = region;
+		this.begin = begin;
+		this.end = end;
+		this.groupOffset = 0;
+		this.groupCount = -1;
+	}
+
+	/**
+	 * Refills this result with the captures of one alternative of a union regex, the capture 0 of the alternative
+	 * being the group {@code groupOffset} of the given result.
+	 */
+	void reset(OnigResult unionResult, int groupOffset, int groupCount) {
+		this.region = unionResult.region;
+		this.begin = unionResult.begin;
+		this.end = unionResult.end;
+		this.groupOffset = groupOffset;
+		this.groupCount = groupCount;
+	}
+
+	/**
+	 * Returns the raw (possibly negative if unmatched) start of the given group of the underlying region.
+	 */
+	int groupBegin(int group) {
+		return region != null ? region.beg[group] : begin;
+	}
+
 	public int getIndex() {
 		return indexInScanner;
 	}
@@ -38,7 +97,7 @@ public void setIndex(int index) {
 	}
 
 	public int locationAt(int index) {
-		int bytes = region.beg[index];
+		int bytes = region != null ? region.beg[groupOffset + index] : begin;
 		if (bytes > 0) {
 			return bytes;
 		} else {
@@ -47,11 +106,14 @@ public int locationAt(int index) {
 	}
 
 	public int count() {
-		return region.numRegs;
+		if (region == null) {
+			return 1;
+		}
+		return groupCount >= 0 ? groupCount : region.numRegs;
 	}
 
 	public int lengthAt(int index) {
-		int bytes = region.end[index] - region.beg[index];
+		int bytes = region != null ? region.end[groupOffset + index] - region.beg[groupOffset + index] : end - begin;
 		if (bytes > 0) {
 			return bytes;
 		} else {
@@ -17,22 +17,143 @@
 
 package org.eclipse.tm4e.core.internal.oniguruma;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A scanner may be shared by several threads: the searchers keep the state of their last searches, so the thread
+ * which created the scanner uses the searcher created with it and each other thread creates its own searcher on its
+ * first search. The compiled regexes are shared by all the searchers, see {@link OnigRegExpCache}.
+ * <p>
+ * The searchers of the other threads are kept in a per-thread cache of {@link ThreadSearchers#SIZE} searchers shared
+ * by all the scanners, so that a long-lived thread (e.g. of the common pool) keeps a bounded number of searchers,
+ * whatever the number of scanners it searched.
+ * </p>
+ */
 public class OnigScanner {
 
-	private final OnigSearcher searcher;
+	private static final AtomicLong NEXT_ID = new AtomicLong();
+
+	private static final ThreadLocal<ThreadSearchers> THREAD_SEARCHERS = ThreadLocal.withInitial(ThreadSearchers::new);
+
+	/**
+	 * The searchers of a thread, by scanner id. A scanner uses the slot of its id modulo the size and replaces the
+	 * searcher of the scanner which used it before.
+	 */
+	private static final class ThreadSearchers {
+
+		private static final int SIZE = 256;
+
+		private final long[] scannerIds = new long[SIZE];
+		private final IOnigSearcher[] searchers = new IOnigSearcher[SIZE];
+
+		private IOnigSearcher get(OnigScanner scanner) {
+			int slot = (int) (scanner.id & (SIZE - 1));
+			IOnigSearcher searcher = searchers[slot];
+			if (searcher == null || scannerIds[slot] != scanner.id) {
+				searcher = scanner.createSearcher();
+				scannerIds[slot] = scanner.id;
+				searchers[slot] = searcher;
+			}
+			return searcher;
+		}
+	}
+
+	private final long id = NEXT_ID.getAndIncrement();
+	private final String[] regexps;
+	private final OnigScannerOptions options;
+	private final OnigRegExpProfile[] profiles;
+
+	private final Thread searcherThread;
+	private final IOnigSearcher searcher;
 
 	public OnigScanner(String[] regexps) {
-		this.searcher = new OnigSearcher(regexps);
+		this(regexps, false);
+	}
+
+	/**
+	 * @param union
+	 *            true to search all the regexps at once with a single alternation regex (see
+	 *            {@link OnigUnionSearcher}) when the regexps allow it, false to search them one after the other.
+	 */
+	public OnigScanner(String[] regexps, boolean union) {
+		this(regexps, union ? new OnigScannerOptions(true, false, false, false) : OnigScannerOptions.DEFAULT);
+	}
+
+	public OnigScanner(String[] regexps, OnigScannerOptions options) {
+		this(regexps, options, null);
+	}
+
+	/**
+	 * @param profiles
+	 *            the statistics to update for each regexp, or null to not profile the searches. The regexps of a
+	 *            profiled scanner are searched one after the other, so that each search can be timed.
+	 */
+	public OnigScanner(String[] regexps, OnigScannerOptions options, OnigRegExpProfile[] profiles) {
+		this.regexps = regexps;
+		this.options = options;
+		this.profiles = profiles;
+		this.searcherThread = Thread.currentThread();
+		this.searcher = createSearcher();
+	}
+
+	private IOnigSearcher createSearcher() {
+		// a union search cannot time each regexp, so a profiled scanner searches them one after the other
+		IOnigSearcher unionSearcher = options.unionSearch && profiles == null
+				? OnigUnionSearcher.create(regexps, options.utf16)
+				: null;
+		if (unionSearcher != null) {
+			return unionSearcher;
+		}
+		OnigSearcher onigSearcher = new OnigSearcher(regexps, options.lazyCompilation, options.utf16, profiles);
+		if (options.lazyCompilation && options.backgroundCompilation) {
+			OnigRegExpPrecompiler.precompile(onigSearcher);
+		}
+		return onigSearcher;
+	}
+
+	private IOnigSearcher getSearcher() {
+		return Thread.currentThread() == searcherThread ? searcher : THREAD_SEARCHERS.get().get(this);
+	}
+
+	/**
+	 * Compiles the regexps of the scanner which are not compiled yet, see {@link OnigScannerOptions#lazyCompilation}.
+	 */
+	public void precompile() {
+		IOnigSearcher searcher = getSearcher();
+		if (searcher instanceof OnigSearcher) {
+			((OnigSearcher) searcher).precompile();
+		}
 	}
 
 	public IOnigNextMatchResult findNextMatchSync(OnigString source, int charOffset) {
-		OnigResult bestResult = searcher.search(source, charOffset);
+		OnigResult bestResult = getSearcher().search(source, charOffset);
 		if (bestResult != null) {
+			if (profiles != null) {
+				profiles[bestResult.getIndex()].matched();
+			}
 			return new OnigNextMatchResult(bestResult, source);
 		}
 		return null;
 	}
 
+	/**
+	 * Same as {@link #findNextMatchSync(OnigString, int)} but fills the given result instead of allocating a new
+	 * one, so that a caller reusing its result does not allocate per search.
+	 *
+	 * @return the given result if a match was found and null otherwise.
+	 */
+	public OnigNextMatchResult findNextMatchSync(OnigString source, int charOffset, OnigNextMatchResult result) {
+		OnigResult bestResult = getSearcher().search(source, charOffset);
+		if (bestResult != null) {
+			if (profiles != null) {
+				profiles[bestResult.getIndex()].matched();
+			}
+			result.set(bestResult, source);
+			return result;
+		}
+		return null;
+	}
+
 	public IOnigNextMatchResult findNextMatchSync(String lin, int pos) {
 		return findNextMatchSync(new OnigString(lin), pos);
 	}
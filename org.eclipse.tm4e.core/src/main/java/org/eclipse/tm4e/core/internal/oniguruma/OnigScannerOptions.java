@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+/**
+ * Options of the {@link OnigScanner}s of a grammar.
+ */
+public final class OnigScannerOptions {
+
+	public static final OnigScannerOptions DEFAULT = new OnigScannerOptions(false, false, false, false);
+
+	/**
+	 * True to search all the regexps of a scanner at once with a single alternation regex (see
+	 * {@link OnigUnionSearcher}) when the regexps allow it.
+	 */
+	public final boolean unionSearch;
+
+	/**
+	 * True to compile each regexp when it is first searched instead of when the scanner is created.
+	 */
+	public final boolean lazyCompilation;
+
+	/**
+	 * True to precompile, with lazy compilation, the regexps of a scanner in a low priority background thread.
+	 */
+	public final boolean backgroundCompilation;
+
+	/**
+	 * True to match the regexps against the UTF-16 chars of the lines instead of their UTF-8 bytes, see
+	 * {@link OnigString#OnigString(String, boolean)}.
+	 */
+	public final boolean utf16;
+
+	/**
+	 * True to record the search statistics of each regexp, see {@link OnigRegExpProfile}.
+	 */
+	public final boolean profiling;
+
+	public OnigScannerOptions(boolean unionSearch, boolean lazyCompilation, boolean backgroundCompilation,
+			boolean utf16) {
+		this(unionSearch, lazyCompilation, backgroundCompilation, utf16, false);
+	}
+
+	public OnigScannerOptions(boolean unionSearch, boolean lazyCompilation, boolean backgroundCompilation,
+			boolean utf16, boolean profiling) {
+		this.unionSearch = unionSearch;
+		this.lazyCompilation = lazyCompilation;
+		this.backgroundCompilation = backgroundCompilation;
+		this.utf16 = utf16;
+		this.profiling = profiling;
+	}
+}
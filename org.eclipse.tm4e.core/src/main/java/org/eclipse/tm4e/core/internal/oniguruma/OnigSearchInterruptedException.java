@@ -0,0 +1,25 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+/**
+ * Thrown when the thread searching a regexp is interrupted, e.g. because the time limit of the tokenization of the
+ * line is exceeded. The interrupted status of the thread is cleared when it is thrown.
+ */
+public class OnigSearchInterruptedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public OnigSearchInterruptedException(String pattern) {
+		super("Search of '" + pattern + "' interrupted");
+	}
+}
@@ -17,43 +17,150 @@
 
 package org.eclipse.tm4e.core.internal.oniguruma;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
+public class OnigSearcher implements IOnigSearcher {
 
-public class OnigSearcher {
+	private final OnigRegExp[] regExps;
 
-	private final List<OnigRegExp> regExps;
+	/**
+	 * The indexes of the regexps using \G, see {@link #search(OnigString, int)}.
+	 */
+	private final int[] gAnchorIndexes;
+
+	/**
+	 * The index of the regexp of the last best match, searched first by the next search: the regexps are often
+	 * matched in runs (e.g. the same regexp matching each word of a line), and a close best match known early lets
+	 * the other regexps only be searched up to its location.
+	 */
+	private int lastBestIndex;
+
+	/**
+	 * The statistics of each regexp, null if the searches are not profiled.
+	 */
+	private final OnigRegExpProfile[] profiles;
 
 	public OnigSearcher(String[] regexps) {
-		this.regExps = Arrays.stream(regexps).map(OnigRegExp::new).collect(Collectors.toList());
+		this(regexps, false, false);
 	}
 
-	public OnigResult search(OnigString source, int charOffset) {
-		int byteOffset = source.convertUtf16OffsetToUtf8(charOffset);
+	public OnigSearcher(String[] regexps, boolean lazyCompilation, boolean utf16) {
+		this(regexps, lazyCompilation, utf16, null);
+	}
 
-		int bestLocation = 0;
-		OnigResult bestResult = null;
-		int index = 0;
+	/**
+	 * @param lazyCompilation
+	 *            true to compile each regexp when it is first searched, false to compile them all now.
+	 * @param utf16
+	 *            true to match the regexps against strings in UTF-16, false in UTF-8.
+	 * @param profiles
+	 *            the statistics to update for each regexp, or null to not profile the searches.
+	 */
+	public OnigSearcher(String[] regexps, boolean lazyCompilation, boolean utf16, OnigRegExpProfile[] profiles) {
+		this.profiles = profiles;
+		this.regExps = new OnigRegExp[regexps.length];
+		int gAnchorCount = 0;
+		for (int i = 0; i < regexps.length; i++) {
+			this.regExps[i] = new OnigRegExp(regexps[i], lazyCompilation, utf16);
+			if (this.regExps[i].hasGAnchor()) {
+				gAnchorCount++;
+			}
+		}
+		this.gAnchorIndexes = new int[gAnchorCount];
+		for (int i = 0, j = 0; i < regexps.length; i++) {
+			if (this.regExps[i].hasGAnchor()) {
+				this.gAnchorIndexes[j++] = i;
+			}
+		}
+	}
 
+	/**
+	 * Compiles the regexps which are not compiled yet.
+	 */
+	void precompile() {
 		for (OnigRegExp regExp : regExps) {
-			OnigResult result = regExp.search(source, byteOffset);
-			if (result != null && result.count() > 0) {
-				int location = result.locationAt(0);
-
-				if (bestResult == null || location < bestLocation) {
-					bestLocation = location;
-					bestResult = result;
-					bestResult.setIndex(index);
-				}
+			regExp.precompile();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The regexps without \G are searched first, starting with the regexp of the last best match, each one only up
+	 * to the location where it could still beat the best match found so far. The results of a regexp using \G
+	 * depend on which searches hit its cache, so these regexps are then searched as they always were: in order, up to
+	 * the end of the line, and only while no regexp before them matches at the search start.
+	 * </p>
+	 */
+	@Override
+	public OnigResult search(OnigString source, int charOffset) {
+		if (regExps.length == 0) {
+			return null;
+		}
+		int byteOffset = source.getByteOffset(charOffset);
+		int end = source.bytesLength;
+		// the range must end on a code unit, a UTF-16 range ending inside one is rounded down by joni
+		int unitLength = source.isUtf16() ? 2 : 1;
 
-				if (location == byteOffset) {
+		int bestLocation = 0;
+		int bestIndex = -1;
+		OnigResult bestResult = null;
+		for (int i = -1; i < regExps.length; i++) {
+			int index = i == -1 ? lastBestIndex : i;
+			if (i == lastBestIndex || regExps[index].hasGAnchor()) {
+				continue;
+			}
+			int range = end;
+			if (bestResult != null) {
+				// a regexp before the best one wins at the same location, a regexp after it must match before
+				int limit = index < bestIndex ? bestLocation + unitLength : bestLocation;
+				if (limit <= byteOffset) {
+					// the best match is at the search start and the remaining regexps are after it
 					break;
 				}
+				range = Math.min(limit, end);
+			}
+			OnigResult result = profiles == null ? regExps[index].search(source, byteOffset, range)
+					: searchProfiled(index, source, byteOffset, range);
+			if (result != null && result.count() > 0 && isBetter(result.locationAt(0), index, bestResult,
+					bestLocation, bestIndex)) {
+				bestLocation = result.locationAt(0);
+				bestIndex = index;
+				bestResult = result;
+			}
+		}
+
+		for (int index : gAnchorIndexes) {
+			if (bestResult != null && bestLocation == byteOffset && bestIndex < index) {
+				break;
 			}
-			index++;
+			OnigResult result = profiles == null ? regExps[index].search(source, byteOffset)
+					: searchProfiled(index, source, byteOffset, end);
+			if (result != null && result.count() > 0 && isBetter(result.locationAt(0), index, bestResult,
+					bestLocation, bestIndex)) {
+				bestLocation = result.locationAt(0);
+				bestIndex = index;
+				bestResult = result;
+			}
+		}
+
+		if (bestResult != null) {
+			bestResult.setIndex(bestIndex);
+			lastBestIndex = bestIndex;
 		}
 		return bestResult;
 	}
 
+	private OnigResult searchProfiled(int index, OnigString source, int byteOffset, int range) {
+		long start = System.nanoTime();
+		OnigResult result = regExps[index].search(source, byteOffset, range);
+		profiles[index].searched(System.nanoTime() - start);
+		if (regExps[index].isLastSearchMemoHit()) {
+			profiles[index].memoHit();
+		}
+		return result;
+	}
+
+	private static boolean isBetter(int location, int index, OnigResult bestResult, int bestLocation, int bestIndex) {
+		return bestResult == null || location < bestLocation || (location == bestLocation && index < bestIndex);
+	}
+
 }
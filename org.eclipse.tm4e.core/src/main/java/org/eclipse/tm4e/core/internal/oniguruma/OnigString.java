@@ -19,11 +19,8 @@
 
 package org.eclipse.tm4e.core.internal.oniguruma;
 
-import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
-import org.jcodings.specific.UTF8Encoding;
-
 /**
  * Oniguruma string.
  *
@@ -32,95 +29,431 @@
  */
 public class OnigString {
 
+	/**
+	 * Strings longer than this are not encoded in the per-thread buffers, so that a huge line doesn't keep a huge
+	 * buffer alive.
+	 */
+	private static final int MAX_POOLED_LENGTH = 1 << 20;
+
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+	/**
+	 * The per-thread encoding buffers, used as a stack since a line is still searched while the substrings of its
+	 * captures are tokenized.
+	 */
+	private static final class Buffers {
+
+		private byte[][] buffers = new byte[4][];
+		private OnigMatchMemo[] matchMemos = new OnigMatchMemo[4];
+		private int depth;
+
+		byte[] acquire(int length) {
+			int index = push();
+			byte[] buffer = buffers[index];
+			if (buffer == null || buffer.length < length) {
+				buffer = new byte[Math.max(length, buffer == null ? 256 : Math.min(buffer.length * 2, MAX_POOLED_LENGTH))];
+				buffers[index] = buffer;
+			}
+			return buffer;
+		}
+
+		/**
+		 * Takes the next depth without its buffer, for a string sharing the bytes of another one, and returns it.
+		 */
+		int push() {
+			if (depth == buffers.length) {
+				byte[][] newBuffers = new byte[depth * 2][];
+				System.arraycopy(buffers, 0, newBuffers, 0, depth);
+				buffers = newBuffers;
+				OnigMatchMemo[] newMatchMemos = new OnigMatchMemo[depth * 2];
+				System.arraycopy(matchMemos, 0, newMatchMemos, 0, depth);
+				matchMemos = newMatchMemos;
+			}
+			return depth++;
+		}
+
+		/**
+		 * Returns the cleared match memo of the buffer at the given depth.
+		 */
+		OnigMatchMemo matchMemo(int depth) {
+			OnigMatchMemo matchMemo = matchMemos[depth];
+			if (matchMemo == null) {
+				matchMemo = new OnigMatchMemo();
+				matchMemos[depth] = matchMemo;
+			} else {
+				matchMemo.clear();
+			}
+			return matchMemo;
+		}
+	}
+
+	/**
+	 * The string, of which only the first {@link #length()} chars are searched for a prefix of another string (see
+	 * {@link #acquirePrefix(int)}).
+	 */
 	public final String string;
+
+	/**
+	 * The number of chars of the string which are searched.
+	 */
+	private final int length;
+
+	/**
+	 * The UTF-8 bytes of the string, null for a string matched in UTF-16, encoded in a per-thread buffer (see
+	 * {@link #acquire(String, boolean)}) or sharing the bytes of another string.
+	 */
 	public final byte[] utf8_value;
 
-	private int[] charsPosFromBytePos;
-	private boolean computedOffsets;
+	/**
+	 * The bytes searched by joni: the UTF-8 bytes, or the UTF-16LE code units of the string, followed by unused bytes
+	 * for a string encoded in a per-thread buffer.
+	 */
+	final byte[] bytes;
+
+	/**
+	 * The number of bytes of the string in {@link #bytes}.
+	 */
+	final int bytesLength;
+
+	private final boolean utf16;
 
+	/**
+	 * The depth of the per-thread buffer holding the bytes, -1 if the bytes are not pooled or have been released.
+	 */
+	private int bufferDepth = -1;
+
+	/**
+	 * The last search of each compiled regex on this string, created on the first search, or taken from the
+	 * per-thread buffers with the bytes of a pooled string.
+	 */
+	private OnigMatchMemo matchMemo;
+
+	/**
+	 * The UTF-8 offsets are mapped to UTF-16 offsets with runs of chars having the same UTF-8 length: run i starts at
+	 * char runCharStarts[i] and byte runByteStarts[i] and has runWidths[i] bytes per char (4 for a surrogate pair,
+	 * which is 2 chars). The chars before asciiLength are ASCII, so they have the same offset in both encodings, and
+	 * there are no runs at all for an ASCII string.
+	 */
+	private int asciiLength;
+	private int runCount;
+	private int[] runCharStarts;
+	private int[] runByteStarts;
+	private int[] runWidths;
+
+	/**
+	 * The last run found, the next offsets to convert are usually in the same run.
+	 */
+	private int lastRun;
 
 	public OnigString(String str) {
+		this(str, false);
+	}
+
+	/**
+	 * @param utf16
+	 *            true to match the string in UTF-16 (2 bytes per char, so offsets don't need to be mapped), false to
+	 *            match it in UTF-8.
+	 */
+	public OnigString(String str, boolean utf16) {
+		this(str, utf16, null);
+	}
+
+	private OnigString(String str, boolean utf16, byte[] buffer) {
 		this.string = str;
-		this.utf8_value = str.getBytes(StandardCharsets.UTF_8);
+		this.utf16 = utf16;
+		int length = str.length();
+		this.length = length;
+		if (utf16) {
+			this.bytes = buffer != null ? buffer : new byte[length * 2];
+			this.bytesLength = encodeUtf16(str, bytes);
+			this.utf8_value = null;
+		} else {
+			this.bytes = buffer != null ? buffer : new byte[utf8Length(str)];
+			this.bytesLength = encodeUtf8(str, bytes);
+			this.utf8_value = buffer != null ? null : bytes;
+		}
 	}
 
-	public int convertUtf16OffsetToUtf8(int posInChars) {
-		if(!computedOffsets) {
-			computeOffsets();
+	/**
+	 * Returns a string encoded in a buffer of the current thread instead of a new byte array. The string must be
+	 * released with {@link #release()} by the current thread once it is not searched anymore, in the reverse order of
+	 * the acquisitions.
+	 *
+	 * @param utf16
+	 *            true to match the string in UTF-16, false to match it in UTF-8.
+	 */
+	public static OnigString acquire(String str, boolean utf16) {
+		int maxLength = str.length() * (utf16 ? 2 : 3);
+		if (maxLength > MAX_POOLED_LENGTH) {
+			return new OnigString(str, utf16);
 		}
-		if (charsPosFromBytePos == null) {
-			// Same conditions as code below, but taking into account that the
-			// bytes and chars len are the same.
-			if (posInChars < 0 || this.utf8_value.length == 0 || posInChars > this.utf8_value.length) {
-				throw new ArrayIndexOutOfBoundsException(posInChars);
+		Buffers buffers = BUFFERS.get();
+		int depth = buffers.depth;
+		OnigString result = new OnigString(str, utf16, buffers.acquire(maxLength));
+		result.bufferDepth = depth;
+		result.matchMemo = buffers.matchMemo(depth);
+		return result;
+	}
+
+	/**
+	 * Creates a prefix of the given string, searching its bytes up to the given length.
+	 */
+	private OnigString(OnigString str, int length) {
+		this.string = str.string;
+		this.utf16 = str.utf16;
+		this.length = length;
+		this.bytes = str.bytes;
+		this.bytesLength = str.getByteOffset(length);
+		this.utf8_value = null;
+		this.asciiLength = str.asciiLength;
+		this.runCount = str.runCount;
+		this.runCharStarts = str.runCharStarts;
+		this.runByteStarts = str.runByteStarts;
+		this.runWidths = str.runWidths;
+	}
+
+	/**
+	 * Returns the first chars of this string, searched like a string of their own (e.g. '$' matches at their end)
+	 * without copying nor encoding them again: the bytes and the offset runs of this string are shared. The prefix
+	 * has its own match memo, taken from the per-thread buffers, so it must be released with {@link #release()} by
+	 * the current thread once it is not searched anymore, like a string returned by
+	 * {@link #acquire(String, boolean)}, and before this string is released.
+	 *
+	 * @param length
+	 *            the number of chars of the prefix.
+	 */
+	public OnigString acquirePrefix(int length) {
+		if (length < 0 || length > this.length) {
+			throw new IndexOutOfBoundsException(length);
+		}
+		OnigString result = new OnigString(this, length);
+		Buffers buffers = BUFFERS.get();
+		result.bufferDepth = buffers.push();
+		result.matchMemo = buffers.matchMemo(result.bufferDepth);
+		return result;
+	}
+
+	/**
+	 * Returns the number of chars of the string which are searched: the length of {@link #string}, or the length of
+	 * the prefix (see {@link #acquirePrefix(int)}).
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Gives the buffer of a string returned by {@link #acquire(String, boolean)} back to the current thread, the
+	 * buffers of the strings acquired after it are released as well. Does nothing for other strings.
+	 */
+	public void release() {
+		if (bufferDepth != -1) {
+			Buffers buffers = BUFFERS.get();
+			if (buffers.depth > bufferDepth) {
+				buffers.depth = bufferDepth;
 			}
-			return posInChars;
+			bufferDepth = -1;
+			matchMemo = null;
 		}
+	}
 
-		int[] charsLenInBytes = charsPosFromBytePos;
-		if (posInChars < 0 || charsLenInBytes.length == 0) {
-			throw new ArrayIndexOutOfBoundsException(posInChars);
+	private static int encodeUtf16(String str, byte[] bytes) {
+		int length = str.length();
+		for (int i = 0; i < length; i++) {
+			char ch = str.charAt(i);
+			bytes[2 * i] = (byte) ch;
+			bytes[2 * i + 1] = (byte) (ch >>> 8);
 		}
-		if (posInChars == 0) {
-			return 0;
+		return length * 2;
+	}
+
+	private static int utf8Length(String str) {
+		int length = str.length();
+		int bytesLength = length;
+		for (int i = 0; i < length; i++) {
+			char ch = str.charAt(i);
+			if (ch >= 0x80) {
+				if (ch < 0x800) {
+					bytesLength++;
+				} else if (Character.isHighSurrogate(ch) && i + 1 < length
+						&& Character.isLowSurrogate(str.charAt(i + 1))) {
+					// 4 bytes for 2 chars
+					bytesLength += 2;
+					i++;
+				} else if (!Character.isSurrogate(ch)) {
+					bytesLength += 2;
+				}
+			}
 		}
+		return bytesLength;
+	}
 
-		int last = charsLenInBytes[charsLenInBytes.length - 1];
-		if (last < posInChars) {
-			if (last == posInChars - 1) {
-				return charsLenInBytes.length;
+	/**
+	 * Encodes the string like {@link String#getBytes(java.nio.charset.Charset)} with UTF-8 (an unpaired surrogate is
+	 * encoded as '?') and records the runs of chars having the same UTF-8 length.
+	 */
+	private int encodeUtf8(String str, byte[] bytes) {
+		int length = str.length();
+		int pos = 0;
+		while (pos < length && str.charAt(pos) < 0x80) {
+			bytes[pos] = (byte) str.charAt(pos);
+			pos++;
+		}
+		asciiLength = pos;
+		if (pos == length) {
+			return length;
+		}
+		int bytePos = pos;
+		int runWidth = 0;
+		while (pos < length) {
+			char ch = str.charAt(pos);
+			int width;
+			if (ch < 0x80) {
+				bytes[bytePos] = (byte) ch;
+				width = 1;
+			} else if (ch < 0x800) {
+				bytes[bytePos] = (byte) (0xC0 | (ch >> 6));
+				bytes[bytePos + 1] = (byte) (0x80 | (ch & 0x3F));
+				width = 2;
+			} else if (!Character.isSurrogate(ch)) {
+				bytes[bytePos] = (byte) (0xE0 | (ch >> 12));
+				bytes[bytePos + 1] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+				bytes[bytePos + 2] = (byte) (0x80 | (ch & 0x3F));
+				width = 3;
+			} else if (Character.isHighSurrogate(ch) && pos + 1 < length
+					&& Character.isLowSurrogate(str.charAt(pos + 1))) {
+				int codePoint = Character.toCodePoint(ch, str.charAt(pos + 1));
+				bytes[bytePos] = (byte) (0xF0 | (codePoint >> 18));
+				bytes[bytePos + 1] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				bytes[bytePos + 2] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				bytes[bytePos + 3] = (byte) (0x80 | (codePoint & 0x3F));
+				width = 4;
 			} else {
-				throw new ArrayIndexOutOfBoundsException(posInChars);
+				bytes[bytePos] = '?';
+				width = 1;
 			}
+			if (width != runWidth) {
+				addRun(pos, bytePos, width);
+				runWidth = width;
+			}
+			bytePos += width;
+			pos += width == 4 ? 2 : 1;
 		}
+		// the end of the last run
+		addRun(pos, bytePos, 0);
+		runCount--;
+		return bytePos;
+	}
 
-		int index = Arrays.binarySearch(charsLenInBytes, posInChars);
-		while (index > 0) {
-			if (charsLenInBytes[index - 1] == posInChars) {
-				index--;
-			} else {
-				break;
+	private void addRun(int charStart, int byteStart, int width) {
+		if (runCharStarts == null) {
+			runCharStarts = new int[8];
+			runByteStarts = new int[8];
+			runWidths = new int[8];
+		} else if (runCount == runCharStarts.length) {
+			int newLength = runCount * 2;
+			runCharStarts = Arrays.copyOf(runCharStarts, newLength);
+			runByteStarts = Arrays.copyOf(runByteStarts, newLength);
+			runWidths = Arrays.copyOf(runWidths, newLength);
+		}
+		runCharStarts[runCount] = charStart;
+		runByteStarts[runCount] = byteStart;
+		runWidths[runCount] = width;
+		runCount++;
+	}
+
+	OnigMatchMemo getMatchMemo() {
+		if (matchMemo == null) {
+			matchMemo = new OnigMatchMemo();
+		}
+		return matchMemo;
+	}
+
+	public boolean isUtf16() {
+		return utf16;
+	}
+
+	/**
+	 * Returns the offset in {@link #bytes} of the given UTF-16 offset.
+	 */
+	int getByteOffset(int posInChars) {
+		if (utf16) {
+			if (posInChars < 0 || posInChars > length) {
+				throw new ArrayIndexOutOfBoundsException(posInChars);
 			}
+			return posInChars * 2;
 		}
-		return index;
+		return convertUtf16OffsetToUtf8(posInChars);
 	}
 
-	public int convertUtf8OffsetToUtf16(int posInBytes) {
-		if(!computedOffsets) {
-			computeOffsets();
+	/**
+	 * Returns the UTF-16 offset of the given offset in {@link #bytes}.
+	 */
+	int getCharOffset(int posInBytes) {
+		if (utf16) {
+			return posInBytes < 0 ? posInBytes : posInBytes / 2;
 		}
-		if (charsPosFromBytePos == null) {
-			return posInBytes;
+		return convertUtf8OffsetToUtf16(posInBytes);
+	}
+
+	/**
+	 * Returns the UTF-8 offset of the given UTF-16 offset, for a string matched in UTF-8. An offset inside a surrogate
+	 * pair is mapped to the end of the pair.
+	 */
+	public int convertUtf16OffsetToUtf8(int posInChars) {
+		if (posInChars < 0 || bytesLength == 0 || posInChars > length) {
+			throw new ArrayIndexOutOfBoundsException(posInChars);
+		}
+		if (posInChars <= asciiLength) {
+			return posInChars;
 		}
-		if (posInBytes < 0) {
+		int run = findRun(posInChars, runCharStarts);
+		int width = runWidths[run];
+		int offset = posInChars - runCharStarts[run];
+		if (width == 4) {
+			return runByteStarts[run] + (offset + 1) / 2 * 4;
+		}
+		return runByteStarts[run] + offset * width;
+	}
+
+	/**
+	 * Returns the UTF-16 offset of the given UTF-8 offset, for a string matched in UTF-8. An offset inside the UTF-8
+	 * bytes of a char is mapped to the start of the char.
+	 */
+	public int convertUtf8OffsetToUtf16(int posInBytes) {
+		if (posInBytes <= asciiLength) {
 			return posInBytes;
 		}
-		if (posInBytes >= charsPosFromBytePos.length) {
-			//One off can happen when finding the end of a regexp (it's the right boundary).
-			return charsPosFromBytePos[posInBytes - 1] + 1;
+		if (posInBytes > bytesLength) {
+			throw new ArrayIndexOutOfBoundsException(posInBytes);
+		}
+		int run = findRun(posInBytes, runByteStarts);
+		int width = runWidths[run];
+		int offset = posInBytes - runByteStarts[run];
+		if (width == 4) {
+			return runCharStarts[run] + offset / 4 * 2;
 		}
-		return charsPosFromBytePos[posInBytes];
+		return runCharStarts[run] + offset / width;
 	}
 
-	private void computeOffsets() {
-		if (this.utf8_value.length != this.string.length()) {
-			charsPosFromBytePos = new int[this.utf8_value.length];
-			int bytesLen = 0;
-			int charsLen = 0;
-			int length = this.utf8_value.length;
-			for (int i = 0; i < length;) {
-				int codeLen = UTF8Encoding.INSTANCE.length(this.utf8_value, i, length);
-				for (int i1 = 0; i1 < codeLen; i1++) {
-					charsPosFromBytePos[bytesLen + i1] = charsLen;
-				}
-				bytesLen += codeLen;
-				i += codeLen;
-				charsLen += 1;
-			}
-			if(bytesLen != this.utf8_value.length) {
-				throw new AssertionError(bytesLen + " != "+this.utf8_value.length);
+	/**
+	 * Returns the run containing the given offset, the last run for the end of the string.
+	 */
+	private int findRun(int pos, int[] runStarts) {
+		int run = lastRun;
+		if (runStarts[run] <= pos && (pos < runStarts[run + 1] || run == runCount - 1)) {
+			return run;
+		}
+		int low = 0;
+		int high = runCount - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (runStarts[middle] <= pos) {
+				low = middle;
+			} else {
+				high = middle - 1;
 			}
 		}
-		computedOffsets = true;
+		lastRun = low;
+		return low;
 	}
 }
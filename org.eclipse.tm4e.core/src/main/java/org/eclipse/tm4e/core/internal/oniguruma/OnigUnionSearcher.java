@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+/**
+ * Searcher which compiles all the regexps of a scanner into a single alternation regex, each regexp being wrapped
+ * in its own group, so that a search does one pass over the line instead of one pass per regexp.
+ * <p>
+ * The leftmost match of the alternation is the match with the lowest location and, at this location, the match of
+ * the first alternative which matches: it is the same winner as the one of {@link OnigSearcher}. The captures of
+ * the winner are the groups of its alternative.
+ * </p>
+ */
+final class OnigUnionSearcher implements IOnigSearcher {
+
+	private final OnigRegExp regExp;
+
+	/**
+	 * The group of the union regex wrapping each regexp.
+	 */
+	private final int[] groupOffsets;
+
+	/**
+	 * The number of captures of each regexp, the whole match included.
+	 */
+	private final int[] groupCounts;
+
+	private final OnigResult result = new OnigResult();
+
+	private OnigUnionSearcher(OnigRegExp regExp, int[] groupOffsets, int[] groupCounts) {
+		this.regExp = regExp;
+		this.groupOffsets = groupOffsets;
+		this.groupCounts = groupCounts;
+	}
+
+	/**
+	 * Returns the union searcher of the given regexps, or null if one of them can't be embedded in a union.
+	 */
+	static OnigUnionSearcher create(String[] regexps, boolean utf16) {
+		if (regexps.length < 2) {
+			return null;
+		}
+		int[] groupOffsets = new int[regexps.length];
+		int[] groupCounts = new int[regexps.length];
+		StringBuilder union = new StringBuilder();
+		int group = 1;
+		for (int i = 0; i < regexps.length; i++) {
+			int count = countGroups(regexps[i]);
+			if (count < 0) {
+				return null;
+			}
+			if (i > 0) {
+				union.append('|');
+			}
+			union.append('(').append(regexps[i]).append(')');
+			groupOffsets[i] = group;
+			groupCounts[i] = count + 1;
+			group += count + 1;
+		}
+
+		OnigRegExp regExp;
+		try {
+			regExp = new OnigRegExp(union.toString(), false, utf16);
+		} catch (RuntimeException e) {
+			// let the sequential searcher report the invalid regexp
+			return null;
+		}
+		if (regExp.numberOfCaptures() != group - 1) {
+			// the groups were not counted as joni does
+			return null;
+		}
+		return new OnigUnionSearcher(regExp, groupOffsets, groupCounts);
+	}
+
+	/**
+	 * Returns the number of capture groups of the given regexp, or -1 if the regexp can't be embedded in a union:
+	 * back-references, subexpression calls, conditionals and named groups refer to groups which are renumbered in
+	 * the union, and a comment of the extended mode could swallow the parenthesis closing the group.
+	 */
+	static int countGroups(String regexp) {
+		int groups = 0;
+		int depth = 0;
+		int classDepth = 0;
+		int len = regexp.length();
+		for (int pos = 0; pos < len; pos++) {
+			char ch = regexp.charAt(pos);
+			if (ch == '\\') {
+				if (pos + 1 == len) {
+					return -1;
+				}
+				char nextCh = regexp.charAt(pos + 1);
+				if (classDepth == 0 && ((nextCh >= '1' && nextCh <= '9') || nextCh == 'k' || nextCh == 'g')) {
+					return -1;
+				}
+				pos++;
+			} else if (classDepth > 0) {
+				if (ch == '[') {
+					classDepth++;
+				} else if (ch == ']') {
+					classDepth--;
+				}
+			} else if (ch == '[') {
+				classDepth = 1;
+				// ']' is a literal when it is the first character of the class
+				if (pos + 1 < len && regexp.charAt(pos + 1) == '^') {
+					pos++;
+				}
+				if (pos + 1 < len && regexp.charAt(pos + 1) == ']') {
+					pos++;
+				}
+			} else if (ch == '(') {
+				depth++;
+				if (pos + 1 < len && regexp.charAt(pos + 1) == '?') {
+					char kind = pos + 2 < len ? regexp.charAt(pos + 2) : 0;
+					if (kind == '<') {
+						char lookBehind = pos + 3 < len ? regexp.charAt(pos + 3) : 0;
+						if (lookBehind != '=' && lookBehind != '!') {
+							// named group
+							return -1;
+						}
+					} else if (kind == '\'' || kind == 'P' || kind == '(') {
+						// named group or conditional
+						return -1;
+					} else if (kind == '#') {
+						// comment
+						int end = regexp.indexOf(')', pos);
+						if (end == -1) {
+							return -1;
+						}
+						depth--;
+						pos = end;
+					} else {
+						int optionPos = pos + 2;
+						while (optionPos < len
+								&& (Character.isLetter(regexp.charAt(optionPos)) || regexp.charAt(optionPos) == '-')) {
+							if (regexp.charAt(optionPos) == 'x') {
+								// extended mode
+								return -1;
+							}
+							optionPos++;
+						}
+					}
+				} else {
+					groups++;
+				}
+			} else if (ch == ')') {
+				depth--;
+				if (depth < 0) {
+					return -1;
+				}
+			}
+		}
+		return depth == 0 && classDepth == 0 ? groups : -1;
+	}
+
+	@Override
+	public OnigResult search(OnigString source, int charOffset) {
+		int byteOffset = source.getByteOffset(charOffset);
+		OnigResult unionResult = regExp.search(source, byteOffset);
+		if (unionResult == null) {
+			return null;
+		}
+		for (int index = 0; index < groupOffsets.length; index++) {
+			if (unionResult.groupBegin(groupOffsets[index]) >= 0) {
+				result.reset(unionResult, groupOffsets[index], groupCounts[index]);
+				result.setIndex(index);
+				return result;
+			}
+		}
+		return null;
+	}
+
+}
@@ -29,8 +29,8 @@ public class BeginEndRule extends Rule {
 	public List<CaptureRule> endCaptures;
 	public boolean applyEndPatternLast;
 	public final boolean hasMissingPatterns;
-	public Integer[] patterns;
-	private RegExpSourceList cachedCompiledPatterns;
+	public int[] patterns;
+	private volatile RegExpSourceList cachedCompiledPatterns;
 
 	public BeginEndRule(int id, String name, String contentName, String begin, List<CaptureRule> beginCaptures,
 			String end, List<CaptureRule> endCaptures, boolean applyEndPatternLast, ICompilePatternsResult patterns) {
@@ -53,7 +53,7 @@ public String getEndWithResolvedBackReferences(String lineText, IOnigCaptureInde
 	@Override
 	public void collectPatternsRecursive(IRuleRegistry grammar, RegExpSourceList out, boolean isFirst) {
 		if (isFirst) {
-			for (Integer pattern : this.patterns) {
+			for (int pattern : this.patterns) {
 				Rule rule = grammar.getRule(pattern);
 				rule.collectPatternsRecursive(grammar, out, false);
 			}
@@ -66,28 +66,39 @@ public void collectPatternsRecursive(IRuleRegistry grammar, RegExpSourceList out
 	public ICompiledRule compile(IRuleRegistry grammar, String endRegexSource, boolean allowA, boolean allowG) {
 		RegExpSourceList precompiled = this.precompile(grammar);
 		if (this.end.hasBackReferences()) {
-			if (this.applyEndPatternLast) {
-				precompiled.setSource(precompiled.length() - 1, endRegexSource);
-			} else {
-				precompiled.setSource(0, endRegexSource);
+			// the end source of the list is shared by the threads using this rule
+			synchronized (this) {
+				if (this.applyEndPatternLast) {
+					precompiled.setSource(precompiled.length() - 1, endRegexSource);
+				} else {
+					precompiled.setSource(0, endRegexSource);
+				}
+				return precompiled.compile(grammar, allowA, allowG);
 			}
 		}
-		return this.cachedCompiledPatterns.compile(grammar, allowA, allowG);
+		return precompiled.compile(grammar, allowA, allowG);
 	}
 
 	private RegExpSourceList precompile(IRuleRegistry grammar) {
-		if (this.cachedCompiledPatterns == null) {
-			this.cachedCompiledPatterns = new RegExpSourceList();
+		RegExpSourceList result = this.cachedCompiledPatterns;
+		if (result == null) {
+			synchronized (this) {
+				result = this.cachedCompiledPatterns;
+				if (result == null) {
+					result = new RegExpSourceList();
 
-			this.collectPatternsRecursive(grammar, this.cachedCompiledPatterns, true);
+					this.collectPatternsRecursive(grammar, result, true);
 
-			if (this.applyEndPatternLast) {
-				this.cachedCompiledPatterns.push(this.end.hasBackReferences() ? this.end.clone() : this.end);
-			} else {
-				this.cachedCompiledPatterns.unshift(this.end.hasBackReferences() ? this.end.clone() : this.end);
+					if (this.applyEndPatternLast) {
+						result.push(this.end.hasBackReferences() ? this.end.clone() : this.end);
+					} else {
+						result.unshift(this.end.hasBackReferences() ? this.end.clone() : this.end);
+					}
+					this.cachedCompiledPatterns = result;
+				}
 			}
 		}
-		return this.cachedCompiledPatterns;
+		return result;
 	}
 
 }
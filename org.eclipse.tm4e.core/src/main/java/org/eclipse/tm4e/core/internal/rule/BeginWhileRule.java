@@ -28,9 +28,9 @@ public class BeginWhileRule extends Rule {
 	private final RegExpSource _while;
 	public final boolean whileHasBackReferences;
 	public final boolean hasMissingPatterns;
-	public final Integer[] patterns;
-	private RegExpSourceList cachedCompiledPatterns;
-	private RegExpSourceList cachedCompiledWhilePatterns;
+	public final int[] patterns;
+	private volatile RegExpSourceList cachedCompiledPatterns;
+	private volatile RegExpSourceList cachedCompiledWhilePatterns;
 
 	public BeginWhileRule(/* $location:ILocation, */ int id, String name, String contentName, String begin,
 			List<CaptureRule> beginCaptures, String _while, List<CaptureRule> whileCaptures,
@@ -55,7 +55,7 @@ public String getWhileWithResolvedBackReferences(String lineText, IOnigCaptureIn
 	public void collectPatternsRecursive(IRuleRegistry grammar, RegExpSourceList out, boolean isFirst) {
 		if (isFirst) {
 			Rule rule;
-			for (Integer pattern : patterns) {
+			for (int pattern : patterns) {
 				rule = grammar.getRule(pattern);
 				rule.collectPatternsRecursive(grammar, out, false);
 			}
@@ -66,30 +66,49 @@ public void collectPatternsRecursive(IRuleRegistry grammar, RegExpSourceList out
 
 	@Override
 	public ICompiledRule compile(IRuleRegistry grammar, String endRegexSource, boolean allowA, boolean allowG) {
-		this.precompile(grammar);
-		return this.cachedCompiledPatterns.compile(grammar, allowA, allowG);
+		return this.precompile(grammar).compile(grammar, allowA, allowG);
 	}
 
-	private void precompile(IRuleRegistry grammar) {
-		if (this.cachedCompiledPatterns == null) {
-			this.cachedCompiledPatterns = new RegExpSourceList();
-			this.collectPatternsRecursive(grammar, this.cachedCompiledPatterns, true);
+	private RegExpSourceList precompile(IRuleRegistry grammar) {
+		RegExpSourceList result = this.cachedCompiledPatterns;
+		if (result == null) {
+			synchronized (this) {
+				result = this.cachedCompiledPatterns;
+				if (result == null) {
+					result = new RegExpSourceList();
+					this.collectPatternsRecursive(grammar, result, true);
+					this.cachedCompiledPatterns = result;
+				}
+			}
 		}
+		return result;
 	}
 
 	public ICompiledRule compileWhile(IRuleRegistry grammar, String endRegexSource, boolean allowA, boolean allowG) {
-		this.precompileWhile();
+		RegExpSourceList precompiled = this.precompileWhile();
 		if (this._while.hasBackReferences()) {
-			this.cachedCompiledWhilePatterns.setSource(0, endRegexSource);
+			// the while source of the list is shared by the threads using this rule
+			synchronized (this) {
+				precompiled.setSource(0, endRegexSource);
+				return precompiled.compile(grammar, allowA, allowG);
+			}
 		}
-		return this.cachedCompiledWhilePatterns.compile(grammar, allowA, allowG);
+		return precompiled.compile(grammar, allowA, allowG);
 	}
 
-	private void precompileWhile() {
-		if (this.cachedCompiledWhilePatterns == null) {
-			this.cachedCompiledWhilePatterns = new RegExpSourceList();
-			this.cachedCompiledWhilePatterns.push(this._while.hasBackReferences() ? this._while.clone() : this._while);
+	private RegExpSourceList precompileWhile() {
+		RegExpSourceList result = this.cachedCompiledWhilePatterns;
+		if (result == null) {
+			synchronized (this) {
+				result = this.cachedCompiledWhilePatterns;
+				if (result == null) {
+					result = new RegExpSourceList();
+					result.push(this._while.hasBackReferences() ? this._while.clone() : this._while);
+					this.cachedCompiledWhilePatterns = result;
+				}
+			}
 		}
+		return result;
 	}
 
 }
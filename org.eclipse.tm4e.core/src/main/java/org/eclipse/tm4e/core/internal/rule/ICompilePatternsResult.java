@@ -20,12 +20,16 @@
 
 public class ICompilePatternsResult {
 
-	public final Integer[] patterns;
+	public final int[] patterns;
 	public final boolean hasMissingPatterns;
 
 	public ICompilePatternsResult(Collection<Integer> patterns, boolean hasMissingPatterns) {
 		this.hasMissingPatterns = hasMissingPatterns;
-		this.patterns = patterns.toArray(new Integer[patterns.size()]);
+		this.patterns = new int[patterns.size()];
+		int i = 0;
+		for (int pattern : patterns) {
+			this.patterns[i++] = pattern;
+		}
 	}
 
 }
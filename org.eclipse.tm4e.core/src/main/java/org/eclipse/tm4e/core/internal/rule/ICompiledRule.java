@@ -21,10 +21,20 @@
 public class ICompiledRule {
 
 	public final OnigScanner scanner;
-	public final Integer[] rules;
+	public final int[] rules;
 
-	public ICompiledRule(OnigScanner scanner, Integer[] rules) {
+	/**
+	 * The regexps searched by the scanner, null if they are unknown.
+	 */
+	public final String[] regexps;
+
+	public ICompiledRule(OnigScanner scanner, int[] rules) {
+		this(scanner, rules, null);
+	}
+
+	public ICompiledRule(OnigScanner scanner, int[] rules, String[] regexps) {
 		this.scanner = scanner;
 		this.rules = rules;
+		this.regexps = regexps;
 	}
 }
@@ -18,10 +18,23 @@
 
 import java.util.function.IntFunction;
 
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScanner;
+
 public interface IRuleRegistry {
 
 	Rule getRule(int patternId);
 
 	Rule registerRule(IntFunction<Rule> factory);
 
+	default OnigScanner createOnigScanner(String[] regexps) {
+		return new OnigScanner(regexps);
+	}
+
+	/**
+	 * Creates the scanner of the given regexps of the given rules, see {@link RegExpSourceList}.
+	 */
+	default OnigScanner createOnigScanner(String[] regexps, int[] ruleIds) {
+		return createOnigScanner(regexps);
+	}
+
 }
@@ -19,8 +19,8 @@
 public class IncludeOnlyRule extends Rule {
 
 	public final boolean hasMissingPatterns;
-	public final Integer[] patterns;
-	private RegExpSourceList cachedCompiledPatterns;
+	public final int[] patterns;
+	private volatile RegExpSourceList cachedCompiledPatterns;
 
 	public IncludeOnlyRule(int id, String name, String contentName, ICompilePatternsResult patterns) {
 		super(id, name, contentName);
@@ -31,7 +31,7 @@ public IncludeOnlyRule(int id, String name, String contentName, ICompilePatterns
 
 	@Override
 	public void collectPatternsRecursive(IRuleRegistry grammar, RegExpSourceList out, boolean isFirst) {
-		for (Integer pattern : this.patterns) {
+		for (int pattern : this.patterns) {
 			Rule rule = grammar.getRule(pattern);
 			rule.collectPatternsRecursive(grammar, out, false);
 		}
@@ -39,11 +39,22 @@ public void collectPatternsRecursive(IRuleRegistry grammar, RegExpSourceList out
 
 	@Override
 	public ICompiledRule compile(IRuleRegistry grammar, String endRegexSource, boolean allowA, boolean allowG) {
-		if (this.cachedCompiledPatterns == null) {
-			this.cachedCompiledPatterns = new RegExpSourceList();
-			this.collectPatternsRecursive(grammar, this.cachedCompiledPatterns, true);
+		return this.precompile(grammar).compile(grammar, allowA, allowG);
+	}
+
+	private RegExpSourceList precompile(IRuleRegistry grammar) {
+		RegExpSourceList result = this.cachedCompiledPatterns;
+		if (result == null) {
+			synchronized (this) {
+				result = this.cachedCompiledPatterns;
+				if (result == null) {
+					result = new RegExpSourceList();
+					this.collectPatternsRecursive(grammar, result, true);
+					this.cachedCompiledPatterns = result;
+				}
+			}
 		}
-		return this.cachedCompiledPatterns.compile(grammar, allowA, allowG);
+		return result;
 	}
 
 }
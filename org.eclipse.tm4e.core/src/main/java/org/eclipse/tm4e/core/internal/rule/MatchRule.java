@@ -22,7 +22,7 @@ public class MatchRule extends Rule {
 
 	private final RegExpSource match;
 	public final List<CaptureRule> captures;
-	private RegExpSourceList cachedCompiledPatterns;
+	private volatile RegExpSourceList cachedCompiledPatterns;
 
 	public MatchRule(int id, String name, String match, List<CaptureRule> captures) {
 		super(id, name, null);
@@ -38,10 +38,21 @@ public void collectPatternsRecursive(IRuleRegistry grammar, RegExpSourceList out
 
 	@Override
 	public ICompiledRule compile(IRuleRegistry grammar, String endRegexSource, boolean allowA, boolean allowG) {
-		if (this.cachedCompiledPatterns == null) {
-			this.cachedCompiledPatterns = new RegExpSourceList();
-			this.collectPatternsRecursive(grammar, this.cachedCompiledPatterns, true);
+		return this.precompile(grammar).compile(grammar, allowA, allowG);
+	}
+
+	private RegExpSourceList precompile(IRuleRegistry grammar) {
+		RegExpSourceList result = this.cachedCompiledPatterns;
+		if (result == null) {
+			synchronized (this) {
+				result = this.cachedCompiledPatterns;
+				if (result == null) {
+					result = new RegExpSourceList();
+					this.collectPatternsRecursive(grammar, result, true);
+					this.cachedCompiledPatterns = result;
+				}
+			}
 		}
-		return this.cachedCompiledPatterns.compile(grammar, allowA, allowG);
+		return result;
 	}
 }
@@ -16,13 +16,10 @@
  */
 package org.eclipse.tm4e.core.internal.rule;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import org.eclipse.tm4e.core.internal.oniguruma.IOnigCaptureIndex;
+import org.eclipse.tm4e.core.internal.utils.CaptureTemplate;
 
 /**
  *
@@ -32,9 +29,6 @@
 public class RegExpSource {
 
 	private static final Pattern HAS_BACK_REFERENCES = Pattern.compile("\\\\(\\d+)");
-	private static final Pattern BACK_REFERENCING_END = Pattern.compile("\\\\(\\d+)");
-	private static final Pattern REGEXP_CHARACTERS = Pattern
-			.compile("[\\-\\\\\\{\\}\\*\\+\\?\\|\\^\\$\\.\\,\\[\\]\\(\\)\\#\\s]");
 
 	private final int ruleId;
 	private boolean _hasAnchor;
@@ -42,6 +36,12 @@ public class RegExpSource {
 	private IRegExpSourceAnchorCache anchorCache;
 	private String source;
 
+	/**
+	 * The source parsed on its first resolution of back references, see
+	 * {@link #resolveBackReferences(String, IOnigCaptureIndex[])}.
+	 */
+	private volatile CaptureTemplate backReferencesTemplate;
+
 	public RegExpSource(String regExpSource, int ruleId) {
 		this(regExpSource, ruleId, true);
 	}
@@ -75,6 +75,7 @@ public void setSource(String newSource) {
 			return;
 		}
 		this.source = newSource;
+		this.backReferencesTemplate = null;
 
 		if (this._hasAnchor) {
 			this.anchorCache = this._buildAnchorCache();
@@ -123,35 +124,12 @@ private void _handleAnchors(String regExpSource) {
 	}
 
 	public String resolveBackReferences(String lineText, IOnigCaptureIndex[] captureIndices) {
-		try {
-		List<String> capturedValues = Arrays.stream(captureIndices)
-				.map(capture -> lineText.substring(capture.getStart(), capture.getEnd())).collect(Collectors.toList());
-		Matcher m = BACK_REFERENCING_END.matcher(this.source);
-		StringBuffer sb = new StringBuffer();
-		while (m.find()) {
-			String g1 = m.group();
-			int index = Integer.parseInt(g1.substring(1));
-			String replacement = escapeRegExpCharacters(capturedValues.size() > index ? capturedValues.get(index) : "");
-			m.appendReplacement(sb, replacement);
-		}
-		m.appendTail(sb);
-		return sb.toString();
-		}
-		catch(Throwable e) {
-			//e.printStackTrace();
-		}
-
-		return lineText;
-	}
-
-	private String escapeRegExpCharacters(String value) {
-		Matcher m = REGEXP_CHARACTERS.matcher(value);
-		StringBuffer sb = new StringBuffer();
-		while (m.find()) {
-			m.appendReplacement(sb, "\\\\\\\\" + m.group());
+		CaptureTemplate template = this.backReferencesTemplate;
+		if (template == null) {
+			template = CaptureTemplate.ofBackReferences(this.source);
+			this.backReferencesTemplate = template;
 		}
-		m.appendTail(sb);
-		return sb.toString();
+		return template.resolve(lineText, captureIndices);
 	}
 
 	private IRegExpSourceAnchorCache _buildAnchorCache() {
@@ -238,7 +216,7 @@ public String getSource() {
 		return this.source;
 	}
 
-	public Integer getRuleId() {
+	public int getRuleId() {
 		return this.ruleId;
 	}
 
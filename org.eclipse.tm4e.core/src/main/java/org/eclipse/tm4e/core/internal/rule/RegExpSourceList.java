@@ -17,37 +17,54 @@
 package org.eclipse.tm4e.core.internal.rule;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-import org.eclipse.tm4e.core.internal.oniguruma.OnigScanner;
+import java.util.Map;
 
 /**
+ * The compiled rules are cached and safely published, so that a list can be compiled by several threads. The list
+ * is built before it is compiled, only the sources with back references are modified afterwards (see
+ * {@link #setSource(int, String)}), by their rule holding its lock.
+ * <p>
+ * A list has at most one source with back references (the end or while pattern of a rule, resolved with the
+ * captures of each begin match). The compiled rules of the last sources it was set to are kept, so that switching
+ * back to an earlier source (e.g. alternating between two heredoc delimiters) doesn't compile the list again.
+ * </p>
  *
  * @see https://github.com/Microsoft/vscode-textmate/blob/master/src/rule.ts
  *
  */
 public class RegExpSourceList {
 
-	private static class RegExpSourceListAnchorCache {
+	/**
+	 * The number of replaced sources whose compiled rules are kept, see {@link #setSource(int, String)}.
+	 */
+	private static final int MAX_SOURCE_CACHES = 16;
+
+	private static class RegExpSourceListCache {
 
-		public ICompiledRule A0_G0;
-		public ICompiledRule A0_G1;
-		public ICompiledRule A1_G0;
-		public ICompiledRule A1_G1;
+		public volatile ICompiledRule cached;
+		public volatile ICompiledRule A0_G0;
+		public volatile ICompiledRule A0_G1;
+		public volatile ICompiledRule A1_G0;
+		public volatile ICompiledRule A1_G1;
 
 	}
 
 	private final List<RegExpSource> _items;
 	private boolean _hasAnchors;
-	private ICompiledRule _cached;
-	private final RegExpSourceListAnchorCache _anchorCache;
+	private volatile RegExpSourceListCache _cache;
+
+	/**
+	 * The compiled rules of the replaced sources by source, the least recently used first, null until a source is
+	 * replaced.
+	 */
+	private Map<String, RegExpSourceListCache> _sourceCaches;
 
 	public RegExpSourceList() {
 		this._items = new ArrayList<>();
 		this._hasAnchors = false;
-		this._cached = null;
-		this._anchorCache = new RegExpSourceListAnchorCache();
+		this._cache = new RegExpSourceListCache();
 	}
 
 	public void push(RegExpSource item) {
@@ -64,81 +81,98 @@ public int length() {
 		return this._items.size();
 	}
 
-	public void setSource(int index, String newSource) {
+	public synchronized void setSource(int index, String newSource) {
 		RegExpSource r = this._items.get(index);
-		if (!r.getSource().equals(newSource)) {
-			// bust the cache
-			this._cached = null;
-			this._anchorCache.A0_G0 = null;
-			this._anchorCache.A0_G1 = null;
-			this._anchorCache.A1_G0 = null;
-			this._anchorCache.A1_G1 = null;
+		String oldSource = r.getSource();
+		if (!oldSource.equals(newSource)) {
+			if (this._sourceCaches == null) {
+				this._sourceCaches = new LinkedHashMap<>(MAX_SOURCE_CACHES, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<String, RegExpSourceListCache> eldest) {
+						return size() > MAX_SOURCE_CACHES;
+					}
+				};
+			}
+			// keep the compiled rules of the old source and reuse the ones of the new source if it was set before
+			RegExpSourceListCache cache = this._sourceCaches.remove(newSource);
+			this._sourceCaches.put(oldSource, this._cache);
+			this._cache = cache != null ? cache : new RegExpSourceListCache();
 			r.setSource(newSource);
 		}
 	}
 
 	public ICompiledRule compile(IRuleRegistry grammar, boolean allowA, boolean allowG) {
-		if (!this._hasAnchors) {
-			if (this._cached == null) {
-				List<String> regexps = new ArrayList<>();
-				for (RegExpSource regExpSource : _items) {
-					regexps.add(regExpSource.getSource());
+		ICompiledRule result = getCached(allowA, allowG);
+		if (result == null) {
+			synchronized (this) {
+				result = getCached(allowA, allowG);
+				if (result == null) {
+					result = this._hasAnchors ? this._resolveAnchors(grammar, allowA, allowG) : this._compile(grammar);
+					setCached(allowA, allowG, result);
 				}
-				this._cached = new ICompiledRule(createOnigScanner(regexps.toArray(new String[0])), getRules());
-			}
-			return this._cached;
-		} else {
-			if (this._anchorCache.A0_G0 == null) {
-				this._anchorCache.A0_G0 = (allowA == false && allowG == false) ? this._resolveAnchors(allowA, allowG)
-						: null;
 			}
-			if (this._anchorCache.A0_G1 == null) {
-				this._anchorCache.A0_G1 = (allowA == false && allowG == true) ? this._resolveAnchors(allowA, allowG)
-						: null;
-			}
-			if (this._anchorCache.A1_G0 == null) {
-				this._anchorCache.A1_G0 = (allowA == true && allowG == false) ? this._resolveAnchors(allowA, allowG)
-						: null;
-			}
-			if (this._anchorCache.A1_G1 == null) {
-				this._anchorCache.A1_G1 = (allowA == true && allowG == true) ? this._resolveAnchors(allowA, allowG)
-						: null;
+		}
+		return result;
+	}
+
+	private ICompiledRule getCached(boolean allowA, boolean allowG) {
+		RegExpSourceListCache cache = this._cache;
+		if (!this._hasAnchors) {
+			return cache.cached;
+		}
+		if (allowA) {
+			return allowG ? cache.A1_G1 : cache.A1_G0;
+		}
+		return allowG ? cache.A0_G1 : cache.A0_G0;
+	}
+
+	private void setCached(boolean allowA, boolean allowG, ICompiledRule compiled) {
+		RegExpSourceListCache cache = this._cache;
+		if (!this._hasAnchors) {
+			cache.cached = compiled;
+		} else if (allowA) {
+			if (allowG) {
+				cache.A1_G1 = compiled;
+			} else {
+				cache.A1_G0 = compiled;
 			}
-			if (allowA) {
-				if (allowG) {
-					return this._anchorCache.A1_G1;
-				} else {
-					return this._anchorCache.A1_G0;
-				}
+		} else {
+			if (allowG) {
+				cache.A0_G1 = compiled;
 			} else {
-				if (allowG) {
-					return this._anchorCache.A0_G1;
-				} else {
-					return this._anchorCache.A0_G0;
-				}
+				cache.A0_G0 = compiled;
 			}
 		}
-
 	}
 
-	private ICompiledRule _resolveAnchors(boolean allowA, boolean allowG) {
+	private ICompiledRule _compile(IRuleRegistry grammar) {
 		List<String> regexps = new ArrayList<>();
 		for (RegExpSource regExpSource : _items) {
-			regexps.add(regExpSource.resolveAnchors(allowA, allowG));
+			regexps.add(regExpSource.getSource());
 		}
-		return new ICompiledRule(createOnigScanner(regexps.toArray(new String[0])), getRules());
+		int[] rules = getRules();
+		String[] sources = regexps.toArray(new String[0]);
+		return new ICompiledRule(grammar.createOnigScanner(sources, rules), rules, sources);
 	}
 
-	private OnigScanner createOnigScanner(String[] regexps) {
-		return new OnigScanner(regexps);
+	private ICompiledRule _resolveAnchors(IRuleRegistry grammar, boolean allowA, boolean allowG) {
+		List<String> regexps = new ArrayList<>();
+		for (RegExpSource regExpSource : _items) {
+			regexps.add(regExpSource.resolveAnchors(allowA, allowG));
+		}
+		int[] rules = getRules();
+		String[] sources = regexps.toArray(new String[0]);
+		return new ICompiledRule(grammar.createOnigScanner(sources, rules), rules, sources);
 	}
 
-	private Integer[] getRules() {
-		Collection<Integer> ruleIds = new ArrayList<>();
-		for (RegExpSource item : this._items) {
-			ruleIds.add(item.getRuleId());
+	private int[] getRules() {
+		int[] ruleIds = new int[this._items.size()];
+		for (int i = 0; i < ruleIds.length; i++) {
+			ruleIds[i] = this._items.get(i).getRuleId();
 		}
-		return ruleIds.toArray(new Integer[0]);
+		return ruleIds;
 	}
 
 }
@@ -17,38 +17,58 @@
 package org.eclipse.tm4e.core.internal.rule;
 
 import org.eclipse.tm4e.core.internal.oniguruma.IOnigCaptureIndex;
+import org.eclipse.tm4e.core.internal.utils.CaptureTemplate;
 import org.eclipse.tm4e.core.internal.utils.RegexSource;
 
 public abstract class Rule {
 
 	public final int id;
 
-	private final boolean nameIsCapturing;
+	/**
+	 * The name and the content name, with their parsed templates if they reference captures (null otherwise).
+	 */
 	private final String name;
+	private final CaptureTemplate nameTemplate;
 
-	private final boolean contentNameIsCapturing;
 	private final String contentName;
+	private final CaptureTemplate contentNameTemplate;
 
 	public Rule(int id, String name, String contentName) {
 		this.id = id;
 		this.name = name;
-		this.nameIsCapturing = RegexSource.hasCaptures(this.name);
+		this.nameTemplate = RegexSource.hasCaptures(this.name) ? CaptureTemplate.ofName(this.name) : null;
 		this.contentName = contentName;
-		this.contentNameIsCapturing = RegexSource.hasCaptures(this.contentName);
+		this.contentNameTemplate = RegexSource.hasCaptures(this.contentName)
+				? CaptureTemplate.ofName(this.contentName)
+				: null;
 	}
 
 	public String getName(String lineText, IOnigCaptureIndex[] captureIndices) {
-		if (!this.nameIsCapturing) {
+		if (this.nameTemplate == null) {
 			return this.name;
 		}
-		return RegexSource.replaceCaptures(this.name, lineText, captureIndices);
+		return this.nameTemplate.resolve(lineText, captureIndices);
 	}
 
 	public String getContentName(String lineText, IOnigCaptureIndex[] captureIndices) {
-		if (!this.contentNameIsCapturing) {
+		if (this.contentNameTemplate == null) {
 			return this.contentName;
 		}
-		return RegexSource.replaceCaptures(this.contentName, lineText, captureIndices);
+		return this.contentNameTemplate.resolve(lineText, captureIndices);
+	}
+
+	/**
+	 * Returns the name if it does not reference captures, null otherwise.
+	 */
+	public String getStaticName() {
+		return this.nameTemplate == null ? this.name : null;
+	}
+
+	/**
+	 * Returns the content name if it does not reference captures, null otherwise.
+	 */
+	public String getStaticContentName() {
+		return this.contentNameTemplate == null ? this.contentName : null;
 	}
 
 	public abstract void collectPatternsRecursive(IRuleRegistry grammar, RegExpSourceList out, boolean isFirst);
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.utils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.tm4e.core.internal.oniguruma.IOnigCaptureIndex;
+
+/**
+ * A string referencing the captures of a match, parsed once: a scope name with $1 or ${1:/downcase} (see
+ * {@link #ofName(String)}) or a regexp with back references \1 (see {@link #ofBackReferences(String)}).
+ * <p>
+ * The last resolved strings are cached by captured text, since a rule mostly matches the same few texts (e.g. the tag
+ * names or the heredoc delimiters of a document). The template is shared by the threads tokenizing with the grammar:
+ * a cache entry is immutable, so a thread sees either no entry or a complete one.
+ * </p>
+ */
+public final class CaptureTemplate {
+
+	private static final Pattern BACK_REFERENCES = Pattern.compile("\\\\(\\d+)");
+
+	/**
+	 * The number of resolved strings kept by a template.
+	 */
+	private static final int CACHE_SIZE = 8;
+
+	/**
+	 * The operations applied to a captured text before it is inserted.
+	 */
+	private static final int NONE = 0;
+	private static final int DOWNCASE = 1;
+	private static final int UPCASE = 2;
+	private static final int ESCAPE = 3;
+
+	private static final class Entry {
+
+		/**
+		 * The captured text of each reference, null for a missing capture.
+		 */
+		private final String[] values;
+		private final String result;
+
+		private Entry(String[] values, String result) {
+			this.values = values;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * The literal texts of the template: texts[i] precedes the reference i, and the last text ends the template.
+	 */
+	private final String[] texts;
+
+	/**
+	 * The capture index of each reference, the operation applied to its captured text, and the text inserted when the
+	 * capture is missing.
+	 */
+	private final int[] captures;
+	private final int[] operations;
+	private final String[] missingTexts;
+
+	/**
+	 * The last resolved strings, replaced in the order they were added (first in, first out).
+	 */
+	private final Entry[] cache = new Entry[CACHE_SIZE];
+
+	/**
+	 * The index of the entry replaced by the next resolved string. It is neither volatile nor updated atomically:
+	 * threads racing on it may replace the same entry or skip one, which only costs a cache miss later since the
+	 * entries are immutable.
+	 */
+	private int nextEntry;
+
+	private CaptureTemplate(String[] texts, int[] captures, int[] operations, String[] missingTexts) {
+		this.texts = texts;
+		this.captures = captures;
+		this.operations = operations;
+		this.missingTexts = missingTexts;
+	}
+
+	/**
+	 * Parses a scope name, whose references to a missing capture are kept as they are.
+	 */
+	public static CaptureTemplate ofName(String name) {
+		return parse(name, RegexSource.CAPTURING_REGEX_SOURCE, false);
+	}
+
+	/**
+	 * Parses a regexp whose back references are replaced by the escaped captured texts, by nothing for a missing
+	 * capture.
+	 */
+	public static CaptureTemplate ofBackReferences(String regExpSource) {
+		return parse(regExpSource, BACK_REFERENCES, true);
+	}
+
+	private static CaptureTemplate parse(String source, Pattern referencePattern, boolean backReferences) {
+		Matcher m = referencePattern.matcher(source);
+		int count = 0;
+		while (m.find()) {
+			count++;
+		}
+		String[] texts = new String[count + 1];
+		int[] captures = new int[count];
+		int[] operations = new int[count];
+		String[] missingTexts = new String[count];
+		m.reset();
+		int textStart = 0;
+		for (int i = 0; m.find(); i++) {
+			texts[i] = source.substring(textStart, m.start());
+			textStart = m.end();
+			if (backReferences) {
+				captures[i] = parseIndex(m.group(1));
+				operations[i] = ESCAPE;
+				missingTexts[i] = "";
+			} else if (m.group(1) != null) {
+				captures[i] = parseIndex(m.group(1));
+				operations[i] = NONE;
+				missingTexts[i] = m.group();
+			} else {
+				captures[i] = parseIndex(m.group(2));
+				operations[i] = "downcase".equals(m.group(3)) ? DOWNCASE : UPCASE;
+				missingTexts[i] = m.group();
+			}
+		}
+		texts[count] = source.substring(textStart);
+		return new CaptureTemplate(texts, captures, operations, missingTexts);
+	}
+
+	private static int parseIndex(String digits) {
+		try {
+			return Integer.parseInt(digits);
+		} catch (NumberFormatException e) {
+			// no such capture
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Returns the template with the references replaced by the texts captured in the given line.
+	 */
+	public String resolve(String lineText, IOnigCaptureIndex[] captureIndices) {
+		for (Entry entry : cache) {
+			if (entry != null && isCapturedBy(entry, lineText, captureIndices)) {
+				return entry.result;
+			}
+		}
+
+		String[] values = new String[captures.length];
+		StringBuilder result = new StringBuilder(texts[0]);
+		for (int i = 0; i < captures.length; i++) {
+			IOnigCaptureIndex capture = captures[i] < captureIndices.length ? captureIndices[captures[i]] : null;
+			if (capture == null) {
+				result.append(missingTexts[i]);
+			} else {
+				values[i] = lineText.substring(capture.getStart(), capture.getEnd());
+				appendValue(result, values[i], operations[i]);
+			}
+			result.append(texts[i + 1]);
+		}
+		Entry entry = new Entry(values, result.toString());
+		int index = nextEntry;
+		cache[index] = entry;
+		nextEntry = (index + 1) % CACHE_SIZE;
+		return entry.result;
+	}
+
+	private boolean isCapturedBy(Entry entry, String lineText, IOnigCaptureIndex[] captureIndices) {
+		for (int i = 0; i < captures.length; i++) {
+			IOnigCaptureIndex capture = captures[i] < captureIndices.length ? captureIndices[captures[i]] : null;
+			String value = entry.values[i];
+			if (capture == null || value == null) {
+				if ((capture == null) != (value == null)) {
+					return false;
+				}
+			} else if (value.length() != capture.getLength()
+					|| !lineText.regionMatches(capture.getStart(), value, 0, value.length())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void appendValue(StringBuilder result, String value, int operation) {
+		if (operation == ESCAPE) {
+			for (int i = 0; i < value.length(); i++) {
+				char ch = value.charAt(i);
+				if (isRegExpCharacter(ch)) {
+					result.append('\\');
+				}
+				result.append(ch);
+			}
+			return;
+		}
+		// Remove leading dots that would make the selector invalid
+		int start = 0;
+		while (start < value.length() && value.charAt(start) == '.') {
+			start++;
+		}
+		String name = value.substring(start);
+		if (operation == DOWNCASE) {
+			result.append(name.toLowerCase());
+		} else if (operation == UPCASE) {
+			result.append(name.toUpperCase());
+		} else {
+			result.append(name);
+		}
+	}
+
+	private static boolean isRegExpCharacter(char ch) {
+		switch (ch) {
+		case '-': case '\\': case '{': case '}': case '*': case '+': case '?': case '|': case '^': case '$': case '.':
+		case ',': case '[': case ']': case '(': case ')': case '#':
+		// the whitespaces of \s
+		case ' ': case '\t': case '\n': case '\u000B': case '\f': case '\r':
+			return true;
+		default:
+			return false;
+		}
+	}
+}
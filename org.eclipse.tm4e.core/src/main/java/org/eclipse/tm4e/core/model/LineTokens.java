@@ -18,12 +18,29 @@
 
 import java.util.List;
 
+import org.eclipse.tm4e.core.grammar.ITokenizeLinePartResult;
+
 public class LineTokens {
 
 	List<TMToken> tokens;
 	int actualStopOffset;
 	TMState endState;
 
+	/**
+	 * True if the tokenization of the line stopped before its end, see
+	 * {@link org.eclipse.tm4e.core.grammar.ITokenizeLineResult#isStoppedEarly()}.
+	 */
+	boolean stoppedEarly;
+
+	/**
+	 * The part of the line tokenized last if the tokenization paused before the end of the line, with the line and
+	 * its start state to check that it can be resumed, see
+	 * {@link Tokenizer#tokenizeResumable(String, TMState, LineTokens, java.time.Duration)}.
+	 */
+	ITokenizeLinePartResult pausedPart;
+	String pausedLine;
+	TMState pausedState;
+
 	public LineTokens(List<TMToken> tokens, int actualStopOffset, TMState endState) {
 		this.tokens = tokens;
 		this.actualStopOffset = actualStopOffset;
@@ -41,4 +58,16 @@ public void setEndState(TMState endState) {
 	public List<TMToken> getTokens() {
 		return tokens;
 	}
+
+	public boolean isStoppedEarly() {
+		return stoppedEarly;
+	}
+
+	/**
+	 * Returns true if the tokenization of the line paused before its end: the tokens only cover the line up to the
+	 * actual stop offset.
+	 */
+	public boolean isPaused() {
+		return pausedPart != null;
+	}
 }
@@ -17,8 +17,12 @@ public class ModelLine {
 
 	//String text;
 	boolean isInvalid;
+	/** true if the last tokenization of the line stopped before its end */
+	boolean isDegraded;
 	TMState state;
 	List<TMToken> tokens;
+	/** the tokens of the line up to its pause if its tokenization paused before its end, to resume it */
+	LineTokens pausedTokens;
 
 	public ModelLine(/*String text*/) {
 		//this.text = text;
@@ -27,6 +31,7 @@ public ModelLine(/*String text*/) {
 	public void resetTokenizationState() {
 		this.state = null;
 		this.tokens = null;
+		this.pausedTokens = null;
 	}
 
 	public TMState getState() {
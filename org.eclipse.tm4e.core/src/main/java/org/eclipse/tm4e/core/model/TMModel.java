@@ -14,6 +14,7 @@
 import static java.lang.System.Logger.Level.*;
 
 import java.lang.System.Logger;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -31,6 +32,12 @@ public class TMModel implements ITMModel {
 
 	private static final Logger LOGGER = System.getLogger(TMModel.class.getName());
 
+	/**
+	 * The default maximum duration of the tokenization of a line, so that a pathological line doesn't stall the
+	 * tokenization of the lines behind it.
+	 */
+	public static final Duration DEFAULT_LINE_TIME_LIMIT = Duration.ofMillis(500);
+
 	/**
 	 * The TextMate grammar to use to parse for each lines of the document the
 	 * TextMate tokens.
@@ -42,6 +49,8 @@ public class TMModel implements ITMModel {
 
 	Tokenizer tokenizer;
 
+	private Duration lineTimeLimit = DEFAULT_LINE_TIME_LIMIT;
+
 	/** The background thread. */
 	private TokenizerThread fThread;
 
@@ -66,6 +75,12 @@ public TMModel(IModelLines lines) {
 	 *
 	 */
 	static class TokenizerThread extends Thread {
+		/**
+		 * The maximum time in ms of a tokenization of lines in background, after which the next lines are
+		 * tokenized later.
+		 */
+		private static final long MAX_ALLOWED_TIME = 20;
+
 		private final TMModel model;
 		private TMState lastState;
 
@@ -122,7 +137,6 @@ private void revalidateTokensNow(int startLine, Integer toLineIndexOrNull) {
 
 				long tokenizedChars = 0;
 				long currentCharsToTokenize = 0;
-				final long MAX_ALLOWED_TIME = 20;
 				long currentEstimatedTimeToTokenize = 0;
 				long elapsedTime;
 				long startTime = System.currentTimeMillis();
@@ -157,7 +171,12 @@ private void revalidateTokensNow(int startLine, Integer toLineIndexOrNull) {
 						}
 					}
 
-					lineIndex = this.updateTokensInRange(eventBuilder, lineIndex, lineIndex) + 1;
+					int updatedLineIndex = lineIndex;
+					lineIndex = this.updateTokensInRange(eventBuilder, lineIndex, lineIndex, true) + 1;
+					if (model.lines.get(updatedLineIndex).isInvalid) {
+						// the tokenization of the line paused, it is resumed later
+						return;
+					}
 					tokenizedChars += currentCharsToTokenize;
 				}
 			});
@@ -169,10 +188,11 @@ private void revalidateTokensNow(int startLine, Integer toLineIndexOrNull) {
 		 * @param eventBuilder
 		 * @param startIndex 0-based
 		 * @param endLineIndex 0-based
-		 * @param emitEvents
+		 * @param allowPause true to tokenize a long line in several parts, each within {@link #MAX_ALLOWED_TIME}
 		 * @return the first line index (0-based) that was NOT processed by this operation
 		 */
-		private int updateTokensInRange(ModelTokensChangedEventBuilder eventBuilder, int startIndex, int endLineIndex) {
+		private int updateTokensInRange(ModelTokensChangedEventBuilder eventBuilder, int startIndex, int endLineIndex,
+				boolean allowPause) {
 			int stopLineTokenizationAfter = 1000000000; // 1 billion, if a line is
 														// so long, you have other
 														// trouble :).
@@ -186,12 +206,24 @@ private int updateTokensInRange(ModelTokensChangedEventBuilder eventBuilder, int
 				ModelLine modeLine = model.lines.get(lineIndex);
 				try {
 					text = model.lines.getLineText(lineIndex);
-					// Tokenize only the first X characters
-					r = model.tokenizer.tokenize(text, modeLine.getState(), 0, stopLineTokenizationAfter);
+					if (allowPause) {
+						r = model.tokenizer.tokenizeResumable(text, modeLine.getState(), modeLine.pausedTokens,
+								Duration.ofMillis(MAX_ALLOWED_TIME));
+					} else {
+						// Tokenize only the first X characters
+						r = model.tokenizer.tokenize(text, modeLine.getState(), 0, stopLineTokenizationAfter);
+					}
 				} catch (Exception ex) {
 					LOGGER.log(ERROR, ex.getMessage());
 				}
 
+				boolean paused = r != null && r.isPaused();
+				modeLine.pausedTokens = paused ? r : null;
+				if (paused) {
+					// publish the tokens of the line up to the pause now, the paused tokens are kept to be resumed
+					r = new LineTokens(new ArrayList<>(r.tokens), r.actualStopOffset, r.endState);
+				}
+
 				if (r != null && r.tokens != null && !r.tokens.isEmpty()) {
 					// Cannot have a stop offset before the last token
 					r.actualStopOffset = Math.max(r.actualStopOffset, r.tokens.get(r.tokens.size() - 1).startIndex + 1);
@@ -210,6 +242,15 @@ private int updateTokensInRange(ModelTokensChangedEventBuilder eventBuilder, int
 				modeLine.setTokens(r.tokens);
 				eventBuilder.registerChangedTokens(lineIndex + 1);
 				modeLine.isInvalid = false;
+				modeLine.isDegraded = r.stoppedEarly;
+				if (r.stoppedEarly) {
+					LOGGER.log(WARNING, "Time limit reached when tokenizing line " + (lineIndex + 1));
+				}
+				if (paused) {
+					// the end state of the line is not known yet, the next lines are tokenized once it is
+					model.invalidateLine(lineIndex);
+					break;
+				}
 
 				if (endStateIndex < model.lines.getNumberOfLines()) {
 					ModelLine endStateLine = model.lines.get(endStateIndex);
@@ -249,7 +290,7 @@ public IGrammar getGrammar() {
 	public void setGrammar(IGrammar grammar) {
 		if (!Objects.equals(grammar, this.grammar)) {
 			this.grammar = grammar;
-			this.tokenizer = new Tokenizer(grammar);
+			this.tokenizer = new Tokenizer(grammar, lineTimeLimit);
 			lines.get(0).setState(tokenizer.getInitialState());
 		}
 	}
@@ -313,7 +354,7 @@ private void emit(ModelTokensChangedEvent e) {
 	@Override
 	public void forceTokenization(int lineNumber) {
 		this.buildEventWithCallback(eventBuilder ->
-			this.fThread.updateTokensInRange(eventBuilder, lineNumber, lineNumber)
+			this.fThread.updateTokensInRange(eventBuilder, lineNumber, lineNumber, false)
 		);
 	}
 
@@ -326,6 +367,25 @@ public boolean isLineInvalid(int lineNumber) {
 		return lines.get(lineNumber).isInvalid;
 	}
 
+	/**
+	 * Returns true if the last tokenization of the given line stopped before its end because it exceeded the line time
+	 * limit, in which case the rest of the line is one token and the next line starts with the state of this line.
+	 */
+	public boolean isLineDegraded(int lineNumber) {
+		return lines.get(lineNumber).isDegraded;
+	}
+
+	/**
+	 * Sets the maximum duration of the tokenization of a line, null for no limit. Defaults to
+	 * {@link #DEFAULT_LINE_TIME_LIMIT}.
+	 */
+	public void setLineTimeLimit(Duration lineTimeLimit) {
+		this.lineTimeLimit = lineTimeLimit;
+		if (tokenizer != null) {
+			tokenizer.setTimeLimit(lineTimeLimit);
+		}
+	}
+
 	void invalidateLine(int lineIndex) {
 		this.lines.get(lineIndex).isInvalid = true;
 		this.invalidLines.add(lineIndex);
@@ -16,23 +16,40 @@
  */
 package org.eclipse.tm4e.core.model;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import org.eclipse.tm4e.core.grammar.IGrammar;
 import org.eclipse.tm4e.core.grammar.IToken;
 import org.eclipse.tm4e.core.grammar.ITokenizeLineResult;
+import org.eclipse.tm4e.core.grammar.ITokenizeLinePartResult;
 
 public class Tokenizer implements ITokenizationSupport {
 
 	private final IGrammar grammar;
 	private final DecodeMap decodeMap;
+	private Duration timeLimit;
 
 	public Tokenizer(IGrammar grammar) {
+		this(grammar, null);
+	}
+
+	/**
+	 * @param timeLimit
+	 *            the maximum duration of the tokenization of a line, or null for no limit.
+	 */
+	public Tokenizer(IGrammar grammar, Duration timeLimit) {
 		this.grammar = grammar;
 		this.decodeMap = new DecodeMap();
+		this.timeLimit = timeLimit;
+	}
+
+	public void setTimeLimit(Duration timeLimit) {
+		this.timeLimit = timeLimit;
 	}
 
 	@Override
@@ -62,14 +79,75 @@ public LineTokens tokenize(String line, TMState state, Integer offsetDelta, Inte
 		// );
 		// }
 		TMState freshState = state != null ? state.clone() : getInitialState();
-		ITokenizeLineResult textMateResult = grammar.tokenizeLine(line, freshState.getRuleStack());
-		freshState.setRuleStack(textMateResult.getRuleStack());
+		if (stopAtOffset != null && stopAtOffset - offsetDelta < line.length()) {
+			ITokenizeLinePartResult textMateResult = grammar.tokenizeLinePart(line, freshState.getRuleStack(),
+					Math.max(stopAtOffset - offsetDelta, 0), null, timeLimit);
+			return createLineTokens(line, freshState, offsetDelta, textMateResult, new ArrayList<>());
+		}
+		ITokenizeLineResult textMateResult = grammar.tokenizeLine(line, freshState.getRuleStack(), timeLimit);
+		// when the tokenization stopped early, the state at the stop may be wrong: keep the state at the line start
+		if (!textMateResult.isStoppedEarly()) {
+			freshState.setRuleStack(textMateResult.getRuleStack());
+		}
 
 		// Create the result early and fill in the tokens later
 		List<TMToken> tokens = new ArrayList<>();
-		String lastTokenType = null;
-		for (int tokenIndex = 0, len = textMateResult.getTokens().length; tokenIndex < len; tokenIndex++) {
-			IToken token = textMateResult.getTokens()[tokenIndex];
+		addTokens(tokens, textMateResult.getTokens(), offsetDelta);
+		LineTokens result = new LineTokens(tokens, offsetDelta + line.length(), freshState);
+		result.stoppedEarly = textMateResult.isStoppedEarly();
+		return result;
+
+	}
+
+	/**
+	 * Tokenizes the given line until its end or until the given time budget is spent, resuming the tokenization of
+	 * the line paused by a previous call if the line and its start state are the same.
+	 *
+	 * @param pausedTokens
+	 *            the result of the previous call for the line, or null.
+	 * @param timeBudget
+	 *            the time after which the tokenization pauses, see {@link LineTokens#isPaused()}.
+	 * @return the tokens of the line up to its end or up to the pause, with the end state of the line or the given
+	 *         state if the tokenization paused.
+	 */
+	public LineTokens tokenizeResumable(String line, TMState state, LineTokens pausedTokens, Duration timeBudget) {
+		TMState freshState = state != null ? state.clone() : getInitialState();
+		if (pausedTokens != null && pausedTokens.isPaused() && line.equals(pausedTokens.pausedLine)
+				&& Objects.equals(state, pausedTokens.pausedState)) {
+			ITokenizeLinePartResult textMateResult = grammar.resumeLinePart(pausedTokens.pausedPart,
+					Integer.MAX_VALUE, timeBudget, timeLimit);
+			return createLineTokens(line, freshState, 0, textMateResult, new ArrayList<>(pausedTokens.tokens));
+		}
+		ITokenizeLinePartResult textMateResult = grammar.tokenizeLinePart(line, freshState.getRuleStack(),
+				Integer.MAX_VALUE, timeBudget, timeLimit);
+		return createLineTokens(line, freshState, 0, textMateResult, new ArrayList<>());
+	}
+
+	private LineTokens createLineTokens(String line, TMState freshState, int offsetDelta,
+			ITokenizeLinePartResult textMateResult, List<TMToken> tokens) {
+		addTokens(tokens, textMateResult.getTokens(), offsetDelta);
+		LineTokens result;
+		if (textMateResult.isPaused()) {
+			// the state of a paused line is the state at its start, the line is resumed with it
+			result = new LineTokens(tokens, offsetDelta + textMateResult.getStopOffset(), freshState);
+			result.pausedPart = textMateResult;
+			result.pausedLine = line;
+			result.pausedState = freshState.clone();
+		} else {
+			// when the tokenization stopped early, the state at the stop may be wrong: keep the state at the line start
+			if (!textMateResult.isStoppedEarly()) {
+				freshState.setRuleStack(textMateResult.getRuleStack());
+			}
+			result = new LineTokens(tokens, offsetDelta + line.length(), freshState);
+			result.stoppedEarly = textMateResult.isStoppedEarly();
+		}
+		return result;
+	}
+
+	private void addTokens(List<TMToken> tokens, IToken[] textMateTokens, int offsetDelta) {
+		String lastTokenType = tokens.isEmpty() ? null : tokens.get(tokens.size() - 1).type;
+		for (int tokenIndex = 0, len = textMateTokens.length; tokenIndex < len; tokenIndex++) {
+			IToken token = textMateTokens[tokenIndex];
 			int tokenStartIndex = token.getStartIndex();
 			String tokenType = decodeTextMateToken(this.decodeMap, token.getScopes().toArray(new String[0]));
 
@@ -80,8 +158,6 @@ public LineTokens tokenize(String line, TMState state, Integer offsetDelta, Inte
 				lastTokenType = tokenType;
 			}
 		}
-		return new LineTokens(tokens, offsetDelta + line.length(), freshState);
-
 	}
 
 	private String decodeTextMateToken(DecodeMap decodeMap, String[] scopes) {
@@ -52,5 +52,47 @@ default IRawTheme getTheme() {
 	InputStream getInputStream(String scopeName) throws IOException;
 	
 	Collection<String> getInjections(String scopeName);
-	
+
+	/**
+	 * Returns true if the regexps of a rule should be searched at once with a single alternation regex when they
+	 * allow it, instead of one after the other. Ignored with {@link #isRegExpProfiling()}, which times the search of
+	 * each regexp.
+	 */
+	default boolean isUnionRegExpSearch() {
+		return false;
+	}
+
+	/**
+	 * Returns true if each regexp should be compiled when it is first searched, instead of compiling all the regexps
+	 * of a rule when the rule is first used.
+	 */
+	default boolean isLazyRegExpCompilation() {
+		return false;
+	}
+
+	/**
+	 * Returns true if, with lazy compilation, the regexps should be precompiled by a low priority background thread.
+	 */
+	default boolean isBackgroundRegExpCompilation() {
+		return false;
+	}
+
+	/**
+	 * Returns true if the regexps should be matched against the UTF-16 chars of the lines, without the UTF-8 encoding
+	 * of each line and the mapping of the match offsets to UTF-16. The option is ignored, with a warning, if the
+	 * version of joni finds wrong matches in UTF-16 (e.g. joni 2.1.11): the lines are then matched in UTF-8.
+	 */
+	default boolean isUtf16RegExpMatching() {
+		return false;
+	}
+
+	/**
+	 * Returns true if the searches of each regexp should be counted and timed, see
+	 * {@link org.eclipse.tm4e.core.grammar.IGrammar#getRegExpProfiles()}. The regexps of a scanner are then searched
+	 * one after the other, even with {@link #isUnionRegExpSearch()}.
+	 */
+	default boolean isRegExpProfiling() {
+		return false;
+	}
+
 }
@@ -24,11 +24,15 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 import org.eclipse.tm4e.core.TMException;
 import org.eclipse.tm4e.core.grammar.IGrammar;
 import org.eclipse.tm4e.core.internal.grammar.reader.GrammarReader;
 import org.eclipse.tm4e.core.internal.grammars.SyncRegistry;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigRegExpCache;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScannerOptions;
 import org.eclipse.tm4e.core.internal.types.IRawGrammar;
 import org.eclipse.tm4e.core.theme.IRawTheme;
 import org.eclipse.tm4e.core.theme.Theme;
@@ -50,7 +54,11 @@ public Registry() {
 
 	public Registry(IRegistryOptions locator) {
 		this.locator = locator;
-		this.syncRegistry = new SyncRegistry(Theme.createFromRawTheme(locator.getTheme()));
+		this.syncRegistry = new SyncRegistry(Theme.createFromRawTheme(locator.getTheme()),
+				new OnigScannerOptions(locator.isUnionRegExpSearch(), locator.isLazyRegExpCompilation(),
+						locator.isBackgroundRegExpCompilation(),
+						locator.isUtf16RegExpMatching() && OnigRegExpCache.isUtf16Supported(),
+						locator.isRegExpProfiling()));
 	}
 
 	/**
@@ -156,6 +164,23 @@ public IGrammar grammarForScopeName(String scopeName, int initialLanguage, Map<S
 		return this.syncRegistry.grammarForScopeName(scopeName, initialLanguage, embeddedLanguages);
 	}
 
+	/**
+	 * Loads the grammars of the given scope names (see {@link #loadGrammar(String)}) and precompiles them in the
+	 * background on the given pool, see {@link IGrammar#precompile(ForkJoinPool)}.
+	 *
+	 * @return the future completed when the grammars are precompiled.
+	 */
+	public CompletableFuture<Void> precompile(Collection<String> scopeNames, ForkJoinPool pool) {
+		List<IGrammar> grammars = new ArrayList<>();
+		for (String scopeName : scopeNames) {
+			IGrammar grammar = loadGrammar(scopeName);
+			if (grammar != null) {
+				grammars.add(grammar);
+			}
+		}
+		return CompletableFuture.runAsync(() -> grammars.forEach(grammar -> grammar.precompile(pool)), pool);
+	}
+
 	public IRegistryOptions getLocator() {
 		return locator;
 	}
@@ -15,11 +15,11 @@
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.eclipse.tm4e.core.internal.utils.CompareUtils;
@@ -217,7 +217,7 @@ public Theme(ColorMap colorMap, ThemeTrieElementRule defaults, ThemeTrieElement
 		this.colorMap = colorMap;
 		this.root = root;
 		this.defaults = defaults;
-		this.cache = new HashMap<>();
+		this.cache = new ConcurrentHashMap<>();
 	}
 
 	public Set<String> getColorMap() {
@@ -233,10 +233,7 @@ public ThemeTrieElementRule getDefaults() {
 	}
 
 	public List<ThemeTrieElementRule> match(String scopeName) {
-		if (!this.cache.containsKey(scopeName)) {
-			this.cache.put(scopeName, this.root.match(scopeName));
-		}
-		return this.cache.get(scopeName);
+		return this.cache.computeIfAbsent(scopeName, this.root::match);
 	}
 
 	@Override
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.tm4e.core.grammar.IGrammar;
+import org.eclipse.tm4e.core.grammar.IToken;
+import org.eclipse.tm4e.core.grammar.ITokenizeLineResult;
+import org.eclipse.tm4e.core.grammar.StackElement;
+import org.eclipse.tm4e.core.registry.IRegistryOptions;
+import org.eclipse.tm4e.core.registry.Registry;
+
+/**
+ * Helper to load the grammars and the files of the test data (see {@link Data}) and to tokenize them.
+ *
+ */
+public final class DataHelper {
+
+	/**
+	 * Registry options with the regexp options to test, all disabled by default.
+	 */
+	public static class Options implements IRegistryOptions {
+
+		private boolean unionSearch;
+		private boolean lazyCompilation;
+		private boolean backgroundCompilation;
+		private boolean profiling;
+		private boolean utf16;
+
+		public Options unionSearch(boolean unionSearch) {
+			this.unionSearch = unionSearch;
+			return this;
+		}
+
+		public Options lazyCompilation(boolean lazyCompilation) {
+			this.lazyCompilation = lazyCompilation;
+			return this;
+		}
+
+		public Options backgroundCompilation(boolean backgroundCompilation) {
+			this.backgroundCompilation = backgroundCompilation;
+			return this;
+		}
+
+		public Options profiling(boolean profiling) {
+			this.profiling = profiling;
+			return this;
+		}
+
+		public Options utf16(boolean utf16) {
+			this.utf16 = utf16;
+			return this;
+		}
+
+		@Override
+		public String getFilePath(String scopeName) {
+			return null;
+		}
+
+		@Override
+		public InputStream getInputStream(String scopeName) {
+			return null;
+		}
+
+		@Override
+		public Collection<String> getInjections(String scopeName) {
+			return null;
+		}
+
+		@Override
+		public boolean isUnionRegExpSearch() {
+			return unionSearch;
+		}
+
+		@Override
+		public boolean isLazyRegExpCompilation() {
+			return lazyCompilation;
+		}
+
+		@Override
+		public boolean isBackgroundRegExpCompilation() {
+			return backgroundCompilation;
+		}
+
+		@Override
+		public boolean isRegExpProfiling() {
+			return profiling;
+		}
+
+		@Override
+		public boolean isUtf16RegExpMatching() {
+			return utf16;
+		}
+	}
+
+	private DataHelper() {
+	}
+
+	public static IGrammar loadGrammar(String path) throws Exception {
+		return new Registry().loadGrammarFromPathSync(path, Data.class.getResourceAsStream(path));
+	}
+
+	public static IGrammar loadGrammar(String path, IRegistryOptions options) throws Exception {
+		return new Registry(options).loadGrammarFromPathSync(path, Data.class.getResourceAsStream(path));
+	}
+
+	/**
+	 * Returns the lines of the given file, without their line terminator.
+	 */
+	public static List<String> readLines(String path) throws IOException {
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(Data.class.getResourceAsStream(path), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Tokenizes the given lines one after the other and returns their tokens as "start-end [scopes]" strings.
+	 */
+	public static List<String> tokenize(IGrammar grammar, List<String> lines) {
+		List<String> tokens = new ArrayList<>();
+		StackElement ruleStack = null;
+		for (String line : lines) {
+			ITokenizeLineResult lineTokens = grammar.tokenizeLine(line, ruleStack);
+			ruleStack = lineTokens.getRuleStack();
+			for (IToken token : lineTokens.getTokens()) {
+				tokens.add(token.getStartIndex() + "-" + token.getEndIndex() + " " + token.getScopes());
+			}
+		}
+		return tokens;
+	}
+}
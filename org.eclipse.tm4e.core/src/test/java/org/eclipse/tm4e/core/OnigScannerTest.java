@@ -0,0 +1,328 @@
+/**
+ *  Copyright (c) 2015-2017 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core;
+
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.tm4e.core.internal.oniguruma.IOnigCaptureIndex;
+import org.eclipse.tm4e.core.internal.oniguruma.IOnigNextMatchResult;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigNextMatchResult;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigRegExpProfile;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScanner;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScannerOptions;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigString;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+public class OnigScannerTest {
+
+	@Test
+	public void testFindNextMatch() {
+		OnigScanner scanner = new OnigScanner(new String[] { "c", "a(b)?" });
+		IOnigNextMatchResult result = scanner.findNextMatchSync("abc", 0);
+		assertEquals(1, result.getIndex());
+		IOnigCaptureIndex[] captures = result.getCaptureIndices();
+		assertEquals(2, captures.length);
+		assertEquals(0, captures[0].getStart());
+		assertEquals(2, captures[0].getEnd());
+		assertEquals(1, captures[1].getStart());
+		assertEquals(2, captures[1].getEnd());
+
+		result = scanner.findNextMatchSync("abc", 2);
+		assertEquals(0, result.getIndex());
+		assertEquals(2, result.getCaptureIndices()[0].getStart());
+		assertEquals(3, result.getCaptureIndices()[0].getEnd());
+
+		assertNull(scanner.findNextMatchSync("xyz", 0));
+	}
+
+	@Test
+	public void testFindNextMatchReusingResult() {
+		OnigScanner scanner = new OnigScanner(new String[] { "c", "a(b)?", "[éa]" });
+		OnigString line = new OnigString("éabcab");
+		OnigNextMatchResult result = new OnigNextMatchResult();
+
+		assertSame(result, scanner.findNextMatchSync(line, 0, result));
+		assertEquals(2, result.getIndex());
+		assertEquals(1, result.getCaptureCount());
+		assertEquals(0, result.getCaptureStarts()[0]);
+		assertEquals(1, result.getCaptureEnds()[0]);
+
+		assertSame(result, scanner.findNextMatchSync(line, 1, result));
+		assertEquals(1, result.getIndex());
+		assertEquals(2, result.getCaptureCount());
+		assertEquals(1, result.getCaptureStarts()[0]);
+		assertEquals(3, result.getCaptureEnds()[0]);
+		assertEquals(2, result.getCaptureStarts()[1]);
+		assertEquals(3, result.getCaptureEnds()[1]);
+		assertEquals(2, result.getCaptureIndices()[1].getStart());
+
+		assertSame(result, scanner.findNextMatchSync(line, 3, result));
+		assertEquals(0, result.getIndex());
+		assertEquals(1, result.getCaptureCount());
+		assertEquals(3, result.getCaptureStarts()[0]);
+		assertEquals(4, result.getCaptureEnds()[0]);
+		assertEquals(1, result.getCaptureIndices().length);
+
+		assertNull(scanner.findNextMatchSync(line, 6, result));
+	}
+
+	@Test
+	public void testFindNextMatchAfterOtherBestMatch() {
+		// the regexp of the last best match is searched first, the other regexps only up to its location
+		OnigScanner scanner = new OnigScanner(new String[] { "x", "b", "a", "[ab]b" });
+		assertEquals(2, scanner.findNextMatchSync("ab", 0).getIndex());
+		assertEquals(0, scanner.findNextMatchSync("xa", 0).getIndex());
+		assertEquals(1, scanner.findNextMatchSync("ba", 0).getIndex());
+		assertEquals(1, scanner.findNextMatchSync("bb", 1).getIndex());
+		IOnigNextMatchResult result = scanner.findNextMatchSync("cab", 0);
+		assertEquals(2, result.getIndex());
+		assertEquals(1, result.getCaptureIndices()[0].getStart());
+		result = scanner.findNextMatchSync("cbb", 0);
+		assertEquals(1, result.getIndex());
+		assertEquals(1, result.getCaptureIndices()[0].getStart());
+		assertNull(scanner.findNextMatchSync("cab", 3));
+	}
+
+	@Test
+	public void testMatchMemoSharedByScanners() {
+		// the same regexps in several scanners: the later scanners reuse the matches found on the line
+		String[] regexps = { "(a)(b)?", "c", "x" };
+		OnigRegExpProfile[] firstProfiles = profiles(regexps);
+		OnigRegExpProfile[] secondProfiles = profiles(regexps);
+		OnigScanner first = new OnigScanner(regexps, OnigScannerOptions.DEFAULT, firstProfiles);
+		OnigScanner second = new OnigScanner(new String[] { "x", "c", "(a)(b)?" }, OnigScannerOptions.DEFAULT,
+				secondProfiles);
+		OnigScanner reference = new OnigScanner(regexps);
+		String text = "cabca";
+		OnigString line = new OnigString(text);
+		for (int offset = 0; offset <= text.length(); offset++) {
+			OnigNextMatchResult expected = reference.findNextMatchSync(new OnigString(text), offset,
+					new OnigNextMatchResult());
+			OnigNextMatchResult actual = first.findNextMatchSync(line, offset, new OnigNextMatchResult());
+			OnigNextMatchResult memoized = second.findNextMatchSync(line, offset, new OnigNextMatchResult());
+			if (expected == null) {
+				assertNull(actual);
+				assertNull(memoized);
+				continue;
+			}
+			assertEquals(expected.getIndex(), actual.getIndex());
+			assertEquals(2 - expected.getIndex(), memoized.getIndex());
+			for (int i = 0; i < expected.getCaptureCount(); i++) {
+				assertEquals(expected.getCaptureStarts()[i], actual.getCaptureStarts()[i]);
+				assertEquals(expected.getCaptureEnds()[i], actual.getCaptureEnds()[i]);
+				assertEquals(expected.getCaptureStarts()[i], memoized.getCaptureStarts()[i]);
+				assertEquals(expected.getCaptureEnds()[i], memoized.getCaptureEnds()[i]);
+			}
+		}
+		assertEquals(0, firstProfiles[0].getMemoHitCount());
+		assertTrue(secondProfiles[2].getMemoHitCount() > 0);
+		assertTrue(secondProfiles[1].getMemoHitCount() > 0);
+	}
+
+	private static OnigRegExpProfile[] profiles(String[] regexps) {
+		OnigRegExpProfile[] profiles = new OnigRegExpProfile[regexps.length];
+		for (int i = 0; i < regexps.length; i++) {
+			profiles[i] = new OnigRegExpProfile(i, regexps[i]);
+		}
+		return profiles;
+	}
+
+	@Test
+	public void testUnionSearchFindsSameMatches() {
+		String[][] regexpsList = {
+				{ "c", "a(b)?", "[éa]" },
+				{ "\\G(x)", "(?<=a)(b)(c)?", "(?:ab|a)", "[\\]()](b)" },
+				{ "(?i)B(C)", "(a)(b)?(c)?|d", "(?#comment)e", "[[:alpha:]]" },
+				// back-references can't be embedded in a union: sequential search is used
+				{ "(a)\\1", "(?<name>b)", "a" } };
+		String[] lines = { "éabcab", "xxabcABCab", "a]bexd", "aab(b)bd" };
+		for (String[] regexps : regexpsList) {
+			OnigScanner sequential = new OnigScanner(regexps);
+			OnigScanner union = new OnigScanner(regexps, true);
+			for (String text : lines) {
+				OnigString line = new OnigString(text);
+				for (int offset = 0; offset <= text.length(); offset++) {
+					OnigNextMatchResult expected = sequential.findNextMatchSync(line, offset, new OnigNextMatchResult());
+					OnigNextMatchResult actual = union.findNextMatchSync(line, offset, new OnigNextMatchResult());
+					String message = String.join(" ", regexps) + " on '" + text + "' at " + offset;
+					if (expected == null) {
+						assertNull(actual, message);
+						continue;
+					}
+					assertEquals(expected.getIndex(), actual.getIndex(), message);
+					assertEquals(expected.getCaptureCount(), actual.getCaptureCount(), message);
+					for (int i = 0; i < expected.getCaptureCount(); i++) {
+						assertEquals(expected.getCaptureStarts()[i], actual.getCaptureStarts()[i], message);
+						assertEquals(expected.getCaptureEnds()[i], actual.getCaptureEnds()[i], message);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testUtf16SearchFindsSameMatches() {
+		String[][] regexpsList = {
+				{ "c", "a(b)?", "[éa]" },
+				{ "x", "b", "a", "[ab]b" },
+				{ "\\G(x)", "(?<=a)(b)(c)?", "😀(a)", "é+" },
+				{ "\\b(?:(import)|(from))\\b", "\\b(and|import|in)\\b", "$" } };
+		String[] lines = { "éabcab", "xxabcABCab\n", "😀abé😀ééb", "import a\n", "a 😀 from in\n" };
+		OnigScannerOptions utf16Options = new OnigScannerOptions(false, false, false, true);
+		for (String[] regexps : regexpsList) {
+			OnigScanner utf8 = new OnigScanner(regexps);
+			OnigScanner utf16 = new OnigScanner(regexps, utf16Options);
+			for (String text : lines) {
+				OnigString utf8Line = new OnigString(text);
+				OnigString utf16Line = new OnigString(text, true);
+				for (int offset = 0; offset <= text.length(); offset++) {
+					OnigNextMatchResult expected = utf8.findNextMatchSync(utf8Line, offset, new OnigNextMatchResult());
+					OnigNextMatchResult actual = utf16.findNextMatchSync(utf16Line, offset, new OnigNextMatchResult());
+					String message = String.join(" ", regexps) + " on '" + text + "' at " + offset;
+					if (expected == null) {
+						assertNull(actual, message);
+						continue;
+					}
+					assertEquals(expected.getIndex(), actual.getIndex(), message);
+					assertEquals(expected.getCaptureCount(), actual.getCaptureCount(), message);
+					for (int i = 0; i < expected.getCaptureCount(); i++) {
+						assertEquals(expected.getCaptureStarts()[i], actual.getCaptureStarts()[i], message);
+						assertEquals(expected.getCaptureEnds()[i], actual.getCaptureEnds()[i], message);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSearchersOfOtherThreads() throws Exception {
+		// more scanners than the searchers kept by a thread, so that they replace each other
+		List<OnigScanner> scanners = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			scanners.add(new OnigScanner(new String[] { "a", "b" + i + "\\b" }));
+		}
+		List<AssertionError> errors = new ArrayList<>();
+		Thread thread = new Thread(() -> {
+			try {
+				for (int round = 0; round < 2; round++) {
+					for (int i = 0; i < scanners.size(); i++) {
+						IOnigNextMatchResult result = scanners.get(i).findNextMatchSync("b" + i + " a", 0);
+						assertEquals(1, result.getIndex());
+						assertEquals(0, result.getCaptureIndices()[0].getStart());
+					}
+				}
+			} catch (AssertionError e) {
+				errors.add(e);
+			}
+		});
+		thread.start();
+		thread.join();
+		if (!errors.isEmpty()) {
+			throw errors.get(0);
+		}
+	}
+
+	/**
+	 * Scans raytracer.ts like the tokenizer does with scanners built from the match/begin regexps of the TypeScript
+	 * grammar (50 regexps per scanner, the size of the biggest source.ts scanners) and checks the union search finds
+	 * the same matches as the sequential search, which searches several regexps per scan where the union search does
+	 * one pass over the line (see {@link UnionSearchBenchmark} for their times).
+	 */
+	@Test
+	public void testUnionSearchOfGrammarRegexps() throws Exception {
+		List<String> regexps = readGrammarRegexps();
+		List<OnigString> lines = new ArrayList<>();
+		for (String line : readLines("raytracer.ts")) {
+			lines.add(new OnigString(line + "\n"));
+		}
+
+		long searches = 0;
+		int scans = 0;
+		OnigNextMatchResult expected = new OnigNextMatchResult();
+		OnigNextMatchResult actual = new OnigNextMatchResult();
+		for (int i = 0; i + 50 <= regexps.size(); i += 50) {
+			String[] scannerRegexps = regexps.subList(i, i + 50).toArray(new String[0]);
+			OnigRegExpProfile[] profiles = new OnigRegExpProfile[scannerRegexps.length];
+			for (int j = 0; j < profiles.length; j++) {
+				profiles[j] = new OnigRegExpProfile(j, scannerRegexps[j]);
+			}
+			OnigScanner sequential = new OnigScanner(scannerRegexps, OnigScannerOptions.DEFAULT, profiles);
+			OnigScanner union = new OnigScanner(scannerRegexps, true);
+			for (OnigString line : lines) {
+				int position = 0;
+				while (position <= line.string.length()) {
+					OnigNextMatchResult expectedMatch = sequential.findNextMatchSync(line, position, expected);
+					OnigNextMatchResult actualMatch = union.findNextMatchSync(line, position, actual);
+					scans++;
+					if (expectedMatch == null) {
+						assertNull(actualMatch);
+						break;
+					}
+					assertEquals(expectedMatch.getIndex(), actualMatch.getIndex());
+					assertEquals(expectedMatch.getCaptureCount(), actualMatch.getCaptureCount());
+					for (int j = 0; j < expectedMatch.getCaptureCount(); j++) {
+						assertEquals(expectedMatch.getCaptureStarts()[j], actualMatch.getCaptureStarts()[j]);
+						assertEquals(expectedMatch.getCaptureEnds()[j], actualMatch.getCaptureEnds()[j]);
+					}
+					position = Math.max(position + 1, expectedMatch.getCaptureEnds()[0]);
+				}
+			}
+			for (OnigRegExpProfile profile : profiles) {
+				searches += profile.getSearchCount() - profile.getMemoHitCount();
+			}
+		}
+		assertTrue(scans > lines.size());
+		// the sequential search needs several passes per scan
+		assertTrue(searches > 10L * scans, searches + " searches for " + scans + " scans");
+	}
+
+	/**
+	 * Returns the match/begin regexps of the TypeScript grammar.
+	 */
+	static List<String> readGrammarRegexps() throws Exception {
+		List<String> regexps = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				Data.class.getResourceAsStream("TypeScript.tmLanguage.json"), StandardCharsets.UTF_8))) {
+			collectRegexps(JsonParser.parseReader(reader), regexps);
+		}
+		return regexps;
+	}
+
+	private static void collectRegexps(JsonElement element, List<String> regexps) {
+		if (element.isJsonArray()) {
+			element.getAsJsonArray().forEach(child -> collectRegexps(child, regexps));
+		} else if (element.isJsonObject()) {
+			for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+				if (("match".equals(entry.getKey()) || "begin".equals(entry.getKey()))
+						&& entry.getValue().isJsonPrimitive()) {
+					regexps.add(entry.getValue().getAsString());
+				} else {
+					collectRegexps(entry.getValue(), regexps);
+				}
+			}
+		}
+	}
+}
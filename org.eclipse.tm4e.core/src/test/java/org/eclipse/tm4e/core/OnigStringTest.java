@@ -1,8 +1,16 @@
 package org.eclipse.tm4e.core;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.tm4e.core.internal.oniguruma.IOnigNextMatchResult;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScanner;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScannerOptions;
 import org.eclipse.tm4e.core.internal.oniguruma.OnigString;
 import org.junit.jupiter.api.Test;
 
@@ -54,4 +62,95 @@ public void testUtf8Utf16Conversions2() {
         }
 
 	}
+
+	@Test
+	public void testUtf16() {
+		OnigString onigString = new OnigString("my😀á", true);
+		assertTrue(onigString.isUtf16());
+		assertNull(onigString.utf8_value);
+		assertFalse(new OnigString("my😀á").isUtf16());
+
+		// UTF-16 offsets are used as is by the scanners, surrogate pairs included
+		OnigScanner scanner = new OnigScanner(new String[] { "á", "😀" }, new OnigScannerOptions(false, false, false, true));
+		IOnigNextMatchResult result = scanner.findNextMatchSync(onigString, 0);
+		assertEquals(1, result.getIndex());
+		assertEquals(2, result.getCaptureIndices()[0].getStart());
+		assertEquals(4, result.getCaptureIndices()[0].getEnd());
+		result = scanner.findNextMatchSync(onigString, 4);
+		assertEquals(0, result.getIndex());
+		assertEquals(4, result.getCaptureIndices()[0].getStart());
+		assertEquals(5, result.getCaptureIndices()[0].getEnd());
+		assertNull(scanner.findNextMatchSync(onigString, 5));
+	}
+
+	@Test
+	public void testUtf8Utf16ConversionsWithRuns() {
+		// runs of ASCII, 2, 3 and 4 bytes chars, and an unpaired surrogate encoded as '?'
+		String string = "ab\u00e9\u00e9c\u20ac\ud83d\ude00\ud83d\ude00d\ud83de\u00e9";
+		byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+		for (OnigString onigString : new OnigString[] { new OnigString(string), OnigString.acquire(string, false) }) {
+			for (int posInChars = 0; posInChars <= string.length(); posInChars++) {
+				if (posInChars < string.length() && Character.isLowSurrogate(string.charAt(posInChars))) {
+					// inside a surrogate pair
+					continue;
+				}
+				int posInBytes = string.substring(0, posInChars).getBytes(StandardCharsets.UTF_8).length;
+				assertEquals(posInBytes, onigString.convertUtf16OffsetToUtf8(posInChars));
+				assertEquals(posInChars, onigString.convertUtf8OffsetToUtf16(posInBytes));
+			}
+			// inside a surrogate pair
+			assertEquals(14, onigString.convertUtf16OffsetToUtf8(7));
+			assertEquals(6, onigString.convertUtf8OffsetToUtf16(11));
+			assertEquals(string.length(), onigString.convertUtf8OffsetToUtf16(utf8.length));
+			onigString.release();
+		}
+	}
+
+	@Test
+	public void testAcquire() {
+		OnigString line = OnigString.acquire("a\u00e9b a\u00e9b", false);
+		assertNull(line.utf8_value);
+		OnigScanner scanner = new OnigScanner(new String[] { "\u00e9b" });
+		assertEquals(1, scanner.findNextMatchSync(line, 0).getCaptureIndices()[0].getStart());
+
+		// a string acquired while another one is used doesn't share its buffer
+		OnigString capture = OnigString.acquire("b\u00e9b", false);
+		assertEquals(1, scanner.findNextMatchSync(capture, 0).getCaptureIndices()[0].getStart());
+		capture.release();
+		assertEquals(5, scanner.findNextMatchSync(line, 2).getCaptureIndices()[0].getStart());
+		line.release();
+
+		// a released buffer is reused for the next string
+		line = OnigString.acquire("\u00e9\u00e9\u00e9b", false);
+		assertEquals(2, scanner.findNextMatchSync(line, 0).getCaptureIndices()[0].getStart());
+		line.release();
+	}
+
+	@Test
+	public void testAcquirePrefix() {
+		for (boolean utf16 : new boolean[] { false, true }) {
+			OnigString line = OnigString.acquire("a\u00e9b\ud83d\ude00b a\u00e9b\n", utf16);
+			OnigScanner scanner = new OnigScanner(new String[] { "b$" },
+					new OnigScannerOptions(false, false, false, utf16));
+			assertEquals(9, scanner.findNextMatchSync(line, 0).getCaptureIndices()[0].getStart());
+
+			// the prefix is searched like a string of its own, its end matches '$'
+			OnigString prefix = line.acquirePrefix(6);
+			assertEquals(6, prefix.length());
+			assertEquals(line.string, prefix.string);
+			IOnigNextMatchResult result = scanner.findNextMatchSync(prefix, 0);
+			assertEquals(5, result.getCaptureIndices()[0].getStart());
+			assertEquals(6, result.getCaptureIndices()[0].getEnd());
+
+			// a prefix of a prefix
+			OnigString prefix2 = prefix.acquirePrefix(3);
+			assertEquals(2, scanner.findNextMatchSync(prefix2, 0).getCaptureIndices()[0].getStart());
+			assertNull(scanner.findNextMatchSync(prefix2, 3));
+			prefix2.release();
+			prefix.release();
+
+			assertEquals(9, scanner.findNextMatchSync(line, 0).getCaptureIndices()[0].getStart());
+			line.release();
+		}
+	}
 }
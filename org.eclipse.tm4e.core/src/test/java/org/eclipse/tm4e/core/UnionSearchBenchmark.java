@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core;
+
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.tm4e.core.internal.oniguruma.OnigNextMatchResult;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScanner;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigString;
+
+/**
+ * Benchmark of the union search of the regexps of a scanner (one pass over the line per scan) against their
+ * sequential search (up to one pass per regexp), with scanners of 50 match/begin regexps of the TypeScript grammar
+ * scanning raytracer.ts, see {@link OnigScannerTest#testUnionSearchOfGrammarRegexps()}.
+ */
+public class UnionSearchBenchmark {
+
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		List<String> regexps = OnigScannerTest.readGrammarRegexps();
+		List<OnigString> lines = new ArrayList<>();
+		for (String line : readLines("raytracer.ts")) {
+			lines.add(new OnigString(line + "\n"));
+		}
+		List<OnigScanner> sequentialScanners = new ArrayList<>();
+		List<OnigScanner> unionScanners = new ArrayList<>();
+		for (int i = 0; i + 50 <= regexps.size(); i += 50) {
+			String[] scannerRegexps = regexps.subList(i, i + 50).toArray(new String[0]);
+			sequentialScanners.add(new OnigScanner(scannerRegexps));
+			unionScanners.add(new OnigScanner(scannerRegexps, true));
+		}
+
+		long sequential = Long.MAX_VALUE;
+		long union = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			int scans = scan(sequentialScanners, lines);
+			sequential = Math.min(sequential, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			if (scan(unionScanners, lines) != scans) {
+				throw new IllegalStateException("different matches");
+			}
+			union = Math.min(union, System.nanoTime() - start);
+		}
+		System.out.println("Scans of raytracer.ts with " + sequentialScanners.size() + " scanners of 50 regexps, "
+				+ "sequential: " + (sequential / 1_000_000) + "ms, union: " + (union / 1_000_000) + "ms");
+	}
+
+	/**
+	 * Scans each line with each scanner from match to match, and returns the number of scans.
+	 */
+	private static int scan(List<OnigScanner> scanners, List<OnigString> lines) {
+		int scans = 0;
+		OnigNextMatchResult result = new OnigNextMatchResult();
+		for (OnigScanner scanner : scanners) {
+			for (OnigString line : lines) {
+				int position = 0;
+				while (position <= line.string.length()) {
+					scans++;
+					OnigNextMatchResult match = scanner.findNextMatchSync(line, position, result);
+					if (match == null) {
+						break;
+					}
+					position = Math.max(position + 1, match.getCaptureEnds()[0]);
+				}
+			}
+		}
+		return scans;
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.eclipse.tm4e.core.DataHelper.loadGrammar;
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the tokenization in binary format to a caller buffer.
+ *
+ */
+public class BinaryTokenBufferTest {
+
+	@Test
+	public void growAndClear() {
+		BinaryTokenBuffer buffer = new BinaryTokenBuffer(1);
+		for (int i = 0; i < 100; i++) {
+			buffer.add(i, -i);
+		}
+		assertEquals(100, buffer.getTokenCount());
+		assertEquals(42, buffer.getStartIndex(42));
+		assertEquals(-42, buffer.getMetadata(42));
+		assertArrayEquals(new int[] { 1, -1, 2, -2 }, buffer.toArray(1, 3));
+		buffer.removeLast();
+		assertEquals(99, buffer.getTokenCount());
+		assertThrows(IndexOutOfBoundsException.class, () -> buffer.getMetadata(99));
+
+		int[] array = buffer.getArray();
+		buffer.clear();
+		assertEquals(0, buffer.getTokenCount());
+		buffer.add(3, 4);
+		assertSame(array, buffer.getArray());
+		assertArrayEquals(new int[] { 3, 4 }, buffer.toArray());
+	}
+
+	@Test
+	public void sameTokensAsTokenizeLine2() throws Exception {
+		List<String> lines = readLines("raytracer.ts");
+		String path = "TypeScript.tmLanguage.json";
+		IGrammar grammar = loadGrammar(path);
+
+		BinaryTokenBuffer lineBuffer = new BinaryTokenBuffer();
+		BinaryTokenBuffer allLines = new BinaryTokenBuffer();
+		StackElement expectedState = null;
+		StackElement lineState = null;
+		StackElement allLinesState = null;
+		for (String line : lines) {
+			ITokenizeLineResult2 expected = grammar.tokenizeLine2(line, expectedState);
+			expectedState = expected.getRuleStack();
+
+			lineBuffer.clear();
+			lineState = grammar.tokenizeLine2(line, lineState, null, lineBuffer);
+			assertArrayEquals(expected.getTokens(), lineBuffer.toArray(), line);
+			assertFalse(lineBuffer.isStoppedEarly());
+			assertEquals(expectedState, lineState);
+
+			int firstToken = allLines.getTokenCount();
+			allLinesState = grammar.tokenizeLine2(line, allLinesState, null, allLines);
+			assertArrayEquals(expected.getTokens(), allLines.toArray(firstToken, allLines.getTokenCount()), line);
+		}
+	}
+}
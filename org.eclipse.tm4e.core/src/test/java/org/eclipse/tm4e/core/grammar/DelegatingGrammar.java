@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import java.util.Collection;
+
+/**
+ * Grammar implementing only the abstract methods of {@link IGrammar}, by delegating to another grammar, to test the
+ * default methods of {@link IGrammar} as used by the grammars of other bundles.
+ *
+ */
+public class DelegatingGrammar implements IGrammar {
+
+	private final IGrammar grammar;
+
+	public DelegatingGrammar(IGrammar grammar) {
+		this.grammar = grammar;
+	}
+
+	@Override
+	public String getName() {
+		return grammar.getName();
+	}
+
+	@Override
+	public String getScopeName() {
+		return grammar.getScopeName();
+	}
+
+	@Override
+	public Collection<String> getFileTypes() {
+		return grammar.getFileTypes();
+	}
+
+	@Override
+	public ITokenizeLineResult tokenizeLine(String lineText) {
+		return grammar.tokenizeLine(lineText);
+	}
+
+	@Override
+	public ITokenizeLineResult tokenizeLine(String lineText, StackElement prevState) {
+		return grammar.tokenizeLine(lineText, prevState);
+	}
+
+	@Override
+	public ITokenizeLineResult2 tokenizeLine2(String lineText) {
+		return grammar.tokenizeLine2(lineText);
+	}
+
+	@Override
+	public ITokenizeLineResult2 tokenizeLine2(String lineText, StackElement prevState) {
+		return grammar.tokenizeLine2(lineText, prevState);
+	}
+}
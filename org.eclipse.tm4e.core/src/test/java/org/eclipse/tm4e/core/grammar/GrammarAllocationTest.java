@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.tm4e.core.registry.Registry;
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Test for the allocations of the tokenization of a line.
+ *
+ */
+public class GrammarAllocationTest {
+
+	private static final String GRAMMAR = "{\"scopeName\": \"source.test\", \"patterns\": ["
+			+ "{\"begin\": \"\\\\{\", \"end\": \"\\\\}\", \"name\": \"block.test\", \"patterns\": ["
+			+ "{\"match\": \"(\\\\w+) (=)\", \"captures\": {\"1\": {\"name\": \"variable.test\"},"
+			+ " \"2\": {\"name\": \"operator.test\"}}},"
+			+ "{\"match\": \"\\\\w+\\\\((\\\\w+)\\\\)\", \"name\": \"call.test\","
+			+ " \"captures\": {\"1\": {\"name\": \"argument.test\"}}},"
+			+ "{\"match\": \";\", \"name\": \"punctuation.test\"}]}],"
+			+ "\"injections\": {\"source.test\": {\"patterns\": [{\"match\": \"#\", \"name\": \"hash.test\"}]}}}";
+
+	// scanned 8 times, with captures and an injection
+	private static final String SEGMENT = "a = f(1); b = g(x); # ";
+	private static final int SEGMENT_COUNT = 100;
+
+	@Test
+	public void noAllocationPerScan() throws Exception {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		assumeTrue(threadBean instanceof ThreadMXBean
+				&& ((ThreadMXBean) threadBean).isThreadAllocatedMemoryEnabled());
+		ThreadMXBean allocationBean = (ThreadMXBean) threadBean;
+		long threadId = Thread.currentThread().getId();
+
+		IGrammar grammar = new Registry().loadGrammarFromPathSync("test.json",
+				new ByteArrayInputStream(GRAMMAR.getBytes(StandardCharsets.UTF_8)));
+		// the lines are tokenized in the block pushed by the previous line
+		StackElement state = grammar.tokenizeLine2("{", null).getRuleStack();
+		String line = SEGMENT.repeat(SEGMENT_COUNT);
+		String longLine = SEGMENT.repeat(2 * SEGMENT_COUNT);
+		BinaryTokenBuffer buffer = new BinaryTokenBuffer();
+
+		// the first lines warm up the tokenizer of the thread and the caches of the grammar, the least allocations of
+		// each line are compared
+		long allocated = Long.MAX_VALUE;
+		long longAllocated = Long.MAX_VALUE;
+		for (int i = 0; i < 50; i++) {
+			buffer.clear();
+			long start = allocationBean.getThreadAllocatedBytes(threadId);
+			grammar.tokenizeLine2(line, state, null, buffer);
+			allocated = Math.min(allocated, allocationBean.getThreadAllocatedBytes(threadId) - start);
+
+			buffer.clear();
+			start = allocationBean.getThreadAllocatedBytes(threadId);
+			grammar.tokenizeLine2(longLine, state, null, buffer);
+			longAllocated = Math.min(longAllocated, allocationBean.getThreadAllocatedBytes(threadId) - start);
+		}
+
+		// the text of a line is copied once with its line feed, an object allocated by each scan would add more than
+		// 8 * 16 bytes per segment
+		long segmentAllocated = (longAllocated - allocated) / SEGMENT_COUNT;
+		assertTrue(segmentAllocated <= 2 * SEGMENT.length(), "allocated " + allocated + " bytes for a line, "
+				+ longAllocated + " bytes for a line twice as long");
+	}
+}
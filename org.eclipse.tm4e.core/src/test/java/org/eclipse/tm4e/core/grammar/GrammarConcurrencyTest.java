@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.eclipse.tm4e.core.DataHelper.loadGrammar;
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+import static org.eclipse.tm4e.core.DataHelper.tokenize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the tokenization of lines with the same grammar from several threads.
+ *
+ */
+public class GrammarConcurrencyTest {
+
+	private static final int THREAD_COUNT = 8;
+	private static final int ITERATION_COUNT = 3;
+
+	@Test
+	public void typeScript() throws Exception {
+		assertSameTokens("TypeScript.tmLanguage.json", "raytracer.ts");
+	}
+
+	@Test
+	public void markdown() throws Exception {
+		// the Markdown grammar has end and while patterns with back references
+		assertSameTokens("Markdown.tmLanguage", "test.md.txt");
+	}
+
+	private static void assertSameTokens(String grammarPath, String path) throws Exception {
+		List<String> lines = readLines(path);
+		List<String> expected = tokenize(loadGrammar(grammarPath), lines);
+
+		// the grammar is compiled by the threads racing to tokenize the first line
+		IGrammar grammar = loadGrammar(grammarPath);
+		ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<List<String>>> results = new ArrayList<>();
+			for (int i = 0; i < THREAD_COUNT; i++) {
+				results.add(executor.submit(() -> {
+					start.await();
+					List<String> tokens = null;
+					for (int j = 0; j < ITERATION_COUNT; j++) {
+						tokens = tokenize(grammar, lines);
+					}
+					return tokens;
+				}));
+			}
+			start.countDown();
+			for (Future<List<String>> result : results) {
+				assertEquals(expected, result.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -11,8 +11,10 @@
  */
 package org.eclipse.tm4e.core.grammar;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 
@@ -84,4 +86,32 @@ public String getFilePath(String scopeName) {
 			Assertions.assertEquals(EXPECTED_TOKENS[i], s);
 		}
 	}
+
+	@Test
+	public void mergedInjectionsPriority() throws Exception {
+		String grammarJson = "{\"scopeName\": \"source.test\", \"patterns\": [{\"match\": \"q\", \"name\": \"q.test\"}],"
+				+ "\"injections\": {"
+				+ "\"L:source.test\": {\"patterns\": [{\"match\": \"ab\", \"name\": \"left.test\"}]},"
+				+ "\"source.test\": {\"patterns\": [{\"match\": \"a\", \"name\": \"a.test\"}]},"
+				+ "\"R:source.test\": {\"patterns\": [{\"match\": \"b\", \"name\": \"right.test\"}]},"
+				+ "\"source.test - source.test\": {\"patterns\": [{\"match\": \"x\", \"name\": \"never.test\"}]}}}";
+		IGrammar grammar = new Registry().loadGrammarFromPathSync("test.json",
+				new ByteArrayInputStream(grammarJson.getBytes(StandardCharsets.UTF_8)));
+		// at the search start, the first injection by priority wins
+		assertTokens(grammar, "ab", "0-2 [source.test, left.test]");
+		// after the search start, the last injection with the closest match wins
+		assertTokens(grammar, "xab", "0-1 [source.test]", "1-2 [source.test, a.test]",
+				"2-3 [source.test, right.test]");
+		assertTokens(grammar, "qxab", "0-1 [source.test, q.test]", "1-2 [source.test]", "2-3 [source.test, a.test]",
+				"3-4 [source.test, right.test]");
+	}
+
+	private static void assertTokens(IGrammar grammar, String line, String... expected) {
+		IToken[] tokens = grammar.tokenizeLine(line).getTokens();
+		String[] actual = new String[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			actual[i] = tokens[i].getStartIndex() + "-" + tokens[i].getEndIndex() + " " + tokens[i].getScopes();
+		}
+		Assertions.assertArrayEquals(expected, actual, line);
+	}
 }
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.eclipse.tm4e.core.DataHelper.loadGrammar;
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+import static org.eclipse.tm4e.core.DataHelper.tokenize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.eclipse.tm4e.core.DataHelper.Options;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigRegExpCache;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the lazy compilation of the grammar regexps.
+ *
+ */
+public class GrammarLazyCompilationTest {
+
+	@Test
+	public void fewerCompilationsForFirstLine() throws Exception {
+		List<String> lines = readLines("raytracer.ts");
+
+		IGrammar eagerGrammar = loadGrammar("TypeScript.tmLanguage.json", new Options());
+		long lookups = getLookupCount();
+		eagerGrammar.tokenizeLine(lines.get(0));
+		long eagerCompilations = getLookupCount() - lookups;
+
+		IGrammar lazyGrammar = loadGrammar("TypeScript.tmLanguage.json", new Options().lazyCompilation(true));
+		lookups = getLookupCount();
+		lazyGrammar.tokenizeLine(lines.get(0));
+		long lazyCompilations = getLookupCount() - lookups;
+
+		assertTrue(lazyCompilations < eagerCompilations, lazyCompilations + " >= " + eagerCompilations);
+	}
+
+	/**
+	 * Returns the number of lookups of the shared regex cache, which each regexp does once when it is compiled, so
+	 * that the regexps compiled by a grammar are counted whatever the regexes cached by the other tests.
+	 */
+	private static long getLookupCount() {
+		OnigRegExpCache cache = OnigRegExpCache.getInstance();
+		return cache.getHitCount() + cache.getMissCount();
+	}
+
+	@Test
+	public void sameTokens() throws Exception {
+		List<String> lines = readLines("raytracer.ts");
+		String path = "TypeScript.tmLanguage.json";
+		List<String> expected = tokenize(loadGrammar(path, new Options()), lines);
+		assertEquals(expected, tokenize(loadGrammar(path, new Options().lazyCompilation(true)), lines));
+		assertEquals(expected,
+				tokenize(loadGrammar(path, new Options().lazyCompilation(true).backgroundCompilation(true)), lines));
+	}
+}
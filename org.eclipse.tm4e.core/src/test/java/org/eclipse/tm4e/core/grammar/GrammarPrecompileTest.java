@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.eclipse.tm4e.core.DataHelper.loadGrammar;
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+import static org.eclipse.tm4e.core.DataHelper.tokenize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.eclipse.tm4e.core.DataHelper.Options;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigRegExpCache;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the precompilation of a grammar before tokenizing.
+ *
+ */
+public class GrammarPrecompileTest {
+
+	@Test
+	public void noCompilationWhenTokenizing() throws Exception {
+		List<String> lines = readLines("raytracer.ts");
+
+		IGrammar grammar = loadGrammar("TypeScript.tmLanguage.json", new Options().lazyCompilation(true));
+		long lookups = getLookupCount();
+		grammar.precompile();
+		long precompiled = getLookupCount() - lookups;
+		lookups = getLookupCount();
+		tokenize(grammar, lines);
+		long compiledWhenTokenizing = getLookupCount() - lookups;
+
+		// only the end patterns with back references are compiled when tokenizing
+		assertTrue(compiledWhenTokenizing * 10 < precompiled, compiledWhenTokenizing + " regexps compiled");
+	}
+
+	/**
+	 * Returns the number of lookups of the shared regex cache, which each regexp does once when it is compiled, so
+	 * that the regexps compiled by a grammar are counted whatever the regexes cached by the other tests.
+	 */
+	private static long getLookupCount() {
+		OnigRegExpCache cache = OnigRegExpCache.getInstance();
+		return cache.getHitCount() + cache.getMissCount();
+	}
+
+	@Test
+	public void sameTokens() throws Exception {
+		List<String> lines = readLines("raytracer.ts");
+		List<String> expected = tokenize(loadGrammar("TypeScript.tmLanguage.json", new Options()), lines);
+
+		IGrammar grammar = loadGrammar("TypeScript.tmLanguage.json", new Options());
+		grammar.precompile();
+		assertEquals(expected, tokenize(grammar, lines));
+
+		grammar = loadGrammar("TypeScript.tmLanguage.json", new Options().lazyCompilation(true));
+		grammar.precompile(ForkJoinPool.commonPool());
+		assertEquals(expected, tokenize(grammar, lines));
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.eclipse.tm4e.core.DataHelper.loadGrammar;
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+import static org.eclipse.tm4e.core.DataHelper.tokenize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.tm4e.core.DataHelper.Options;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Test for the profiling of the grammar regexps.
+ *
+ */
+public class GrammarRegExpProfilingTest {
+
+	private static final String GRAMMAR = "TypeScript.tmLanguage.json";
+
+	@Test
+	public void profileRegExps() throws Exception {
+		List<String> lines = readLines("raytracer.ts");
+		IGrammar grammar = loadGrammar(GRAMMAR, new Options().unionSearch(true).profiling(true));
+		List<String> expected = tokenize(loadGrammar(GRAMMAR, new Options().unionSearch(true)), lines);
+		assertEquals(expected, tokenize(grammar, lines));
+
+		List<IRegExpProfile> profiles = grammar.getRegExpProfiles();
+		assertFalse(profiles.isEmpty());
+		long matchCount = 0;
+		long memoHitCount = 0;
+		for (int i = 0; i < profiles.size(); i++) {
+			IRegExpProfile profile = profiles.get(i);
+			assertTrue(profile.getMatchCount() <= profile.getSearchCount(), profile.toString());
+			assertTrue(profile.getMaxNanos() <= profile.getTotalNanos(), profile.toString());
+			assertTrue(profile.getMemoHitCount() <= profile.getSearchCount(), profile.toString());
+			if (i > 0) {
+				assertTrue(profile.getTotalNanos() <= profiles.get(i - 1).getTotalNanos());
+			}
+			matchCount += profile.getMatchCount();
+			memoHitCount += profile.getMemoHitCount();
+		}
+		assertTrue(matchCount > lines.size());
+		// the regexps included by several rules are searched once per line position
+		assertTrue(memoHitCount > 0);
+		assertTrue(profiles.get(0).getTotalNanos() > 0);
+
+		JsonArray json = JsonParser.parseString(GrammarHelper.toJson(profiles)).getAsJsonArray();
+		assertEquals(profiles.size(), json.size());
+		JsonObject first = json.get(0).getAsJsonObject();
+		assertEquals(profiles.get(0).getRuleId(), first.get("ruleId").getAsInt());
+		assertEquals(profiles.get(0).getRegExp(), first.get("regExp").getAsString());
+		assertEquals(profiles.get(0).getSearchCount(), first.get("searchCount").getAsLong());
+		assertEquals(profiles.get(0).getMemoHitCount(), first.get("memoHitCount").getAsLong());
+		assertEquals(profiles.get(0).getTotalNanos(), first.get("totalNanos").getAsLong());
+
+		grammar.resetRegExpProfiles();
+		for (IRegExpProfile profile : grammar.getRegExpProfiles()) {
+			assertEquals(0, profile.getSearchCount());
+		}
+	}
+
+	@Test
+	public void profileRegExpsSearchedByThreads() throws Exception {
+		List<String> lines = readLines("raytracer.ts");
+		IGrammar grammar = loadGrammar(GRAMMAR, new Options().unionSearch(true).profiling(true));
+		tokenize(grammar, lines);
+		long searchCount = getSearchCount(grammar);
+		grammar.resetRegExpProfiles();
+
+		int threadCount = 4;
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			List<Future<List<String>>> results = new ArrayList<>();
+			for (int i = 0; i < threadCount; i++) {
+				results.add(executor.submit(() -> tokenize(grammar, lines)));
+			}
+			for (Future<List<String>> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(threadCount * searchCount, getSearchCount(grammar));
+	}
+
+	private static long getSearchCount(IGrammar grammar) {
+		long searchCount = 0;
+		for (IRegExpProfile profile : grammar.getRegExpProfiles()) {
+			searchCount += profile.getSearchCount();
+		}
+		return searchCount;
+	}
+
+	@Test
+	public void noProfilingByDefault() throws Exception {
+		IGrammar grammar = loadGrammar(GRAMMAR, new Options().unionSearch(true));
+		tokenize(grammar, readLines("raytracer.ts"));
+		assertTrue(grammar.getRegExpProfiles().isEmpty());
+		assertEquals("[]", GrammarHelper.toJson(grammar.getRegExpProfiles()));
+	}
+}
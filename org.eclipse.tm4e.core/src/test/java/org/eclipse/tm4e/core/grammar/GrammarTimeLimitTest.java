@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.eclipse.tm4e.core.registry.Registry;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the time limit of the tokenization of a line.
+ *
+ */
+public class GrammarTimeLimitTest {
+
+	private static final String GRAMMAR = "{\"scopeName\": \"source.test\", \"patterns\": ["
+			+ "{\"match\": \"b\", \"name\": \"b.test\"},"
+			// backtracks for minutes on a long run of 'a' not followed by the end of the line
+			+ "{\"match\": \"(a+)+$\", \"name\": \"a.test\"}]}";
+
+	private static IGrammar loadGrammar() throws Exception {
+		return new Registry().loadGrammarFromPathSync("test.json",
+				new ByteArrayInputStream(GRAMMAR.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void interruptRunawaySearch() throws Exception {
+		IGrammar grammar = loadGrammar();
+		String line = "b" + "a".repeat(40) + "b";
+
+		long start = System.nanoTime();
+		ITokenizeLineResult result = grammar.tokenizeLine(line, null, Duration.ofMillis(100));
+		long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+		assertTrue(result.isStoppedEarly());
+		assertTrue(elapsed < 5_000, "tokenization took " + elapsed + "ms");
+		assertFalse(Thread.currentThread().isInterrupted());
+		// the first 'b' is tokenized, the rest of the line is one token with the scopes of the state at the stop
+		IToken[] tokens = result.getTokens();
+		assertEquals(2, tokens.length);
+		assertEquals("[source.test, b.test]", tokens[0].getScopes().toString());
+		assertEquals(1, tokens[1].getStartIndex());
+		assertEquals(line.length() + 1, tokens[1].getEndIndex());
+		assertEquals("[source.test]", tokens[1].getScopes().toString());
+
+		// the grammar is still usable
+		result = grammar.tokenizeLine("aab", result.getRuleStack(), Duration.ofMillis(100));
+		assertFalse(result.isStoppedEarly());
+		assertEquals(2, result.getTokens().length);
+
+		ITokenizeLineResult2 binaryResult = grammar.tokenizeLine2(line, null, Duration.ofMillis(100));
+		assertTrue(binaryResult.isStoppedEarly());
+		assertFalse(Thread.currentThread().isInterrupted());
+
+		BinaryTokenBuffer buffer = new BinaryTokenBuffer();
+		grammar.tokenizeLine2(line, null, Duration.ofMillis(100), buffer);
+		assertTrue(buffer.isStoppedEarly());
+		assertEquals(binaryResult.getTokens().length / 2, buffer.getTokenCount());
+	}
+
+	@Test
+	public void withinTimeLimit() throws Exception {
+		IGrammar grammar = loadGrammar();
+		ITokenizeLineResult expected = grammar.tokenizeLine("baab");
+		ITokenizeLineResult result = grammar.tokenizeLine("baab", null, Duration.ofSeconds(10));
+		assertFalse(expected.isStoppedEarly());
+		assertFalse(result.isStoppedEarly());
+		assertEquals(expected.getTokens().length, result.getTokens().length);
+		for (int i = 0; i < expected.getTokens().length; i++) {
+			assertEquals(expected.getTokens()[i].getStartIndex(), result.getTokens()[i].getStartIndex());
+			assertEquals(expected.getTokens()[i].getScopes(), result.getTokens()[i].getScopes());
+		}
+		assertFalse(Thread.currentThread().isInterrupted());
+	}
+
+	@Test
+	public void interruptedByOtherThread() throws Exception {
+		IGrammar grammar = loadGrammar();
+		Thread tokenizer = Thread.currentThread();
+		Thread interrupter = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				return;
+			}
+			tokenizer.interrupt();
+		});
+		interrupter.start();
+		ITokenizeLineResult result = grammar.tokenizeLine("a".repeat(40) + "b", null);
+		interrupter.join();
+
+		// the interruption is not a match, and is left for the owner of the thread
+		assertTrue(result.isStoppedEarly());
+		assertTrue(Thread.interrupted());
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.eclipse.tm4e.core.DataHelper.loadGrammar;
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the tokenization of a line in several parts.
+ *
+ */
+public class GrammarTokenizeLinePartTest {
+
+	@Test
+	public void typeScriptInParts() throws Exception {
+		assertSameTokensInParts("TypeScript.tmLanguage.json", "raytracer.ts");
+	}
+
+	@Test
+	public void markdownInParts() throws Exception {
+		// the Markdown grammar has end and while patterns with back references
+		assertSameTokensInParts("Markdown.tmLanguage", "test.md.txt");
+	}
+
+	@Test
+	public void pauseOnTimeBudget() throws Exception {
+		IGrammar grammar = loadGrammar("TypeScript.tmLanguage.json");
+		String line = "var x = 'a' + f(1, 2); ".repeat(1000);
+		ITokenizeLineResult expected = grammar.tokenizeLine(line);
+
+		// no time budget: each part scans once
+		ITokenizeLinePartResult part = grammar.tokenizeLinePart(line, null, Integer.MAX_VALUE, Duration.ZERO, null);
+		List<IToken> tokens = new ArrayList<>();
+		int parts = 1;
+		for (; part.isPaused(); parts++) {
+			assertTokensStartAt(tokens, part);
+			part = grammar.resumeLinePart(part, Integer.MAX_VALUE, Duration.ZERO, null);
+		}
+		assertTokensStartAt(tokens, part);
+		assertTrue(parts > 1000, parts + " parts");
+		assertSameTokens(expected.getTokens(), tokens, line);
+		assertSame(expected.getRuleStack(), part.getRuleStack());
+	}
+
+	@Test
+	public void resumeInvalidPart() throws Exception {
+		IGrammar grammar = loadGrammar("TypeScript.tmLanguage.json");
+		ITokenizeLinePartResult complete = grammar.tokenizeLinePart("var x = 1;", null, Integer.MAX_VALUE, null,
+				null);
+		assertFalse(complete.isPaused());
+		assertThrows(IllegalArgumentException.class,
+				() -> grammar.resumeLinePart(complete, Integer.MAX_VALUE, null, null));
+
+		ITokenizeLinePartResult paused = grammar.tokenizeLinePart("var x = 1;", null, 1, null, null);
+		assertTrue(paused.isPaused());
+		IGrammar otherGrammar = loadGrammar("TypeScript.tmLanguage.json");
+		assertThrows(IllegalArgumentException.class,
+				() -> otherGrammar.resumeLinePart(paused, Integer.MAX_VALUE, null, null));
+	}
+
+	@Test
+	public void defaultImplementation() throws Exception {
+		IGrammar grammar = loadGrammar("TypeScript.tmLanguage.json");
+		IGrammar defaultGrammar = new DelegatingGrammar(grammar);
+		String line = "var x = 'a' + f(1, 2);";
+		ITokenizeLineResult expected = grammar.tokenizeLine(line);
+
+		// the default implementation does not pause
+		ITokenizeLinePartResult part = defaultGrammar.tokenizeLinePart(line, null, 5, Duration.ZERO, null);
+		assertFalse(part.isPaused());
+		assertFalse(part.isStoppedEarly());
+		assertEquals(line.length(), part.getStopOffset());
+		List<IToken> tokens = new ArrayList<>();
+		assertTokensStartAt(tokens, part);
+		assertSameTokens(expected.getTokens(), tokens, line);
+		assertSame(expected.getRuleStack(), part.getRuleStack());
+		assertThrows(IllegalArgumentException.class,
+				() -> defaultGrammar.resumeLinePart(part, Integer.MAX_VALUE, null, null));
+	}
+
+	private static void assertSameTokensInParts(String grammarPath, String path) throws Exception {
+		IGrammar grammar = loadGrammar(grammarPath);
+		StackElement state = null;
+		for (String line : readLines(path)) {
+			ITokenizeLineResult expected = grammar.tokenizeLine(line, state);
+
+			ITokenizeLinePartResult part = grammar.tokenizeLinePart(line, state, 5, null, null);
+			List<IToken> tokens = new ArrayList<>();
+			while (part.isPaused()) {
+				assertTokensStartAt(tokens, part);
+				part = grammar.resumeLinePart(part, part.getStopOffset() + 5, null, null);
+			}
+			assertTokensStartAt(tokens, part);
+			assertSameTokens(expected.getTokens(), tokens, line);
+			assertSame(expected.getRuleStack(), part.getRuleStack(), line);
+			state = part.getRuleStack();
+		}
+	}
+
+	/**
+	 * Asserts that the tokens of the given part start where the previous parts stopped, and adds them to the given
+	 * tokens.
+	 */
+	private static void assertTokensStartAt(List<IToken> tokens, ITokenizeLinePartResult part) {
+		for (IToken token : part.getTokens()) {
+			if (!tokens.isEmpty()) {
+				assertEquals(tokens.get(tokens.size() - 1).getEndIndex(), token.getStartIndex());
+			}
+			tokens.add(token);
+		}
+	}
+
+	private static void assertSameTokens(IToken[] expected, List<IToken> actual, String line) {
+		assertEquals(expected.length, actual.size(), line);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i].getStartIndex(), actual.get(i).getStartIndex(), line);
+			assertEquals(expected[i].getEndIndex(), actual.get(i).getEndIndex(), line);
+			assertEquals(expected[i].getScopes(), actual.get(i).getScopes(), line);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.eclipse.tm4e.core.DataHelper.loadGrammar;
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the tokenization of several lines at once.
+ *
+ */
+public class GrammarTokenizeLinesTest {
+
+	private static final String GRAMMAR = "TypeScript.tmLanguage.json";
+
+	@Test
+	public void sameTokensAsTokenizeLine2() throws Exception {
+		List<String> lines = readLines("raytracer.ts");
+		IGrammar grammar = loadGrammar(GRAMMAR);
+
+		ITokenizeLinesResult result = grammar.tokenizeLines(lines, null, 10);
+		assertEquals(lines.size(), result.getLineCount());
+		StackElement state = null;
+		for (int i = 0; i < lines.size(); i++) {
+			ITokenizeLineResult2 expected = grammar.tokenizeLine2(lines.get(i), state);
+			state = expected.getRuleStack();
+
+			int[] tokens = Arrays.copyOfRange(result.getTokens(), result.getLineStartToken(i) * 2,
+					result.getLineStartToken(i + 1) * 2);
+			assertArrayEquals(expected.getTokens(), tokens, lines.get(i));
+			if ((i + 1) % 10 == 0 || i == lines.size() - 1) {
+				assertSame(state, result.getLineEndState(i));
+			} else {
+				assertNull(result.getLineEndState(i));
+			}
+		}
+		assertEquals(result.getLineStartToken(lines.size()), result.getTokenCount());
+		assertSame(state, result.getRuleStack());
+	}
+
+	@Test
+	public void resume() throws Exception {
+		List<String> lines = readLines("raytracer.ts");
+		IGrammar grammar = loadGrammar(GRAMMAR);
+
+		ITokenizeLinesResult all = grammar.tokenizeLines(lines, null, 1);
+		int half = lines.size() / 2;
+		ITokenizeLinesResult end = grammar.tokenizeLines(lines.subList(half, lines.size()),
+				all.getLineEndState(half - 1));
+		assertArrayEquals(Arrays.copyOfRange(all.getTokens(), all.getLineStartToken(half) * 2, all.getTokenCount() * 2),
+				Arrays.copyOf(end.getTokens(), end.getTokenCount() * 2));
+		assertSame(all.getRuleStack(), end.getRuleStack());
+	}
+
+	@Test
+	public void defaultImplementation() throws Exception {
+		List<String> lines = readLines("raytracer.ts");
+		IGrammar grammar = loadGrammar(GRAMMAR);
+		ITokenizeLinesResult expected = grammar.tokenizeLines(lines, null, 10);
+
+		IGrammar delegatingGrammar = new DelegatingGrammar(grammar);
+		assertSameResult(expected, delegatingGrammar.tokenizeLines(lines, null, 10));
+		assertSameResult(expected, delegatingGrammar.tokenizeLines(lines, null, 10, ForkJoinPool.commonPool()));
+		assertSame(expected.getRuleStack(), delegatingGrammar.tokenizeLines(lines, null).getRuleStack());
+	}
+
+	private static void assertSameResult(ITokenizeLinesResult expected, ITokenizeLinesResult actual) {
+		assertEquals(expected.getLineCount(), actual.getLineCount());
+		assertArrayEquals(Arrays.copyOf(expected.getTokens(), expected.getTokenCount() * 2),
+				Arrays.copyOf(actual.getTokens(), actual.getTokenCount() * 2));
+		for (int i = 0; i < expected.getLineCount(); i++) {
+			assertEquals(expected.getLineStartToken(i), actual.getLineStartToken(i));
+			assertSame(expected.getLineEndState(i), actual.getLineEndState(i));
+		}
+		assertSame(expected.getRuleStack(), actual.getRuleStack());
+	}
+
+	@Test
+	public void noLine() throws Exception {
+		ITokenizeLinesResult result = loadGrammar(GRAMMAR).tokenizeLines(Collections.emptyList(), null);
+		assertEquals(0, result.getLineCount());
+		assertEquals(0, result.getTokenCount());
+		assertEquals(0, result.getLineStartToken(0));
+		assertNull(result.getRuleStack());
+	}
+}
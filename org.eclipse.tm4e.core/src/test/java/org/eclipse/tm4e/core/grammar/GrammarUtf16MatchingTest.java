@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.eclipse.tm4e.core.DataHelper.loadGrammar;
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+import static org.eclipse.tm4e.core.DataHelper.tokenize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.eclipse.tm4e.core.DataHelper.Options;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the matching of the grammar regexps in UTF-16, see
+ * {@link org.eclipse.tm4e.core.registry.IRegistryOptions#isUtf16RegExpMatching()}.
+ *
+ */
+public class GrammarUtf16MatchingTest {
+
+	@Test
+	public void typeScript() throws Exception {
+		assertSameTokens("TypeScript.tmLanguage.json", "raytracer.ts");
+	}
+
+	@Test
+	public void javaScript() throws Exception {
+		assertSameTokens("JavaScript.tmLanguage.json", "raytracer.ts");
+	}
+
+	@Test
+	public void csharp() throws Exception {
+		assertSameTokens("csharp.json", "raytracer.ts");
+	}
+
+	@Test
+	public void markdown() throws Exception {
+		assertSameTokens("Markdown.tmLanguage", "test.md.txt");
+	}
+
+	private static void assertSameTokens(String grammarPath, String path) throws Exception {
+		List<String> lines = readLines(path);
+		IGrammar utf8Grammar = loadGrammar(grammarPath, new Options());
+		IGrammar utf16Grammar = loadGrammar(grammarPath, new Options().utf16(true));
+		assertEquals(tokenize(utf8Grammar, lines), tokenize(utf16Grammar, lines));
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.eclipse.tm4e.core.DataHelper.loadGrammar;
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Benchmark of the parallel tokenization of a large file (raytracer.ts repeated up to about 200k lines) against its
+ * sequential tokenization, see {@link IGrammar#tokenizeLines(List, StackElement, int, ForkJoinPool)}. The speedup
+ * depends on the number of cores: run it with e.g. -Djava.util.concurrent.ForkJoinPool.common.parallelism=N.
+ */
+public class ParallelTokenizationBenchmark {
+
+	private static final int LINE_COUNT = 200_000;
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		IGrammar grammar = loadGrammar("TypeScript.tmLanguage.json");
+		grammar.precompile();
+
+		List<String> file = readLines("raytracer.ts");
+		List<String> lines = new ArrayList<>();
+		while (lines.size() < LINE_COUNT) {
+			lines.addAll(file);
+		}
+
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		long sequential = Long.MAX_VALUE;
+		long parallel = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			ITokenizeLinesResult expected = grammar.tokenizeLines(lines, null);
+			sequential = Math.min(sequential, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			ITokenizeLinesResult actual = grammar.tokenizeLines(lines, null, 0, pool);
+			parallel = Math.min(parallel, System.nanoTime() - start);
+
+			if (!Arrays.equals(Arrays.copyOf(expected.getTokens(), expected.getTokenCount() * 2),
+					Arrays.copyOf(actual.getTokens(), actual.getTokenCount() * 2))) {
+				throw new IllegalStateException("different tokens");
+			}
+		}
+		System.out.println(lines.size() + " lines of raytracer.ts with TypeScript.tmLanguage.json, sequential: "
+				+ (sequential / 1_000_000) + "ms, parallel on " + pool.getParallelism() + " threads: "
+				+ (parallel / 1_000_000) + "ms, speedup: " + String.format("%.2f", (double) sequential / parallel));
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.grammar;
+
+import static org.eclipse.tm4e.core.DataHelper.loadGrammar;
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.tm4e.core.internal.grammar.ScopeListElement;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the canonical states of the tokenization.
+ *
+ */
+public class StackElementInternerTest {
+
+	@Test
+	public void equalStatesAreSameInstance() throws Exception {
+		List<String> lines = readLines("raytracer.ts");
+		IGrammar grammar = loadGrammar("TypeScript.tmLanguage.json");
+
+		List<StackElement> states = new ArrayList<>();
+		StackElement state = null;
+		for (String line : lines) {
+			state = grammar.tokenizeLine(line, state).getRuleStack();
+			states.add(state);
+		}
+		// tokenizing the same lines again gives the same states
+		state = null;
+		for (int i = 0; i < lines.size(); i++) {
+			state = grammar.tokenizeLine(lines.get(i), state).getRuleStack();
+			assertSame(states.get(i), state);
+		}
+		// states of different lines are equal only if they are the same instance
+		for (int i = 1; i < states.size(); i++) {
+			StackElement previous = states.get(i - 1);
+			StackElement current = states.get(i);
+			assertEquals(previous == current, previous.equals(current));
+		}
+	}
+
+	@Test
+	public void internStates() {
+		StackElementInterner interner = new StackElementInterner();
+		ScopeListElement root = new ScopeListElement(null, "source.a", 0);
+		StackElement a = new StackElement(null, 1, 3, null, root, root);
+		StackElement a1 = a.push(2, 5, "end", root, new ScopeListElement(root, "meta.b", 0));
+		StackElement a2 = new StackElement(null, 1, 0, null, root, new ScopeListElement(null, "source.a", 0))
+				.push(2, 7, "end", root, new ScopeListElement(new ScopeListElement(null, "source.a", 0), "meta.b", 0));
+		assertEquals(a1, a2);
+		assertEquals(a1.hashCode(), a2.hashCode());
+
+		StackElement canonical = interner.intern(a1);
+		assertSame(a1, canonical);
+		assertEquals(-1, canonical.getEnterPos());
+		assertSame(canonical, interner.intern(a2));
+		assertEquals(2, interner.size());
+
+		StackElement other = interner.intern(a2.push(3, 0, null, root, root));
+		assertSame(canonical, other.parent);
+		assertNotEquals(canonical, other);
+		assertNotSame(canonical, interner.intern(a2.setEndRule("other")));
+		assertTrue(canonical.equals(a2));
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import static org.eclipse.tm4e.core.DataHelper.loadGrammar;
+import static org.eclipse.tm4e.core.DataHelper.readLines;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.eclipse.tm4e.core.grammar.ITokenizeLinesResult;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the speculative parallel tokenization, with small chunks so that many boundaries are checked.
+ *
+ */
+public class ParallelLinesTokenizerTest {
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+	@Test
+	public void typeScript() throws Exception {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			lines.addAll(readLines("raytracer.ts"));
+		}
+		assertSameResult((Grammar) loadGrammar("TypeScript.tmLanguage.json"), lines, 100);
+	}
+
+	@Test
+	public void longComments() throws Exception {
+		// comments longer than the warm-up lines, so that the chunks starting inside them must be repaired
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			lines.add("/*");
+			for (int j = 0; j < 150; j++) {
+				lines.add(" * let x = \"" + j + "\";");
+			}
+			lines.add(" */");
+			for (int j = 0; j < 50; j++) {
+				lines.add("let x" + j + " = `" + j + "`;");
+			}
+		}
+		assertSameResult((Grammar) loadGrammar("TypeScript.tmLanguage.json"), lines, 64);
+	}
+
+	@Test
+	public void markdown() throws Exception {
+		assertSameResult((Grammar) loadGrammar("Markdown.tmLanguage"), readLines("test.md.txt"), 10);
+	}
+
+	private static void assertSameResult(Grammar grammar, List<String> lines, int chunkSize) {
+		ITokenizeLinesResult expected = grammar.tokenizeLines(lines, null, 1);
+		ITokenizeLinesResult actual = ParallelLinesTokenizer.tokenize(grammar, lines, null, 1, POOL, chunkSize);
+
+		assertEquals(expected.getLineCount(), actual.getLineCount());
+		assertEquals(expected.getTokenCount(), actual.getTokenCount());
+		assertArrayEquals(Arrays.copyOf(expected.getTokens(), expected.getTokenCount() * 2),
+				Arrays.copyOf(actual.getTokens(), actual.getTokenCount() * 2));
+		for (int i = 0; i < lines.size(); i++) {
+			assertEquals(expected.getLineStartToken(i), actual.getLineStartToken(i), lines.get(i));
+			assertSame(expected.getLineEndState(i), actual.getLineEndState(i), lines.get(i));
+		}
+		assertSame(expected.getRuleStack(), actual.getRuleStack());
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.tm4e.core.grammar.IToken;
+import org.eclipse.tm4e.core.grammar.StackElement;
+import org.eclipse.tm4e.core.internal.theme.reader.ThemeReader;
+import org.eclipse.tm4e.core.registry.Registry;
+import org.eclipse.tm4e.core.theme.FontStyle;
+import org.eclipse.tm4e.core.theme.IRawTheme;
+import org.junit.jupiter.api.Test;
+
+public class ScopeNamesTest {
+
+	@Test
+	public void testInternedIds() {
+		ScopeNames scopeNames = new ScopeNames();
+		int a = scopeNames.getId("source.a");
+		int b = scopeNames.getId("meta.b");
+		assertEquals(a, scopeNames.getId(new String("source.a")));
+		assertEquals("meta.b", scopeNames.getName(b));
+		assertEquals(2, scopeNames.size());
+
+		int[] split = scopeNames.split("meta.b string.c");
+		assertArrayEquals(new int[] { b, scopeNames.getId("string.c") }, split);
+		assertSame(split, scopeNames.split("meta.b string.c"));
+		assertArrayEquals(new int[] { a }, scopeNames.split("source.a"));
+	}
+
+	@Test
+	public void testCachedScopePath() {
+		ScopeNames scopeNames = new ScopeNames();
+		ScopeListElement root = new ScopeListElement(null, "source.a", scopeNames.getId("source.a"), 0);
+		ScopeListElement meta = new ScopeListElement(root, "meta.b", scopeNames.getId("meta.b"), 0);
+		ScopeListElement string = new ScopeListElement(meta, "string.c", scopeNames.getId("string.c"), 0);
+
+		List<String> scopes = string.generateScopes();
+		assertEquals(Arrays.asList("source.a", "meta.b", "string.c"), scopes);
+		assertSame(scopes, string.generateScopes());
+		assertThrows(UnsupportedOperationException.class, () -> scopes.add("x"));
+		assertEquals(Arrays.asList("source.a", "meta.b"), meta.generateScopes());
+
+		assertArrayEquals(new int[] { root.scopeId, meta.scopeId }, meta.getScopeIds());
+		int[] ids = string.getScopeIds();
+		assertArrayEquals(new int[] { root.scopeId, meta.scopeId, string.scopeId }, ids);
+		assertSame(ids, string.getScopeIds());
+	}
+
+	@Test
+	public void testNamesResolvedFromCapturesAreNotInterned() throws Exception {
+		String grammarJson = "{\"scopeName\": \"source.test\", \"patterns\": ["
+				+ "{\"match\": \"<(\\\\w+)>\", \"name\": \"entity.name.tag.$1 meta.tag\"}]}";
+		Grammar grammar = (Grammar) new Registry().loadGrammarFromPathSync("test.json",
+				new ByteArrayInputStream(grammarJson.getBytes(StandardCharsets.UTF_8)));
+		grammar.tokenizeLine("<a>");
+		ScopeNames scopeNames = grammar.getScopeNames();
+		int size = scopeNames.size();
+
+		for (int i = 0; i < 100; i++) {
+			IToken[] tokens = grammar.tokenizeLine("<t" + i + ">").getTokens();
+			assertEquals(Arrays.asList("source.test", "entity.name.tag.t" + i, "meta.tag"), tokens[0].getScopes());
+		}
+		assertEquals(size, scopeNames.size());
+		assertEquals(-1, scopeNames.findId("entity.name.tag.t1"));
+	}
+
+	@Test
+	public void testPushedElementsFollowTheTheme() throws Exception {
+		String grammarJson = "{\"scopeName\": \"source.test\", \"patterns\": ["
+				+ "{\"match\": \"if\", \"name\": \"keyword.control\"}]}";
+		Registry registry = new Registry();
+		registry.setTheme(readTheme(""));
+		Grammar grammar = (Grammar) registry.loadGrammarFromPathSync("test.json",
+				new ByteArrayInputStream(grammarJson.getBytes(StandardCharsets.UTF_8)));
+		StackElement state = grammar.tokenizeLine2("").getRuleStack();
+		int[] tokens = grammar.tokenizeLine2("if", state).getTokens();
+		assertEquals(FontStyle.None, StackElementMetadata.getFontStyle(tokens[1]));
+
+		// the keyword scope list pushed on the root scope list of the state is computed again
+		registry.setTheme(readTheme(", \"fontStyle\": \"bold\""));
+		tokens = grammar.tokenizeLine2("if", state).getTokens();
+		assertEquals(FontStyle.Bold, StackElementMetadata.getFontStyle(tokens[1]));
+	}
+
+	private static IRawTheme readTheme(String keywordSettings) throws Exception {
+		String themeJson = "{\"name\": \"test\", \"settings\": ["
+				+ "{\"settings\": {\"foreground\": \"#000000\", \"background\": \"#FFFFFF\"}},"
+				+ "{\"scope\": \"keyword\", \"settings\": {\"foreground\": \"#FF0000\"" + keywordSettings + "}}]}";
+		return ThemeReader.readThemeSync("theme.json",
+				new ByteArrayInputStream(themeJson.getBytes(StandardCharsets.UTF_8)));
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.tm4e.core.Data;
+import org.jcodings.specific.UTF8Encoding;
+import org.joni.Matcher;
+import org.joni.Option;
+import org.joni.Regex;
+import org.joni.Syntax;
+import org.joni.WarnCallback;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+public class OnigPrefilterTest {
+
+	@Test
+	public void testFirstBytes() {
+		assertFind("\"", "abc\"def", 0, 3);
+		assertFind("//|/\\*", "a = b; /* c", 0, 7);
+		assertFind("\\b(if|else)\\b", "x = 1; else", 0, 7);
+		assertFind("(?<=\\.)\\s+([a-z]+)", "a. b", 0, 2);
+		assertFind("[<>]=?", "a => b", 0, 3);
+		assertFind("[]a]", "xx]", 0, 2);
+		assertFind("é+", "aaé", 0, 2);
+		assertFind("x", "xax", 1, 2);
+		assertFind("a?b", "xxb", 0, 2);
+		assertFind("(?:(\\bexport)\\s+)?\\b(var|let)", "x = export var", 0, 4);
+		assertFind("[[:alpha:]_][[:alnum:]]*", "1 + x1", 0, 4);
+		assertFind("x", "abc", 0, -1);
+
+		// regexps which can match an empty string, or whose first bytes are unknown
+		assertNull(OnigPrefilter.create("a?"));
+		assertNull(OnigPrefilter.create("(?=a)"));
+		assertNull(OnigPrefilter.create("a|"));
+		assertNull(OnigPrefilter.create(".a"));
+		assertNull(OnigPrefilter.create("[^a]"));
+		assertNull(OnigPrefilter.create("(?i)a"));
+		assertNull(OnigPrefilter.create("b|(?i:a)"));
+		assertNull(OnigPrefilter.create("\\Ga"));
+		assertNull(OnigPrefilter.create("\\x41"));
+		assertNull(OnigPrefilter.create("a{0,2}"));
+		assertNull(OnigPrefilter.create("[[:^alpha:]]"));
+	}
+
+	private static void assertFind(String regexp, String text, int position, int expected) {
+		OnigPrefilter prefilter = OnigPrefilter.create(regexp);
+		assertNotNull(prefilter, regexp);
+		byte[] data = text.getBytes(StandardCharsets.UTF_8);
+		assertEquals(expected, prefilter.find(data, position, data.length), regexp + " on '" + text + "'");
+	}
+
+	/**
+	 * Checks the searches using the prefilter find the same matches than plain joni searches for the regexps of the
+	 * TypeScript grammar.
+	 */
+	@Test
+	public void testSameMatchesThanJoni() throws Exception {
+		List<String> regexps = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				Data.class.getResourceAsStream("TypeScript.tmLanguage.json"), StandardCharsets.UTF_8))) {
+			collectRegexps(JsonParser.parseReader(reader), regexps);
+		}
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(Data.class.getResourceAsStream("raytracer.ts"), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null && lines.size() < 15) {
+				lines.add(line + "\n");
+			}
+		}
+		lines.add("const é = 'àé' + `${x}` // ü\n");
+
+		for (String regexp : regexps) {
+			byte[] pattern = regexp.getBytes(StandardCharsets.UTF_8);
+			Regex regex = new Regex(pattern, 0, pattern.length, Option.CAPTURE_GROUP, UTF8Encoding.INSTANCE,
+					Syntax.DEFAULT, WarnCallback.DEFAULT);
+			OnigRegExp regExp = new OnigRegExp(regexp);
+			for (String text : lines) {
+				OnigString line = new OnigString(text);
+				byte[] data = line.utf8_value;
+				Matcher matcher = regex.matcher(data, 0, data.length);
+				for (int charPosition = 0; charPosition <= text.length(); charPosition++) {
+					int position = line.convertUtf16OffsetToUtf8(charPosition);
+					int expected = matcher.search(position, data.length, Option.DEFAULT);
+					OnigResult result = regExp.search(line, position);
+					String message = regexp + " on '" + text + "' at " + position;
+					if (expected == Matcher.FAILED) {
+						assertNull(result, message);
+					} else {
+						assertNotNull(result, message);
+						assertEquals(expected, result.locationAt(0), message);
+						assertEquals(matcher.getEnd() - expected, result.lengthAt(0), message);
+					}
+				}
+			}
+		}
+	}
+
+	private static void collectRegexps(JsonElement element, List<String> regexps) {
+		if (element.isJsonArray()) {
+			element.getAsJsonArray().forEach(child -> collectRegexps(child, regexps));
+		} else if (element.isJsonObject()) {
+			for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+				if (entry.getValue().isJsonPrimitive() && ("match".equals(entry.getKey())
+						|| "begin".equals(entry.getKey()) || "end".equals(entry.getKey()))) {
+					regexps.add(entry.getValue().getAsString());
+				} else {
+					collectRegexps(entry.getValue(), regexps);
+				}
+			}
+		}
+	}
+}
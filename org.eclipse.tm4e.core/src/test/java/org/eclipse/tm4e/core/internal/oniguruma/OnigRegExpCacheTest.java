@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.oniguruma;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.joni.Option;
+import org.joni.Regex;
+import org.joni.exception.JOniException;
+import org.junit.jupiter.api.Test;
+
+public class OnigRegExpCacheTest {
+
+	@Test
+	public void testSharedRegex() {
+		OnigRegExpCache cache = new OnigRegExpCache(10);
+		Regex regex = get(cache, "a(b)", Option.CAPTURE_GROUP);
+		assertSame(regex, get(cache, "a(b)", Option.CAPTURE_GROUP));
+		assertNotSame(regex, get(cache, "a(b)", Option.NONE));
+		assertEquals(2, cache.getSize());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		OnigRegExpCache cache = new OnigRegExpCache(2);
+		Regex a = get(cache, "a", Option.CAPTURE_GROUP);
+		int bId = cache.getCompiled("b", Option.CAPTURE_GROUP, false).id;
+		Regex b = get(cache, "b", Option.CAPTURE_GROUP);
+		assertSame(a, get(cache, "a", Option.CAPTURE_GROUP));
+		get(cache, "c", Option.CAPTURE_GROUP);
+		assertEquals(2, cache.getSize());
+		assertEquals(1, cache.getEvictionCount());
+		// "b" was the least recently used
+		assertSame(a, get(cache, "a", Option.CAPTURE_GROUP));
+		assertNotSame(b, get(cache, "b", Option.CAPTURE_GROUP));
+		// a pattern compiled again gets a new id
+		assertNotEquals(bId, cache.getCompiled("b", Option.CAPTURE_GROUP, false).id);
+
+		cache.setMaxSize(1);
+		assertEquals(1, cache.getSize());
+		cache.clear();
+		assertEquals(0, cache.getSize());
+		assertEquals(0, cache.getHitCount());
+	}
+
+	@Test
+	public void testInvalidPattern() {
+		OnigRegExpCache cache = new OnigRegExpCache(10);
+		assertThrows(JOniException.class, () -> get(cache, "a(", Option.CAPTURE_GROUP));
+		assertEquals(0, cache.getSize());
+	}
+
+	private static Regex get(OnigRegExpCache cache, String pattern, int options) {
+		return cache.getCompiled(pattern, options, false).regex;
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.rule;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.function.IntFunction;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the compiled rules kept by {@link RegExpSourceList} for the sources with back references.
+ *
+ */
+public class RegExpSourceListTest {
+
+	private static final IRuleRegistry GRAMMAR = new IRuleRegistry() {
+
+		@Override
+		public Rule getRule(int patternId) {
+			return null;
+		}
+
+		@Override
+		public Rule registerRule(IntFunction<Rule> factory) {
+			return null;
+		}
+	};
+
+	@Test
+	public void switchBackToEarlierSource() {
+		RegExpSourceList list = new RegExpSourceList();
+		list.push(new RegExpSource("\\\\1", -1));
+		list.push(new RegExpSource("\\Ga", 1));
+
+		list.setSource(0, "EOF");
+		ICompiledRule eof = list.compile(GRAMMAR, false, true);
+		ICompiledRule eofNoG = list.compile(GRAMMAR, false, false);
+		assertArrayEquals(new String[] { "EOF", "\\Ga" }, eof.regexps);
+		assertNotSame(eof, eofNoG);
+
+		list.setSource(0, "END");
+		ICompiledRule end = list.compile(GRAMMAR, false, true);
+		assertArrayEquals(new String[] { "END", "\\Ga" }, end.regexps);
+
+		// the compiled rules of each anchor variant are reused
+		list.setSource(0, "EOF");
+		assertSame(eof, list.compile(GRAMMAR, false, true));
+		assertSame(eofNoG, list.compile(GRAMMAR, false, false));
+		list.setSource(0, "END");
+		assertSame(end, list.compile(GRAMMAR, false, true));
+	}
+
+	@Test
+	public void leastRecentlyUsedSourceIsEvicted() {
+		RegExpSourceList list = new RegExpSourceList();
+		list.push(new RegExpSource("\\\\1", -1));
+		list.push(new RegExpSource("a", 1));
+
+		list.setSource(0, "S0");
+		ICompiledRule first = list.compile(GRAMMAR, false, false);
+		for (int i = 1; i <= 16; i++) {
+			list.setSource(0, "S" + i);
+			list.compile(GRAMMAR, false, false);
+		}
+		// S0 is still kept with the 15 sources set after it
+		list.setSource(0, "S0");
+		assertSame(first, list.compile(GRAMMAR, false, false));
+
+		for (int i = 1; i <= 17; i++) {
+			list.setSource(0, "T" + i);
+		}
+		list.setSource(0, "S0");
+		assertNotSame(first, list.compile(GRAMMAR, false, false));
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.internal.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.eclipse.tm4e.core.internal.oniguruma.IOnigCaptureIndex;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScanner;
+import org.junit.jupiter.api.Test;
+
+public class CaptureTemplateTest {
+
+	private static final OnigScanner TAG = new OnigScanner(new String[] { "<([\\w.$]+)>" });
+
+	private static IOnigCaptureIndex[] match(String line) {
+		return TAG.findNextMatchSync(line, 0).getCaptureIndices();
+	}
+
+	@Test
+	public void testName() {
+		CaptureTemplate template = CaptureTemplate.ofName("entity.name.tag.$1.${1:/downcase} $2");
+		assertEquals("entity.name.tag.Div.div $2", template.resolve("<Div>", match("<Div>")));
+		// leading dots are removed, and the captured text is inserted as it is
+		assertEquals("entity.name.tag.$1.$1 $2", template.resolve("<..$1>", match("<..$1>")));
+		assertEquals("entity.name.tag.span.SPAN $2", CaptureTemplate.ofName("entity.name.tag.$1.${1:/upcase} $2")
+				.resolve("<span>", match("<span>")));
+	}
+
+	@Test
+	public void testBackReferences() {
+		CaptureTemplate template = CaptureTemplate.ofBackReferences("^\\s*\\1\\2$");
+		assertEquals("^\\s*a\\.b$", template.resolve("<a.b>", match("<a.b>")));
+		assertEquals("^\\s*\\$x$", template.resolve("<$x>", match("<$x>")));
+	}
+
+	@Test
+	public void testResolvedByCapturedText() {
+		CaptureTemplate template = CaptureTemplate.ofName("entity.name.tag.$1");
+		String div = template.resolve("<div>", match("<div>"));
+		assertSame(div, template.resolve(" <div>", match(" <div>")));
+		assertNotSame(div, template.resolve("<span>", match("<span>")));
+		assertSame(div, template.resolve("<div>", match("<div>")));
+
+		// the entries are replaced in the order they were added, a hit does not keep an entry longer
+		for (int i = 0; i < 8; i++) {
+			template.resolve("<t" + i + ">", match("<t" + i + ">"));
+		}
+		String newDiv = template.resolve("<div>", match("<div>"));
+		assertEquals(div, newDiv);
+		assertNotSame(div, newDiv);
+	}
+}
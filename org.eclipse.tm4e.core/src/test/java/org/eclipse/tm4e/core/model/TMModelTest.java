@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2022 Angelo ZERR.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ * Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package org.eclipse.tm4e.core.model;
+
+import static org.eclipse.tm4e.core.DataHelper.loadGrammar;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.tm4e.core.grammar.DelegatingGrammar;
+import org.eclipse.tm4e.core.grammar.IGrammar;
+import org.eclipse.tm4e.core.grammar.ITokenizeLinePartResult;
+import org.eclipse.tm4e.core.grammar.StackElement;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the background tokenization of the lines of a {@link TMModel}.
+ *
+ */
+public class TMModelTest {
+
+	private static final List<String> LINES = Arrays.asList("var a = 1;", "var x = 'a' + f(1, 2); ".repeat(100),
+			"var b = 2;");
+
+	/**
+	 * Lines of a list of strings.
+	 */
+	private static class LineList extends AbstractLineList {
+
+		private final List<String> lines;
+
+		LineList(List<String> lines) {
+			this.lines = lines;
+			for (int i = 0; i < lines.size(); i++) {
+				addLine(i);
+			}
+		}
+
+		@Override
+		public int getNumberOfLines() {
+			return lines.size();
+		}
+
+		@Override
+		public String getLineText(int lineIndex) {
+			return lines.get(lineIndex);
+		}
+
+		@Override
+		public int getLineLength(int lineIndex) {
+			return lines.get(lineIndex).length();
+		}
+
+		@Override
+		public void dispose() {
+		}
+	}
+
+	/**
+	 * Grammar pausing the tokenization of a line every 100 characters.
+	 */
+	private static class PausingGrammar extends DelegatingGrammar {
+
+		private final IGrammar grammar;
+		private final AtomicInteger resumedParts = new AtomicInteger();
+
+		PausingGrammar(IGrammar grammar) {
+			super(grammar);
+			this.grammar = grammar;
+		}
+
+		@Override
+		public ITokenizeLinePartResult tokenizeLinePart(String lineText, StackElement prevState, int stopAtOffset,
+				Duration timeBudget, Duration timeLimit) {
+			return grammar.tokenizeLinePart(lineText, prevState, Math.min(stopAtOffset, 100), timeBudget,
+					timeLimit);
+		}
+
+		@Override
+		public ITokenizeLinePartResult resumeLinePart(ITokenizeLinePartResult pausedPart, int stopAtOffset,
+				Duration timeBudget, Duration timeLimit) {
+			resumedParts.incrementAndGet();
+			return grammar.resumeLinePart(pausedPart, Math.min(stopAtOffset, pausedPart.getStopOffset() + 100),
+					timeBudget, timeLimit);
+		}
+	}
+
+	@Test
+	public void pausedLine() throws Exception {
+		IGrammar grammar = loadGrammar("TypeScript.tmLanguage.json");
+		PausingGrammar pausingGrammar = new PausingGrammar(grammar);
+		TMModel model = new TMModel(new LineList(LINES));
+		List<List<TMToken>> publishedTokens = new CopyOnWriteArrayList<>();
+		try {
+			model.setGrammar(pausingGrammar);
+			model.addModelTokensChangedListener(e -> {
+				List<TMToken> tokens = model.getLineTokens(1);
+				if (tokens != null && (publishedTokens.isEmpty()
+						|| publishedTokens.get(publishedTokens.size() - 1) != tokens)) {
+					publishedTokens.add(tokens);
+				}
+			});
+			List<String> expected = tokenize(grammar);
+			waitForTokens(model, expected);
+
+			// the long line is published in parts, each one ending with a default token from the pause
+			assertTrue(pausingGrammar.resumedParts.get() >= LINES.get(1).length() / 100 - 1,
+					pausingGrammar.resumedParts + " resumed parts");
+			assertTrue(publishedTokens.size() > 1, publishedTokens.size() + " published tokens");
+			List<String> lineTokens = toString(publishedTokens.get(publishedTokens.size() - 1));
+			for (List<TMToken> partialTokens : publishedTokens.subList(0, publishedTokens.size() - 1)) {
+				TMToken rest = partialTokens.get(partialTokens.size() - 1);
+				assertEquals("", rest.type);
+				assertTrue(rest.startIndex < LINES.get(1).length());
+				List<String> tokens = toString(partialTokens.subList(0, partialTokens.size() - 1));
+				assertEquals(lineTokens.subList(0, tokens.size()), tokens);
+			}
+			assertFalse(model.isLineDegraded(1));
+		} finally {
+			model.dispose();
+		}
+	}
+
+	@Test
+	public void defaultImplementation() throws Exception {
+		// a grammar not tokenizing the lines in several parts tokenizes them at once
+		IGrammar grammar = loadGrammar("TypeScript.tmLanguage.json");
+		TMModel model = new TMModel(new LineList(LINES));
+		try {
+			model.setGrammar(new DelegatingGrammar(grammar));
+			model.addModelTokensChangedListener(e -> {
+			});
+			waitForTokens(model, tokenize(grammar));
+			assertFalse(model.isLineDegraded(1));
+		} finally {
+			model.dispose();
+		}
+	}
+
+	/**
+	 * Returns the tokens of {@link #LINES} as "line: start type" strings.
+	 */
+	private static List<String> tokenize(IGrammar grammar) {
+		Tokenizer tokenizer = new Tokenizer(grammar);
+		TMState state = tokenizer.getInitialState();
+		List<String> tokens = new ArrayList<>();
+		for (int i = 0; i < LINES.size(); i++) {
+			LineTokens lineTokens = tokenizer.tokenize(LINES.get(i), state);
+			for (String token : toString(lineTokens.tokens)) {
+				tokens.add(i + ": " + token);
+			}
+			state = lineTokens.endState;
+		}
+		return tokens;
+	}
+
+	private static List<String> toString(List<TMToken> tokens) {
+		List<String> strings = new ArrayList<>();
+		for (TMToken token : tokens) {
+			strings.add(token.startIndex + " " + token.type);
+		}
+		return strings;
+	}
+
+	/**
+	 * Waits until the background tokenization of the model produces the given tokens.
+	 */
+	private static void waitForTokens(TMModel model, List<String> expected) throws InterruptedException {
+		List<String> tokens = new ArrayList<>();
+		for (long deadline = System.currentTimeMillis() + 10_000; System.currentTimeMillis() < deadline;) {
+			tokens.clear();
+			for (int i = 0; i < LINES.size(); i++) {
+				List<TMToken> lineTokens = model.getLineTokens(i);
+				if (lineTokens != null) {
+					for (String token : toString(lineTokens)) {
+						tokens.add(i + ": " + token);
+					}
+				}
+			}
+			if (tokens.equals(expected)) {
+				return;
+			}
+			Thread.sleep(10);
+		}
+		assertEquals(expected, tokens);
+	}
+}